@@ -0,0 +1,17 @@
+package com.sokcs.auth;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * socks5用户名密码认证的后端。在事件循环上调用，实现不能阻塞调用线程：
+ * 内存中的查找可以直接返回已完成的结果，访问文件、数据库或远程服务的实现继承{@link BlockingAuthenticator}
+ */
+public interface Authenticator {
+
+    /**
+     * @param username
+     * @param password
+     * @return 认证结果，异常完成视为认证失败
+     */
+    CompletableFuture<Boolean> authenticate(String username, String password);
+}
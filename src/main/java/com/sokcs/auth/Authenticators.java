@@ -0,0 +1,87 @@
+package com.sokcs.auth;
+
+import com.sokcs.config.ProxyConfig;
+import lombok.extern.slf4j.Slf4j;
+
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * 按配置选择socks5认证后端：{@link ProxyConfig#AUTH_BACKEND}、{@link ProxyConfig#AUTH_FILE}、
+ * {@link ProxyConfig#AUTH_USERS}依次优先，都未配置时不需要认证
+ */
+@Slf4j
+public final class Authenticators {
+    private static final CompletableFuture<Boolean> REJECTED = CompletableFuture.completedFuture(false);
+
+    // 未启用认证时为null
+    private static final Authenticator AUTHENTICATOR = create();
+
+    private Authenticators() {
+    }
+
+    public static boolean enabled() {
+        return Objects.nonNull(AUTHENTICATOR);
+    }
+
+    /**
+     * @return 按配置创建的认证后端，未启用认证时为null
+     */
+    public static Authenticator get() {
+        return AUTHENTICATOR;
+    }
+
+    /**
+     * 不会异常完成，后端出错时结果为false
+     *
+     * @param username
+     * @param password
+     * @return
+     */
+    public static CompletableFuture<Boolean> authenticate(String username, String password) {
+        return authenticate(AUTHENTICATOR, username, password);
+    }
+
+    /**
+     * 不会异常完成，后端出错时结果为false
+     *
+     * @param authenticator
+     * @param username
+     * @param password
+     * @return
+     */
+    public static CompletableFuture<Boolean> authenticate(Authenticator authenticator, String username, String password) {
+        try {
+            return authenticator.authenticate(username, password)
+                    .handle((ok, cause) -> Objects.isNull(cause) && Boolean.TRUE.equals(ok));
+        } catch (RuntimeException e) {
+            log.warn("认证后端查询失败：{} {}", username, e.getMessage());
+            return REJECTED;
+        }
+    }
+
+    private static Authenticator create() {
+        if (!ProxyConfig.AUTH_BACKEND.isEmpty()) {
+            Authenticator backend;
+            try {
+                backend = (Authenticator) Class.forName(ProxyConfig.AUTH_BACKEND).getDeclaredConstructor().newInstance();
+            } catch (ReflectiveOperationException | ClassCastException e) {
+                // 配置了认证却无法创建后端时拒绝所有用户
+                log.error("创建认证后端失败：{} {}", ProxyConfig.AUTH_BACKEND, e.toString());
+                return (username, password) -> REJECTED;
+            }
+            return ProxyConfig.AUTH_CACHE_TTL_SECONDS > 0
+                    ? new CredentialCache(backend, ProxyConfig.AUTH_CACHE_TTL_SECONDS, ProxyConfig.AUTH_CACHE_SIZE)
+                    : backend;
+        }
+        if (!ProxyConfig.AUTH_FILE.isEmpty()) {
+            return new FileAuthenticator(Paths.get(ProxyConfig.AUTH_FILE));
+        }
+        if (!ProxyConfig.AUTH_USERS.isEmpty()) {
+            return TableAuthenticator.parse(Arrays.asList(ProxyConfig.AUTH_USERS.split(",")));
+        }
+        return null;
+    }
+}
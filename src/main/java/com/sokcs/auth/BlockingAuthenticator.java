@@ -0,0 +1,44 @@
+package com.sokcs.auth;
+
+import com.sokcs.config.ProxyConfig;
+import io.netty.util.concurrent.DefaultThreadFactory;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 需要阻塞查询的认证后端（数据库、LDAP、远程服务等），查询在独立的有界线程池中执行，不占用事件循环
+ */
+public abstract class BlockingAuthenticator implements Authenticator {
+    // 队列满时直接拒绝，对应的认证失败
+    private static final ThreadPoolExecutor EXECUTOR = new ThreadPoolExecutor(ProxyConfig.AUTH_THREADS,
+            ProxyConfig.AUTH_THREADS,
+            0L,
+            TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(ProxyConfig.AUTH_QUEUE_SIZE),
+            new DefaultThreadFactory("auth", true));
+
+    @Override
+    public final CompletableFuture<Boolean> authenticate(String username, String password) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return verify(username, password);
+            } catch (Exception e) {
+                throw new CompletionException(e);
+            }
+        }, EXECUTOR);
+    }
+
+    /**
+     * 在认证线程池中调用，可以阻塞
+     *
+     * @param username
+     * @param password
+     * @return 用户名与密码是否正确
+     * @throws Exception 后端不可用等，视为认证失败
+     */
+    protected abstract boolean verify(String username, String password) throws Exception;
+}
@@ -0,0 +1,133 @@
+package com.sokcs.auth;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Ticker;
+import lombok.extern.slf4j.Slf4j;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 缓存后端认证通过的用户，有效期内不再查询后端。
+ * 缓存中只保存加盐的密码摘要，按常量时间比较；同一用户同一密码正在查询时，后来的连接等待同一次查询
+ */
+@Slf4j
+public final class CredentialCache implements Authenticator {
+    private static final CompletableFuture<Boolean> ACCEPTED = CompletableFuture.completedFuture(true);
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    private final Authenticator backend;
+    private final Cache<String, Credential> verified;
+    // 正在查询后端的用户
+    private final ConcurrentMap<String, Lookup> lookups = new ConcurrentHashMap<>();
+
+    /**
+     * @param backend
+     * @param ttlSeconds 认证通过后缓存的时间
+     * @param maximumSize
+     */
+    public CredentialCache(Authenticator backend, long ttlSeconds, long maximumSize) {
+        this(backend, ttlSeconds, maximumSize, Ticker.systemTicker());
+    }
+
+    /**
+     * @param ticker 计算有效期使用的时钟
+     */
+    CredentialCache(Authenticator backend, long ttlSeconds, long maximumSize, Ticker ticker) {
+        this.backend = backend;
+        this.verified = Caffeine.newBuilder()
+                .expireAfterWrite(ttlSeconds, TimeUnit.SECONDS)
+                .maximumSize(maximumSize)
+                .ticker(ticker)
+                .build();
+    }
+
+    @Override
+    public CompletableFuture<Boolean> authenticate(String username, String password) {
+        Credential credential = verified.getIfPresent(username);
+        if (Objects.nonNull(credential) && credential.matches(password)) {
+            return ACCEPTED;
+        }
+
+        Lookup lookup = lookups.get(username);
+        if (Objects.nonNull(lookup) && lookup.credential.matches(password)) {
+            return lookup.future;
+        }
+
+        Lookup mine = new Lookup(new Credential(password));
+        // 同一用户已有不同密码的查询时不合并，各自查询
+        boolean shared = Objects.isNull(lookups.putIfAbsent(username, mine));
+        CompletableFuture<Boolean> result;
+        try {
+            result = backend.authenticate(username, password);
+        } catch (RuntimeException e) {
+            result = new CompletableFuture<>();
+            result.completeExceptionally(e);
+        }
+        result.whenComplete((ok, cause) -> {
+            if (shared) {
+                lookups.remove(username, mine);
+            }
+            if (Objects.nonNull(cause)) {
+                log.warn("认证后端查询失败：{} {}", username, cause.getMessage());
+            } else if (Boolean.TRUE.equals(ok)) {
+                verified.put(username, mine.credential);
+            }
+            mine.future.complete(Boolean.TRUE.equals(ok));
+        });
+        return mine.future;
+    }
+
+    /**
+     * 使某个用户的缓存失效，例如后端修改了密码
+     *
+     * @param username
+     */
+    public void invalidate(String username) {
+        verified.invalidate(username);
+    }
+
+    private static final class Lookup {
+        private final Credential credential;
+        private final CompletableFuture<Boolean> future = new CompletableFuture<>();
+
+        private Lookup(Credential credential) {
+            this.credential = credential;
+        }
+    }
+
+    /**
+     * 加盐的SHA-256摘要，每个条目使用独立的随机盐
+     */
+    private static final class Credential {
+        private final byte[] salt = new byte[16];
+        private final byte[] digest;
+
+        private Credential(String password) {
+            RANDOM.nextBytes(salt);
+            this.digest = digest(salt, password);
+        }
+
+        private boolean matches(String password) {
+            return MessageDigest.isEqual(digest, digest(salt, password));
+        }
+
+        private static byte[] digest(byte[] salt, String password) {
+            try {
+                MessageDigest md = MessageDigest.getInstance("SHA-256");
+                md.update(salt);
+                return md.digest(password.getBytes(StandardCharsets.UTF_8));
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package com.sokcs.auth;
+
+import com.sokcs.config.ProxyConfig;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 文件中的用户表（格式见{@link TableAuthenticator}），在后台线程加载，文件变化后整体替换，认证时只查内存
+ */
+@Slf4j
+public final class FileAuthenticator implements Authenticator {
+    private final Path path;
+    private volatile TableAuthenticator table = TableAuthenticator.parse(Collections.emptyList());
+
+    // 以下只在加载线程中访问
+    private long lastModified;
+    private long length;
+
+    public FileAuthenticator(Path path) {
+        this.path = path;
+        reload();
+
+        ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(new DefaultThreadFactory("auth-reload", true));
+        executor.scheduleWithFixedDelay(this::reload, ProxyConfig.AUTH_RELOAD_INTERVAL_MILLIS,
+                ProxyConfig.AUTH_RELOAD_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public CompletableFuture<Boolean> authenticate(String username, String password) {
+        return table.authenticate(username, password);
+    }
+
+    /**
+     * 文件的修改时间或大小变化时重新加载，格式错误时保留当前用户表，首次加载失败时没有任何用户
+     */
+    private synchronized void reload() {
+        try {
+            long modified = Files.getLastModifiedTime(path).toMillis();
+            long size = Files.size(path);
+            if (modified == lastModified && size == length) {
+                return;
+            }
+
+            TableAuthenticator authenticator = TableAuthenticator.parse(Files.readAllLines(path, StandardCharsets.UTF_8));
+            table = authenticator;
+            lastModified = modified;
+            length = size;
+            log.info("加载用户文件：{}，用户数：{}", path, authenticator.size());
+        } catch (IOException | IllegalArgumentException e) {
+            // 同一个错误文件只提示一次
+            if (lastModified != -1) {
+                log.error("加载用户文件失败，保留当前用户：{} {}", path, e.getMessage());
+                lastModified = -1;
+                length = -1;
+            }
+        }
+    }
+}
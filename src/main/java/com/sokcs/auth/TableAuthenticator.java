@@ -0,0 +1,62 @@
+package com.sokcs.auth;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * 内存中的用户表，查找不阻塞，直接返回已完成的结果。
+ * 每行一个用户：
+ * <pre>
+ * # 注释
+ * alice:secret
+ * # 只按第一个冒号分隔，密码可以包含冒号
+ * bob:pa:ss
+ * </pre>
+ */
+public final class TableAuthenticator implements Authenticator {
+    private static final CompletableFuture<Boolean> ACCEPTED = CompletableFuture.completedFuture(true);
+    private static final CompletableFuture<Boolean> REJECTED = CompletableFuture.completedFuture(false);
+
+    private final Map<String, byte[]> passwords;
+
+    private TableAuthenticator(Map<String, byte[]> passwords) {
+        this.passwords = passwords;
+    }
+
+    /**
+     * @param lines
+     * @return
+     * @throws IllegalArgumentException 某一行格式错误
+     */
+    public static TableAuthenticator parse(List<String> lines) {
+        Map<String, byte[]> passwords = new HashMap<>();
+        for (int i = 0; i < lines.size(); i++) {
+            String line = lines.get(i).trim();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            int index = line.indexOf(':');
+            if (index <= 0) {
+                throw new IllegalArgumentException("第" + (i + 1) + "行缺少用户名或密码：" + line);
+            }
+            passwords.put(line.substring(0, index), line.substring(index + 1).getBytes(StandardCharsets.UTF_8));
+        }
+        return new TableAuthenticator(passwords);
+    }
+
+    @Override
+    public CompletableFuture<Boolean> authenticate(String username, String password) {
+        byte[] expected = passwords.get(username);
+        return Objects.nonNull(expected) && MessageDigest.isEqual(expected, password.getBytes(StandardCharsets.UTF_8))
+                ? ACCEPTED : REJECTED;
+    }
+
+    public int size() {
+        return passwords.size();
+    }
+}
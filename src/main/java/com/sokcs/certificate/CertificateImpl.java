@@ -1,12 +1,9 @@
 package com.sokcs.certificate;
 
-import lombok.extern.log4j.Log4j2;
 import lombok.extern.slf4j.Slf4j;
 import org.bouncycastle.asn1.x500.X500Name;
 import org.bouncycastle.asn1.x509.BasicConstraints;
 import org.bouncycastle.asn1.x509.Extension;
-import org.bouncycastle.asn1.x509.GeneralName;
-import org.bouncycastle.asn1.x509.GeneralNames;
 import org.bouncycastle.cert.CertIOException;
 import org.bouncycastle.cert.jcajce.JcaX509CertificateConverter;
 import org.bouncycastle.cert.jcajce.JcaX509v3CertificateBuilder;
@@ -15,14 +12,14 @@ import org.bouncycastle.operator.ContentSigner;
 import org.bouncycastle.operator.OperatorCreationException;
 import org.bouncycastle.operator.jcajce.JcaContentSignerBuilder;
 
+import java.io.IOException;
 import java.math.BigInteger;
 import java.security.*;
 import java.security.cert.CertificateException;
 import java.security.cert.X509Certificate;
+import java.security.spec.ECGenParameterSpec;
 import java.util.Date;
 import java.util.List;
-import java.util.stream.Collectors;
-import java.util.stream.Stream;
 
 
 @Slf4j
@@ -31,14 +28,41 @@ public class CertificateImpl implements Certificate {
 
     // 用SHA1浏览器可能会提示证书不安全
     private final String SHA256WithRSAEncryption = "SHA256WithRSAEncryption";
+    private final String SHA256WithECDSA = "SHA256WithECDSA";
     private final String RSA = "RSA";
+    private final String EC = "EC";
+
+    // 生成的密钥类型，RSA或EC
+    private final String keyAlgorithm;
+
+    // 按根证书准备好的签发模板，根证书变化时重建
+    private volatile IssuerTemplate template;
 
     public CertificateImpl() {
+        this("RSA");
+    }
+
+    /**
+     * @param keyAlgorithm RSA生成2048位密钥，EC生成P-256密钥，握手开销更小
+     */
+    public CertificateImpl(String keyAlgorithm) {
+        this.keyAlgorithm = keyAlgorithm;
         Security.addProvider(provider);
     }
 
     @Override
     public KeyPair generateKeyPair() throws NoSuchAlgorithmException, NoSuchProviderException {
+        if (EC.equalsIgnoreCase(keyAlgorithm)) {
+            KeyPairGenerator ecKeyPairGen = KeyPairGenerator.getInstance(EC, provider.getName());
+            try {
+                ecKeyPairGen.initialize(new ECGenParameterSpec("secp256r1"), new SecureRandom());
+            } catch (InvalidAlgorithmParameterException e) {
+                throw new NoSuchAlgorithmException("不支持P-256", e);
+            }
+
+            return ecKeyPairGen.genKeyPair();
+        }
+
         KeyPairGenerator caKeyPairGen = KeyPairGenerator.getInstance(RSA, provider.getName());
         caKeyPairGen.initialize(2048, new SecureRandom());
 
@@ -57,7 +81,7 @@ public class CertificateImpl implements Certificate {
 
             jcaX509v3CertificateBuilder.addExtension(Extension.basicConstraints, true, new BasicConstraints(0));
 
-            ContentSigner contentSigner = new JcaContentSignerBuilder(SHA256WithRSAEncryption).build(keyPair.getPrivate());
+            ContentSigner contentSigner = new JcaContentSignerBuilder(signatureAlgorithm(keyPair.getPrivate())).build(keyPair.getPrivate());
 
             return new JcaX509CertificateConverter().getCertificate(jcaX509v3CertificateBuilder.build(contentSigner));
         } catch (CertIOException | OperatorCreationException | CertificateException e) {
@@ -68,42 +92,20 @@ public class CertificateImpl implements Certificate {
     @Override
     public X509Certificate generate(String issuer, PrivateKey rootPrivateKey, Date notBefore, Date notAfter, PublicKey publicKey, List<String> hosts) throws GenerateCertificateException {
         try {
-            String subject = fromIssuer(issuer, hosts.get(0));
-
-            JcaX509v3CertificateBuilder jcaX509v3CertificateBuilder = new JcaX509v3CertificateBuilder(new X500Name(issuer),
-                    BigInteger.valueOf(System.currentTimeMillis()),
-                    notBefore,
-                    notAfter,
-                    new X500Name(subject),
-                    publicKey);
-
-            List<GeneralName> generalNames = hosts.stream()
-                    .map(host -> new GeneralName(GeneralName.dNSName, host))
-                    .collect(Collectors.toList());
-
-            GeneralName[] generalNameArray = new GeneralName[generalNames.size()];
-
-            jcaX509v3CertificateBuilder.addExtension(Extension.subjectAlternativeName, false, new GeneralNames(generalNames.toArray(generalNameArray)));
-
-            ContentSigner contentSigner = new JcaContentSignerBuilder(SHA256WithRSAEncryption).build(rootPrivateKey);
-
-            return new JcaX509CertificateConverter().getCertificate(jcaX509v3CertificateBuilder.build(contentSigner));
-        } catch (CertIOException | CertificateException | OperatorCreationException e) {
+            IssuerTemplate issuerTemplate = template;
+            if (issuerTemplate == null || !issuerTemplate.matches(issuer, rootPrivateKey)) {
+                // 签名算法由根证书的私钥决定，与签发的密钥类型无关
+                issuerTemplate = new IssuerTemplate(issuer, rootPrivateKey, signatureAlgorithm(rootPrivateKey), provider);
+                template = issuerTemplate;
+            }
+
+            return issuerTemplate.issue(notBefore, notAfter, publicKey, hosts);
+        } catch (IOException | CertificateException | IllegalStateException e) {
             throw new GenerateCertificateException("生成证书失败", e);
         }
     }
 
-    private String fromIssuer(String issuer, String host) {
-        String cn = "CN";
-
-        return Stream.of(issuer.split(","))
-                .map(String::trim)
-                .map(s -> {
-                    String[] strings = s.split("=");
-                    if (cn.equals(strings[0])) {
-                        return cn + "=" + host;
-                    }
-                    return s;
-                }).collect(Collectors.joining(", "));
+    private String signatureAlgorithm(PrivateKey privateKey) {
+        return privateKey.getAlgorithm().startsWith(EC) ? SHA256WithECDSA : SHA256WithRSAEncryption;
     }
 }
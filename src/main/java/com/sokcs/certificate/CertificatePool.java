@@ -1,47 +1,198 @@
 package com.sokcs.certificate;
 
+import com.github.benmanes.caffeine.cache.AsyncLoadingCache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import com.sokcs.config.ProxyConfig;
+import com.sokcs.dns.PublicSuffixList;
 import com.sokcs.pojo.CertificateInfo;
 import com.sokcs.utils.CertificateUtils;
+import com.sokcs.utils.SslUtils;
+import com.sokcs.utils.StatsReporter;
+import io.netty.handler.codec.http2.Http2SecurityUtil;
+import io.netty.handler.ssl.ApplicationProtocolNames;
+import io.netty.handler.ssl.SslContext;
+import io.netty.handler.ssl.SslContextBuilder;
+import io.netty.handler.ssl.SupportedCipherSuiteFilter;
+import io.netty.util.NetUtil;
 import lombok.extern.slf4j.Slf4j;
 
+import javax.net.ssl.SSLException;
+import java.io.IOException;
 import java.nio.file.Paths;
+import java.security.GeneralSecurityException;
 import java.security.KeyPair;
 import java.security.NoSuchAlgorithmException;
 import java.security.NoSuchProviderException;
 import java.security.PrivateKey;
 import java.security.cert.X509Certificate;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
 import java.util.Objects;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
 
 @Slf4j
 public final class CertificatePool {
-    private final ConcurrentHashMap<String, CertificateInfo> certificateInfoMap = new ConcurrentHashMap<>();
+    // W-TinyLFU淘汰，同一个key并发未命中时只签发一次，其余调用等待结果。
+    // key为主机名，通配符模式下为*.上级域名，证书与端口无关
+    private final AsyncLoadingCache<String, CertificateInfo> certificateInfoCache;
     private X509Certificate rootCertificate;
     private PrivateKey rootPrivateKey;
+    // 重启后从磁盘加载已签发的证书
+    private CertificateStore certificateStore;
 
     private final Certificate certificate;
 
+    /**
+     * 按配置选择密钥类型以及是否使用密钥池
+     */
+    public CertificatePool() {
+        this(ProxyConfig.CERTIFICATE_KEY_POOL_SIZE > 0
+                ? new KeyPoolCertificate(new CertificateImpl(ProxyConfig.CERTIFICATE_KEY_ALGORITHM), ProxyConfig.CERTIFICATE_KEY_POOL_SIZE)
+                : new CertificateImpl(ProxyConfig.CERTIFICATE_KEY_ALGORITHM));
+    }
+
     public CertificatePool(Certificate certificate) {
         this.certificate = certificate;
+        this.certificateInfoCache = Caffeine.newBuilder()
+                .maximumSize(ProxyConfig.CERTIFICATE_CACHE_SIZE)
+                .recordStats()
+                .executor(CryptoExecutor.executor())
+                .buildAsync(this::issue);
 
         initRootCertificateInfo();
+        StatsReporter.register("证书缓存", this::describeStats);
     }
 
     private void initRootCertificateInfo() {
         rootCertificate = CertificateUtils.readRootCertificate(Paths.get(CertificateName.RootCertificateName));
         rootPrivateKey = CertificateUtils.readPrivateKey(Paths.get(CertificateName.RootCertificatePrivateKeyName));
+
+        if (!ProxyConfig.CERTIFICATE_STORE.isEmpty()) {
+            try {
+                certificateStore = CertificateStore.open(Paths.get(ProxyConfig.CERTIFICATE_STORE), rootCertificate,
+                        ProxyConfig.CERTIFICATE_STORE_MAX_ENTRIES);
+            } catch (IOException | GeneralSecurityException e) {
+                log.error("打开证书存储失败：{}", e.getMessage());
+            }
+        }
     }
 
-    public CertificateInfo getCertificateInfo(String host, int port) {
-        try {
-            String key = host + ":" + port;
+    /**
+     * 获取证书，未命中时在加密线程池中签发
+     *
+     * @param host
+     * @return 签发失败时结果为null
+     */
+    public CompletableFuture<CertificateInfo> getCertificateInfo(String host) {
+        return certificateInfoCache.get(ProxyConfig.CERTIFICATE_WILDCARD ? wildcardKey(host) : host);
+    }
+
+    /**
+     * a.cdn.example.com、b.cdn.example.com使用*.cdn.example.com；
+     * example.com与www.example.com使用*.example.com。通配符不会覆盖公共后缀
+     *
+     * @param host
+     * @return
+     */
+    static String wildcardKey(String host) {
+        if (NetUtil.isValidIpV4Address(host) || NetUtil.isValidIpV6Address(host)) {
+            return host;
+        }
+
+        String registrableDomain = PublicSuffixList.INSTANCE.registrableDomain(host);
+        if (Objects.isNull(registrableDomain)) {
+            return host;
+        }
+
+        String name = host.toLowerCase(Locale.ROOT);
+        if (name.endsWith(".")) {
+            name = name.substring(0, name.length() - 1);
+        }
+        if (name.length() == registrableDomain.length()) {
+            return "*." + registrableDomain;
+        }
+
+        return "*." + name.substring(name.indexOf('.') + 1);
+    }
+
+    /**
+     * 命中、未命中、淘汰次数以及签发耗时
+     *
+     * @return
+     */
+    public CacheStats stats() {
+        return certificateInfoCache.synchronous().stats();
+    }
+
+    private String describeStats() {
+        CacheStats stats = stats();
+        return String.format("缓存 %d，命中 %d，未命中 %d，命中率 %.1f%%，淘汰 %d，签发失败 %d，平均签发耗时 %d ms",
+                certificateInfoCache.synchronous().estimatedSize(), stats.hitCount(), stats.missCount(),
+                stats.hitRate() * 100, stats.evictionCount(), stats.loadFailureCount(),
+                TimeUnit.NANOSECONDS.toMillis((long) stats.averageLoadPenalty()));
+    }
 
-            CertificateInfo certificateInfo = certificateInfoMap.get(key);
-            if (Objects.nonNull(certificateInfo)) {
-                return certificateInfo;
+    /**
+     * 获取可以直接使用的服务端SslContext，与证书一起缓存和淘汰
+     *
+     * @param host
+     * @return 失败时结果为null
+     */
+    public CompletableFuture<SslContext> getSslContext(String host) {
+        return getCertificateInfo(host).thenApply(certificateInfo ->
+                Objects.nonNull(certificateInfo) ? certificateInfo.getSslContext() : null);
+    }
+
+    /**
+     * 从磁盘存储读取或签发证书，并构建SslContext，失败返回null，不会被缓存
+     *
+     * @param key 主机名或*.上级域名
+     * @return
+     */
+    private CertificateInfo issue(String key) {
+        CertificateInfo certificateInfo = Objects.nonNull(certificateStore) ? certificateStore.get(key) : null;
+        if (Objects.isNull(certificateInfo)) {
+            certificateInfo = generate(key);
+        }
+        if (Objects.isNull(certificateInfo)) {
+            return null;
+        }
+
+        try {
+            certificateInfo.setSslContext(SslUtils.enableSessionTickets(serverSslContextBuilder(certificateInfo).build()));
+            if (SslUtils.isHttp2()) {
+                certificateInfo.setHttp2SslContext(SslUtils.enableSessionTickets(serverSslContextBuilder(certificateInfo)
+                        .ciphers(Http2SecurityUtil.CIPHERS, SupportedCipherSuiteFilter.INSTANCE)
+                        .applicationProtocolConfig(SslUtils.alpn(ApplicationProtocolNames.HTTP_2, ApplicationProtocolNames.HTTP_1_1))
+                        .build()));
             }
 
+            return certificateInfo;
+        } catch (SSLException e) {
+            log.error(e.getMessage());
+        }
+
+        return null;
+    }
+
+    private SslContextBuilder serverSslContextBuilder(CertificateInfo certificateInfo) {
+        return SslContextBuilder.forServer(certificateInfo.getKeyPair().getPrivate(), certificateInfo.getX509Certificate())
+                .sslProvider(SslUtils.provider())
+                .sessionCacheSize(ProxyConfig.SSL_SESSION_CACHE_SIZE)
+                .sessionTimeout(ProxyConfig.SSL_SESSION_TIMEOUT);
+    }
+
+    private CertificateInfo generate(String key) {
+        try {
+            // 通配符证书同时包含上级域名本身，CN使用上级域名
+            List<String> hosts = key.startsWith("*.")
+                    ? Arrays.asList(key.substring(2), key)
+                    : Collections.singletonList(key);
+
             KeyPair keyPair = certificate.generateKeyPair();
 
             X509Certificate x509Certificate = certificate.generate(CertificateName.Issuer,
@@ -49,17 +200,13 @@ public final class CertificatePool {
                     rootCertificate.getNotBefore(),
                     rootCertificate.getNotAfter(),
                     keyPair.getPublic(),
-                    Collections.singletonList(host));
+                    hosts);
 
-            certificateInfo = new CertificateInfo(keyPair, x509Certificate);
-
-            // 超过5000就清空
-            if (certificateInfoMap.size() >= 5000) {
-                certificateInfoMap.clear();
+            CertificateInfo certificateInfo = new CertificateInfo(keyPair, x509Certificate);
+            if (Objects.nonNull(certificateStore)) {
+                certificateStore.put(key, certificateInfo);
             }
 
-            certificateInfoMap.put(key, certificateInfo);
-
             return certificateInfo;
         } catch (NoSuchAlgorithmException | NoSuchProviderException | GenerateCertificateException e) {
             log.error(e.getMessage());
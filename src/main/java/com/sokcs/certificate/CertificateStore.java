@@ -0,0 +1,448 @@
+package com.sokcs.certificate;
+
+import com.sokcs.pojo.CertificateInfo;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import io.netty.util.internal.PlatformDependent;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.OpenOption;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.GeneralSecurityException;
+import java.security.KeyFactory;
+import java.security.KeyPair;
+import java.security.MessageDigest;
+import java.security.PrivateKey;
+import java.security.cert.CertificateFactory;
+import java.security.cert.X509Certificate;
+import java.security.spec.PKCS8EncodedKeySpec;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.zip.CRC32;
+
+/**
+ * 已签发证书的磁盘存储，重启后不必重新签发。
+ * <p>
+ * 文件只追加写入：文件头为魔数、版本和根证书的SHA-256指纹，根证书变化时整个文件作废；
+ * 之后每条记录为 长度、CRC32、key、证书DER、私钥PKCS#8。
+ * 启动时通过内存映射扫描建立 key -> 偏移 的索引，证书在第一次使用时才解析；
+ * 被覆盖或校验失败的记录在后台压缩时清理。文件中有私钥，支持POSIX权限时只允许所有者读写
+ */
+@Slf4j
+public final class CertificateStore {
+    private static final int MAGIC = 0x48534353;
+    private static final int VERSION = 1;
+    private static final int HEADER_LENGTH = 4 + 4 + 32;
+    // 长度 + CRC32
+    private static final int RECORD_HEADER_LENGTH = 4 + 4;
+    // 无效数据超过1MB且多于有效数据时压缩
+    private static final long COMPACT_THRESHOLD = 1024 * 1024;
+    private static final Set<PosixFilePermission> OWNER_ONLY = PosixFilePermissions.fromString("rw-------");
+
+    private final Path path;
+    private final X509Certificate rootCertificate;
+    private final byte[] rootFingerprint;
+    private final int maxEntries;
+
+    private final ExecutorService compactExecutor = Executors.newSingleThreadExecutor(new DefaultThreadFactory("certificate-store", true));
+    private final AtomicBoolean compacting = new AtomicBoolean();
+
+    private FileChannel channel;
+    // 启动或压缩时的文件内容，之后追加的记录通过channel读取。只在锁内访问，压缩后释放旧的映射
+    private MappedByteBuffer mapped;
+    private long size;
+    private final Map<String, Entry> index = new HashMap<>();
+    private long liveBytes;
+    private long deadBytes;
+
+    private CertificateStore(Path path, X509Certificate rootCertificate, int maxEntries) throws IOException, GeneralSecurityException {
+        this.path = path;
+        this.rootCertificate = rootCertificate;
+        this.rootFingerprint = MessageDigest.getInstance("SHA-256").digest(rootCertificate.getEncoded());
+        this.maxEntries = maxEntries;
+    }
+
+    /**
+     * 打开存储文件并建立索引
+     *
+     * @param path
+     * @param rootCertificate 当前根证书，与文件头的指纹不一致时清空文件
+     * @param maxEntries      最多保留的证书数
+     * @return
+     * @throws IOException
+     * @throws GeneralSecurityException
+     */
+    public static CertificateStore open(Path path, X509Certificate rootCertificate, int maxEntries) throws IOException, GeneralSecurityException {
+        CertificateStore certificateStore = new CertificateStore(path, rootCertificate, maxEntries);
+        synchronized (certificateStore) {
+            certificateStore.load();
+        }
+        return certificateStore;
+    }
+
+    private void load() throws IOException {
+        channel = open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            // 之前创建的文件可能所有人可读
+            if (supportsPosix(path)) {
+                Files.setPosixFilePermissions(path, OWNER_ONLY);
+            }
+        } catch (IOException e) {
+            log.warn("无法修改证书存储的权限：{} {}", path, e.getMessage());
+        }
+        if (!headerMatches()) {
+            if (channel.size() > 0) {
+                log.info("根证书已变化，清空证书存储：{}", path);
+            }
+            channel.truncate(0);
+            channel.write(header(), 0);
+        }
+
+        index.clear();
+        liveBytes = 0;
+        deadBytes = 0;
+        mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+
+        long position = HEADER_LENGTH;
+        while (position + RECORD_HEADER_LENGTH <= mapped.limit()) {
+            int length = mapped.getInt((int) position);
+            int crc = mapped.getInt((int) position + 4);
+            if (length <= 0 || position + RECORD_HEADER_LENGTH + length > mapped.limit()) {
+                break;
+            }
+
+            ByteBuffer body = slice(mapped, (int) position + RECORD_HEADER_LENGTH, length);
+            if (crc != crc32(body.duplicate())) {
+                break;
+            }
+
+            index(key(body), new Entry(position, RECORD_HEADER_LENGTH + length));
+            position += RECORD_HEADER_LENGTH + length;
+        }
+
+        // 上次退出时没写完的记录
+        if (position < channel.size()) {
+            log.warn("证书存储末尾有不完整的记录，截断到 {} 字节", position);
+            channel.truncate(position);
+        }
+        size = position;
+        log.info("证书存储 {} 中有 {} 张证书", path, index.size());
+    }
+
+    /**
+     * 读取证书，解析失败、不是当前根证书签发或已过期时返回null
+     *
+     * @param key
+     * @return
+     */
+    public CertificateInfo get(String key) {
+        ByteBuffer body;
+        Entry entry;
+        synchronized (this) {
+            entry = index.get(key);
+            if (entry == null) {
+                return null;
+            }
+            try {
+                body = read(entry);
+            } catch (IOException e) {
+                log.error("读取证书存储失败：{}", e.getMessage());
+                return null;
+            }
+        }
+
+        try {
+            key(body);
+            X509Certificate x509Certificate = (X509Certificate) CertificateFactory.getInstance("X.509")
+                    .generateCertificate(new ByteArrayInputStream(bytes(body)));
+            x509Certificate.verify(rootCertificate.getPublicKey());
+            x509Certificate.checkValidity();
+
+            PrivateKey privateKey = KeyFactory.getInstance(x509Certificate.getPublicKey().getAlgorithm())
+                    .generatePrivate(new PKCS8EncodedKeySpec(bytes(body)));
+
+            return new CertificateInfo(new KeyPair(x509Certificate.getPublicKey(), privateKey), x509Certificate);
+        } catch (GeneralSecurityException | RuntimeException e) {
+            log.warn("证书存储中的 {} 无效：{}", key, e.getMessage());
+            synchronized (this) {
+                if (index.get(key) == entry) {
+                    index.remove(key);
+                    liveBytes -= entry.length;
+                    deadBytes += entry.length;
+                }
+            }
+            return null;
+        }
+    }
+
+    /**
+     * 追加写入证书，同一个key以最后写入的为准
+     *
+     * @param key
+     * @param certificateInfo
+     */
+    public void put(String key, CertificateInfo certificateInfo) {
+        try {
+            byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+            byte[] certificateBytes = certificateInfo.getX509Certificate().getEncoded();
+            byte[] privateKeyBytes = certificateInfo.getKeyPair().getPrivate().getEncoded();
+
+            int length = 4 + keyBytes.length + 4 + certificateBytes.length + 4 + privateKeyBytes.length;
+            ByteBuffer record = ByteBuffer.allocate(RECORD_HEADER_LENGTH + length);
+            record.putInt(length).putInt(0);
+            record.putInt(keyBytes.length).put(keyBytes);
+            record.putInt(certificateBytes.length).put(certificateBytes);
+            record.putInt(privateKeyBytes.length).put(privateKeyBytes);
+            record.putInt(4, crc32(slice(record, RECORD_HEADER_LENGTH, length)));
+            record.flip();
+
+            synchronized (this) {
+                long position = size;
+                while (record.hasRemaining()) {
+                    position += channel.write(record, position);
+                }
+                index(key, new Entry(size, RECORD_HEADER_LENGTH + length));
+                size = position;
+            }
+        } catch (IOException | GeneralSecurityException e) {
+            log.error("写入证书存储失败：{}", e.getMessage());
+            return;
+        }
+
+        compactIfNeeded();
+    }
+
+    private void index(String key, Entry entry) {
+        Entry previous = index.put(key, entry);
+        liveBytes += entry.length;
+        if (previous != null) {
+            liveBytes -= previous.length;
+            deadBytes += previous.length;
+        }
+    }
+
+    private void compactIfNeeded() {
+        boolean needed;
+        synchronized (this) {
+            // 超出上限四分之一后再压缩，避免每次写入都触发
+            needed = (deadBytes > COMPACT_THRESHOLD && deadBytes > liveBytes) || index.size() > maxEntries + maxEntries / 4;
+        }
+
+        if (needed && compacting.compareAndSet(false, true)) {
+            compactExecutor.execute(() -> {
+                try {
+                    compact();
+                } catch (IOException e) {
+                    log.error("压缩证书存储失败：{}", e.getMessage());
+                } finally {
+                    compacting.set(false);
+                }
+            });
+        }
+    }
+
+    /**
+     * 只保留每个key最后写入的记录，超出上限时保留最近写入的。
+     * 复制记录和刷盘时不持有锁，读写照常进行；最后在锁内补上期间追加的记录，重建索引并切换到新文件
+     *
+     * @throws IOException
+     */
+    private void compact() throws IOException {
+        FileChannel source;
+        long copiedSize;
+        List<Map.Entry<String, Entry>> entries = new ArrayList<>();
+        synchronized (this) {
+            source = channel;
+            copiedSize = size;
+            index.forEach((key, entry) -> entries.add(new AbstractMap.SimpleImmutableEntry<>(key, entry)));
+        }
+        entries.sort((a, b) -> Long.compare(a.getValue().offset, b.getValue().offset));
+        List<Map.Entry<String, Entry>> kept = entries.size() > maxEntries
+                ? entries.subList(entries.size() - maxEntries, entries.size()) : entries;
+
+        Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+        Files.deleteIfExists(temp);
+        FileChannel out = open(temp, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        boolean swapped = false;
+        try {
+            // 复制的记录：key -> 原记录与新记录
+            Map<String, Entry> copied = new HashMap<>();
+            Map<String, Entry> moved = new HashMap<>();
+            long position = write(out, header(), 0);
+            for (Map.Entry<String, Entry> entry : kept) {
+                ByteBuffer record = ByteBuffer.allocate(entry.getValue().length);
+                read(source, record, entry.getValue().offset);
+                record.flip();
+                copied.put(entry.getKey(), entry.getValue());
+                moved.put(entry.getKey(), new Entry(position, entry.getValue().length));
+                position = write(out, record, position);
+            }
+            out.force(true);
+
+            synchronized (this) {
+                // 复制期间追加的记录原样接在后面
+                ByteBuffer tail = ByteBuffer.allocate((int) (size - copiedSize));
+                read(source, tail, copiedSize);
+                tail.flip();
+                long shift = position - copiedSize;
+                long newSize = write(out, tail, position);
+
+                // 复制期间被覆盖的key以追加的记录为准，校验失败被移除的不再加入
+                Map<String, Entry> rebuilt = new HashMap<>();
+                long live = 0;
+                for (Map.Entry<String, Entry> entry : index.entrySet()) {
+                    Entry current = entry.getValue();
+                    Entry next = current.offset >= copiedSize ? new Entry(current.offset + shift, current.length)
+                            : copied.get(entry.getKey()) == current ? moved.get(entry.getKey()) : null;
+                    if (next != null) {
+                        rebuilt.put(entry.getKey(), next);
+                        live += next.length;
+                    }
+                }
+
+                Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                swapped = true;
+
+                long before = size;
+                MappedByteBuffer previous = mapped;
+                channel = out;
+                mapped = out.map(FileChannel.MapMode.READ_ONLY, 0, newSize);
+                size = newSize;
+                index.clear();
+                index.putAll(rebuilt);
+                liveBytes = live;
+                deadBytes = newSize - HEADER_LENGTH - live;
+                source.close();
+                PlatformDependent.freeDirectBuffer(previous);
+                log.info("证书存储压缩完成：{} -> {} 字节", before, size);
+            }
+        } finally {
+            if (!swapped) {
+                out.close();
+                Files.deleteIfExists(temp);
+            }
+        }
+    }
+
+    /**
+     * 记录从映射中复制出来，锁外解析时映射可能已被压缩释放
+     *
+     * @param entry
+     * @return
+     * @throws IOException
+     */
+    private ByteBuffer read(Entry entry) throws IOException {
+        ByteBuffer record = ByteBuffer.allocate(entry.length);
+        if (entry.offset + entry.length <= mapped.limit()) {
+            record.put(slice(mapped, (int) entry.offset, entry.length));
+        } else {
+            read(channel, record, entry.offset);
+        }
+        record.flip();
+
+        record.position(RECORD_HEADER_LENGTH);
+        return record.slice();
+    }
+
+    private static void read(FileChannel source, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (source.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("证书存储记录不完整");
+            }
+        }
+    }
+
+    /**
+     * @return 写入后的位置
+     */
+    private static long write(FileChannel out, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            position += out.write(buffer, position);
+        }
+        return position;
+    }
+
+    /**
+     * 支持POSIX权限时新建的文件只允许所有者读写
+     */
+    private static FileChannel open(Path path, OpenOption... options) throws IOException {
+        Set<OpenOption> set = new HashSet<>(Arrays.asList(options));
+        if (supportsPosix(path)) {
+            return FileChannel.open(path, set, PosixFilePermissions.asFileAttribute(OWNER_ONLY));
+        }
+        return FileChannel.open(path, set);
+    }
+
+    private static boolean supportsPosix(Path path) {
+        return path.getFileSystem().supportedFileAttributeViews().contains("posix");
+    }
+
+    private boolean headerMatches() throws IOException {
+        if (channel.size() < HEADER_LENGTH) {
+            return false;
+        }
+
+        ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH);
+        read(channel, header, 0);
+        header.flip();
+        return header.equals(header());
+    }
+
+    private ByteBuffer header() {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH);
+        header.putInt(MAGIC).putInt(VERSION).put(rootFingerprint);
+        header.flip();
+        return header;
+    }
+
+    private static ByteBuffer slice(ByteBuffer buffer, int offset, int length) {
+        ByteBuffer duplicate = buffer.duplicate();
+        duplicate.clear().position(offset).limit(offset + length);
+        return duplicate.slice();
+    }
+
+    private static int crc32(ByteBuffer buffer) {
+        CRC32 crc32 = new CRC32();
+        crc32.update(buffer);
+        return (int) crc32.getValue();
+    }
+
+    private static String key(ByteBuffer body) {
+        return new String(bytes(body), StandardCharsets.UTF_8);
+    }
+
+    private static byte[] bytes(ByteBuffer body) {
+        byte[] bytes = new byte[body.getInt()];
+        body.get(bytes);
+        return bytes;
+    }
+
+    private static final class Entry {
+        private final long offset;
+        private final int length;
+
+        private Entry(long offset, int length) {
+            this.offset = offset;
+            this.length = length;
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package com.sokcs.certificate;
+
+import com.sokcs.config.ProxyConfig;
+import com.sokcs.utils.StatsReporter;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * 证书签发、SslContext构建等耗时的加密操作在独立的有界线程池中执行，不占用事件循环
+ */
+@Slf4j
+public final class CryptoExecutor {
+    // 队列满时直接拒绝，由调用方关闭对应连接
+    private static final ThreadPoolExecutor EXECUTOR = new ThreadPoolExecutor(ProxyConfig.CRYPTO_THREADS,
+            ProxyConfig.CRYPTO_THREADS,
+            0L,
+            TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(ProxyConfig.CRYPTO_QUEUE_SIZE),
+            new DefaultThreadFactory("crypto", true));
+
+    // 仍需在事件循环上执行的加密操作（创建SslHandler等）的累计耗时
+    private static final LongAdder EVENT_LOOP_STALL_NANOS = new LongAdder();
+    private static final LongAdder EVENT_LOOP_STALL_COUNT = new LongAdder();
+
+    static {
+        StatsReporter.register("加密线程池", () -> String.format("执行中 %d，排队 %d，已完成 %d，事件循环上的加密操作 %d 次，累计 %d ms",
+                EXECUTOR.getActiveCount(), queued(), EXECUTOR.getCompletedTaskCount(), eventLoopStallCount(),
+                TimeUnit.NANOSECONDS.toMillis(eventLoopStallNanos())));
+    }
+
+    private CryptoExecutor() {
+    }
+
+    public static Executor executor() {
+        return EXECUTOR;
+    }
+
+    /**
+     * 在事件循环上执行加密操作并计入阻塞时间
+     *
+     * @param task
+     * @param <T>
+     * @return
+     */
+    public static <T> T onEventLoop(Supplier<T> task) {
+        long start = System.nanoTime();
+        try {
+            return task.get();
+        } finally {
+            long elapsed = System.nanoTime() - start;
+            EVENT_LOOP_STALL_NANOS.add(elapsed);
+            EVENT_LOOP_STALL_COUNT.increment();
+            if (elapsed > TimeUnit.MILLISECONDS.toNanos(10)) {
+                log.warn("事件循环上的加密操作耗时 {} ms", TimeUnit.NANOSECONDS.toMillis(elapsed));
+            }
+        }
+    }
+
+    public static long eventLoopStallNanos() {
+        return EVENT_LOOP_STALL_NANOS.sum();
+    }
+
+    public static long eventLoopStallCount() {
+        return EVENT_LOOP_STALL_COUNT.sum();
+    }
+
+    /**
+     * 等待执行的任务数
+     *
+     * @return
+     */
+    public static int queued() {
+        return EXECUTOR.getQueue().size();
+    }
+}
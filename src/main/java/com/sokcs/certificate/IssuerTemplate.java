@@ -0,0 +1,120 @@
+package com.sokcs.certificate;
+
+import org.bouncycastle.asn1.DERUTF8String;
+import org.bouncycastle.asn1.x500.RDN;
+import org.bouncycastle.asn1.x500.X500Name;
+import org.bouncycastle.asn1.x500.style.BCStyle;
+import org.bouncycastle.asn1.x509.BasicConstraints;
+import org.bouncycastle.asn1.x509.ExtendedKeyUsage;
+import org.bouncycastle.asn1.x509.Extension;
+import org.bouncycastle.asn1.x509.GeneralName;
+import org.bouncycastle.asn1.x509.GeneralNames;
+import org.bouncycastle.asn1.x509.KeyPurposeId;
+import org.bouncycastle.asn1.x509.KeyUsage;
+import org.bouncycastle.asn1.x509.SubjectPublicKeyInfo;
+import org.bouncycastle.cert.X509v3CertificateBuilder;
+import org.bouncycastle.cert.jcajce.JcaX509CertificateConverter;
+import org.bouncycastle.operator.ContentSigner;
+import org.bouncycastle.operator.OperatorCreationException;
+import org.bouncycastle.operator.jcajce.JcaContentSignerBuilder;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.security.PrivateKey;
+import java.security.Provider;
+import java.security.PublicKey;
+import java.security.cert.CertificateException;
+import java.security.cert.X509Certificate;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 签发模板：每个根证书只解析一次颁发者、准备一次签名器和固定扩展，签发时只替换与域名相关的字段
+ */
+final class IssuerTemplate {
+    // 同一毫秒内签发多张证书时序列号也不重复
+    private static final AtomicLong SERIAL = new AtomicLong(System.currentTimeMillis() << 16);
+
+    private final String issuerName;
+    private final PrivateKey rootPrivateKey;
+
+    private final X500Name issuer;
+    // 使用者与颁发者相同，只替换CN
+    private final RDN[] subjectRdns;
+    private final int cnIndex;
+
+    private final Extension basicConstraints;
+    private final Extension extendedKeyUsage;
+    private final Extension rsaKeyUsage;
+    private final Extension ecKeyUsage;
+
+    // ContentSigner不是线程安全的，每个线程一个
+    private final ThreadLocal<ContentSigner> signer;
+    private final JcaX509CertificateConverter converter;
+
+    IssuerTemplate(String issuerName, PrivateKey rootPrivateKey, String signatureAlgorithm, Provider provider) throws IOException {
+        this.issuerName = issuerName;
+        this.rootPrivateKey = rootPrivateKey;
+
+        this.issuer = new X500Name(issuerName);
+        RDN[] rdns = issuer.getRDNs();
+        int index = rdns.length;
+        for (int i = 0; i < rdns.length; i++) {
+            if (BCStyle.CN.equals(rdns[i].getFirst().getType())) {
+                index = i;
+                break;
+            }
+        }
+        this.subjectRdns = index < rdns.length ? rdns : Arrays.copyOf(rdns, rdns.length + 1);
+        this.cnIndex = index;
+
+        this.basicConstraints = new Extension(Extension.basicConstraints, true, new BasicConstraints(false).getEncoded());
+        this.extendedKeyUsage = new Extension(Extension.extendedKeyUsage, false, new ExtendedKeyUsage(KeyPurposeId.id_kp_serverAuth).getEncoded());
+        this.rsaKeyUsage = new Extension(Extension.keyUsage, true, new KeyUsage(KeyUsage.digitalSignature | KeyUsage.keyEncipherment).getEncoded());
+        this.ecKeyUsage = new Extension(Extension.keyUsage, true, new KeyUsage(KeyUsage.digitalSignature).getEncoded());
+
+        JcaContentSignerBuilder signerBuilder = new JcaContentSignerBuilder(signatureAlgorithm).setProvider(provider);
+        this.signer = ThreadLocal.withInitial(() -> {
+            try {
+                return signerBuilder.build(rootPrivateKey);
+            } catch (OperatorCreationException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        this.converter = new JcaX509CertificateConverter().setProvider(provider);
+    }
+
+    boolean matches(String issuerName, PrivateKey rootPrivateKey) {
+        return this.rootPrivateKey == rootPrivateKey && this.issuerName.equals(issuerName);
+    }
+
+    X509Certificate issue(Date notBefore, Date notAfter, PublicKey publicKey, List<String> hosts) throws IOException, CertificateException {
+        X509v3CertificateBuilder builder = new X509v3CertificateBuilder(issuer,
+                BigInteger.valueOf(SERIAL.incrementAndGet()),
+                notBefore,
+                notAfter,
+                subject(hosts.get(0)),
+                SubjectPublicKeyInfo.getInstance(publicKey.getEncoded()));
+
+        GeneralName[] generalNames = new GeneralName[hosts.size()];
+        for (int i = 0; i < generalNames.length; i++) {
+            generalNames[i] = new GeneralName(GeneralName.dNSName, hosts.get(i));
+        }
+
+        builder.addExtension(Extension.subjectAlternativeName, false, new GeneralNames(generalNames));
+        builder.addExtension(basicConstraints);
+        builder.addExtension("RSA".equals(publicKey.getAlgorithm()) ? rsaKeyUsage : ecKeyUsage);
+        builder.addExtension(extendedKeyUsage);
+
+        return converter.getCertificate(builder.build(signer.get()));
+    }
+
+    private X500Name subject(String host) {
+        RDN[] rdns = subjectRdns.clone();
+        rdns[cnIndex] = new RDN(BCStyle.CN, new DERUTF8String(host));
+
+        return new X500Name(rdns);
+    }
+}
@@ -0,0 +1,74 @@
+package com.sokcs.certificate;
+
+import io.netty.util.concurrent.DefaultThreadFactory;
+import lombok.extern.slf4j.Slf4j;
+
+import java.security.KeyPair;
+import java.security.NoSuchAlgorithmException;
+import java.security.NoSuchProviderException;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.security.cert.X509Certificate;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * 预先生成密钥的证书签发：后台线程把密钥池填满，签发时直接取用，池空时再现场生成
+ */
+@Slf4j
+public class KeyPoolCertificate implements Certificate {
+    private final Certificate certificate;
+    private final BlockingQueue<KeyPair> keyPairs;
+
+    public KeyPoolCertificate(Certificate certificate, int size) {
+        this.certificate = certificate;
+        this.keyPairs = new ArrayBlockingQueue<>(size);
+
+        Thread thread = new DefaultThreadFactory("key-pool", true, Thread.MIN_PRIORITY).newThread(this::fill);
+        thread.start();
+    }
+
+    private void fill() {
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                // 池满时阻塞，取走一个再补一个
+                keyPairs.put(certificate.generateKeyPair());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (NoSuchAlgorithmException | NoSuchProviderException e) {
+            log.error("密钥池停止填充：{}", e.getMessage());
+        }
+    }
+
+    @Override
+    public KeyPair generateKeyPair() throws NoSuchAlgorithmException, NoSuchProviderException {
+        KeyPair keyPair = keyPairs.poll();
+        if (keyPair != null) {
+            return keyPair;
+        }
+
+        return certificate.generateKeyPair();
+    }
+
+    @Override
+    public X509Certificate generateRoot(String subject, Date notBefore, Date notAfter, KeyPair keyPair) throws GenerateCertificateException {
+        return certificate.generateRoot(subject, notBefore, notAfter, keyPair);
+    }
+
+    @Override
+    public X509Certificate generate(String issuer, PrivateKey rootPrivateKey, Date notBefore, Date notAfter, PublicKey publicKey, List<String> hosts) throws GenerateCertificateException {
+        return certificate.generate(issuer, rootPrivateKey, notBefore, notAfter, publicKey, hosts);
+    }
+
+    /**
+     * 池中可用的密钥数
+     *
+     * @return
+     */
+    public int available() {
+        return keyPairs.size();
+    }
+}
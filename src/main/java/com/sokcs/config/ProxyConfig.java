@@ -0,0 +1,181 @@
+package com.sokcs.config;
+
+import io.netty.channel.WriteBufferWaterMark;
+
+/**
+ * 代理运行参数，可通过 -Dkey=value 覆盖
+ */
+public final class ProxyConfig {
+    // Socks CONNECT隧道在epoll下使用splice零拷贝转发
+    public static final boolean SPLICE_ENABLED = Boolean.parseBoolean(System.getProperty("socks.splice", "true"));
+
+    // 写缓冲高低水位，超过高水位时暂停读取对端，降到低水位以下再恢复
+    public static final WriteBufferWaterMark WRITE_BUFFER_WATER_MARK = new WriteBufferWaterMark(
+            Integer.getInteger("socks.writeBuffer.lowWaterMark", 32 * 1024),
+            Integer.getInteger("socks.writeBuffer.highWaterMark", 64 * 1024));
+
+    // DNS服务器，格式host:port，为空时使用系统配置
+    public static final String DNS_SERVER = System.getProperty("socks.dns.server");
+
+    // DNS缓存TTL（秒），实际TTL取记录TTL并限制在[min, max]内
+    public static final int DNS_MIN_TTL = Integer.getInteger("socks.dns.minTtl", 0);
+    public static final int DNS_MAX_TTL = Integer.getInteger("socks.dns.maxTtl", 3600);
+
+    // 解析失败结果的缓存时间（秒）
+    public static final int DNS_NEGATIVE_TTL = Integer.getInteger("socks.dns.negativeTtl", 10);
+
+    public static final long DNS_QUERY_TIMEOUT_MILLIS = Long.getLong("socks.dns.queryTimeoutMillis", 5000L);
+
+    // 多地址目标并行连接时，相邻两次连接尝试的间隔（毫秒）
+    public static final long CONNECT_ATTEMPT_DELAY_MILLIS = Long.getLong("socks.connect.attemptDelayMillis", 250L);
+
+    // 目标路由规则文件（allow/deny/route），socks与http共用，为空时全部直连，格式见RouteTable
+    public static final String ROUTE_FILE = System.getProperty("socks.route.file", "");
+
+    // 检查规则文件是否变化的间隔（毫秒），变化后重新加载
+    public static final long ROUTE_RELOAD_INTERVAL_MILLIS = Long.getLong("socks.route.reloadIntervalMillis", 2000L);
+
+    // socks5用户名密码认证的后端类名，实现com.sokcs.auth.Authenticator，需要公开的无参构造方法
+    public static final String AUTH_BACKEND = System.getProperty("socks.auth.backend", "");
+
+    // 用户文件，每行user:password，变化后重新加载
+    public static final String AUTH_FILE = System.getProperty("socks.auth.file", "");
+
+    // 内存中的用户表，格式user:password,user2:password2。以上三项都未配置时socks5不需要认证
+    public static final String AUTH_USERS = System.getProperty("socks.auth.users", "");
+
+    public static final long AUTH_RELOAD_INTERVAL_MILLIS = Long.getLong("socks.auth.reloadIntervalMillis", 2000L);
+
+    // 后端认证通过的用户缓存的时间（秒）与数量，0表示不缓存，只对socks.auth.backend生效
+    public static final long AUTH_CACHE_TTL_SECONDS = Long.getLong("socks.auth.cacheTtl", 300L);
+    public static final long AUTH_CACHE_SIZE = Long.getLong("socks.auth.cacheSize", 10000L);
+
+    // 后端超过此时间（毫秒）未返回时认证失败
+    public static final long AUTH_TIMEOUT_MILLIS = Long.getLong("socks.auth.timeoutMillis", 5000L);
+
+    // 阻塞认证后端的线程数与排队上限
+    public static final int AUTH_THREADS = Integer.getInteger("socks.auth.threads", 4);
+    public static final int AUTH_QUEUE_SIZE = Integer.getInteger("socks.auth.queueSize", 1024);
+
+    // 每个EventLoop为每个上级代理预先建立的空闲连接数（socks5已完成认证），0表示不预建
+    public static final int UPSTREAM_IDLE_PER_LOOP = Integer.getInteger("socks.upstream.idlePerLoop", 1);
+
+    // 预建连接的最长空闲时间（毫秒），超过后关闭并重新建立，应小于上级代理的空闲超时
+    public static final long UPSTREAM_IDLE_MILLIS = Long.getLong("socks.upstream.idleMillis", 20_000L);
+
+    // 补充预建连接与探测不可用上级代理的间隔（毫秒）
+    public static final long UPSTREAM_CHECK_INTERVAL_MILLIS = Long.getLong("socks.upstream.checkIntervalMillis", 5000L);
+
+    // 上级代理连续失败多少次后标记为不可用
+    public static final int UPSTREAM_MAX_FAILURES = Integer.getInteger("socks.upstream.maxFailures", 3);
+
+    // 与上级代理握手的超时（毫秒）
+    public static final long UPSTREAM_HANDSHAKE_TIMEOUT_MILLIS = Long.getLong("socks.upstream.handshakeTimeoutMillis", 10_000L);
+
+    // 干线模式：实例之间用少量长连接（HTTP/2）承载多个隧道，本实例在此端口接受干线连接，0表示不接受
+    public static final int TRUNK_PORT = Integer.getInteger("socks.trunk.port", 0);
+
+    // 干线连接的认证信息，格式user:pass，未配置时不启动干线服务
+    public static final String TRUNK_CREDENTIALS = System.getProperty("socks.trunk.credentials", "");
+
+    // 干线连接使用TLS（ALPN协商h2），两端须一致；关闭后为明文h2c，只应在本身已加密的链路上关闭
+    public static final boolean TRUNK_TLS = Boolean.parseBoolean(System.getProperty("socks.trunk.tls", "true"));
+
+    // 干线服务的证书链与私钥（PEM），启用TLS时必须配置
+    public static final String TRUNK_CERT_FILE = System.getProperty("socks.trunk.certFile", "");
+    public static final String TRUNK_KEY_FILE = System.getProperty("socks.trunk.keyFile", "");
+
+    // 连接干线上级代理时信任的证书（PEM），为空时使用系统信任的CA；证书须包含规则中上级代理的域名或IP
+    public static final String TRUNK_TRUST_FILE = System.getProperty("socks.trunk.trustFile", "");
+
+    // 每个EventLoop到每个干线上级代理的连接数
+    public static final int TRUNK_CONNECTIONS_PER_LOOP = Integer.getInteger("socks.trunk.connectionsPerLoop", 1);
+
+    // 干线上每个流与整条连接的接收窗口（字节），长距离链路上应不小于带宽时延积
+    public static final int TRUNK_STREAM_WINDOW = Integer.getInteger("socks.trunk.streamWindow", 1024 * 1024);
+    public static final int TRUNK_CONNECTION_WINDOW = Integer.getInteger("socks.trunk.connectionWindow", 16 * 1024 * 1024);
+
+    // 一条干线连接上同时打开的最大流数
+    public static final int TRUNK_MAX_STREAMS = Integer.getInteger("socks.trunk.maxStreams", 1000);
+
+    // 每个UDP关联记录的目标数（解码结果、路由决策与回包的Socks5 UDP头），超出时淘汰最久未用的，
+    // 被淘汰目标的回包在客户端再次发往该目标之前丢弃
+    public static final int UDP_MAX_FLOWS = Integer.getInteger("socks.udp.maxFlows", 8192);
+
+    // udp不经由上级代理：规则指定经由上级代理的udp目标默认丢弃，开启后改为直连发送
+    public static final boolean UDP_UPSTREAM_DIRECT = Boolean.getBoolean("socks.udp.upstreamDirect");
+
+    // 普通http转发时每个EventLoop到单个站点的最大连接数
+    public static final int HTTP_POOL_MAX_PER_HOST = Integer.getInteger("socks.http.pool.maxPerHost", 8);
+
+    // 空闲连接保留时间（毫秒）
+    public static final long HTTP_POOL_IDLE_MILLIS = Long.getLong("socks.http.pool.idleMillis", 60_000L);
+
+    // 达到单站点上限时等待归还连接的最长时间（毫秒），超时后回复504
+    public static final long HTTP_POOL_ACQUIRE_TIMEOUT_MILLIS = Long.getLong("socks.http.pool.acquireTimeoutMillis", 10_000L);
+
+    // 启动时预建连接的站点，格式host:port*count，多个用逗号分隔，之后每个EventLoop保持count个空闲连接
+    public static final String[] HTTP_POOL_PREWARM = System.getProperty("socks.http.pool.prewarm", "").isEmpty()
+            ? new String[0] : System.getProperty("socks.http.pool.prewarm").split(",");
+
+    // 捕获请求时是否聚合完整请求体，关闭后捕获者只拿到请求头，请求体流式转发
+    public static final boolean HTTP_CAPTURE_FULL_BODY = Boolean.parseBoolean(System.getProperty("socks.http.capture.fullBody", "true"));
+
+    // 聚合请求体的上限（字节），超出时返回413
+    public static final int HTTP_MAX_CONTENT_LENGTH = Integer.getInteger("socks.http.maxContentLength", 16 * 1024 * 1024);
+
+    // 捕获https时只解密这些站点，其余直接转发。多个用逗号分隔，"example.com"包含子域名，
+    // "*.example.com"只匹配子域名，"!"开头表示不捕获，最长的规则优先；为空时捕获全部
+    public static final String[] CAPTURE_HOSTS = System.getProperty("socks.capture.hosts", "").isEmpty()
+            ? new String[0] : System.getProperty("socks.capture.hosts").split(",");
+
+    // 动态签发证书的缓存上限
+    public static final long CERTIFICATE_CACHE_SIZE = Long.getLong("socks.certificate.cacheSize", 5000L);
+
+    // 动态签发证书的密钥类型：RSA或EC（P-256）
+    public static final String CERTIFICATE_KEY_ALGORITHM = System.getProperty("socks.certificate.keyAlgorithm", "RSA");
+
+    // 后台预先生成的密钥数，0表示不使用密钥池
+    public static final int CERTIFICATE_KEY_POOL_SIZE = Integer.getInteger("socks.certificate.keyPoolSize", 32);
+
+    // 按上级域名签发通配符证书（*.parent），同一上级域名下的主机共用一张证书
+    public static final boolean CERTIFICATE_WILDCARD = Boolean.parseBoolean(System.getProperty("socks.certificate.wildcard", "false"));
+
+    // publicsuffix.org格式的公共后缀表文件，为空时使用内置规则
+    public static final String PUBLIC_SUFFIX_LIST = System.getProperty("socks.publicSuffixList");
+
+    // 已签发证书的磁盘存储文件，与根证书放在一起，为空时不持久化
+    public static final String CERTIFICATE_STORE = System.getProperty("socks.certificate.store", "certificates.db");
+
+    // 磁盘存储最多保留的证书数
+    public static final int CERTIFICATE_STORE_MAX_ENTRIES = Integer.getInteger("socks.certificate.storeMaxEntries", 20000);
+
+    // TLS实现：auto（OpenSSL可用时使用OpenSSL）、openssl、jdk
+    public static final String SSL_PROVIDER = System.getProperty("socks.ssl.provider", "auto");
+
+    // 捕获https时通过ALPN协商HTTP/2
+    public static final boolean HTTP2_ENABLED = Boolean.parseBoolean(System.getProperty("socks.http2", "true"));
+
+    // 向h2客户端通告的最大并发流数，上游服务器的限制更小时取上游的
+    public static final int HTTP2_MAX_CONCURRENT_STREAMS = Integer.getInteger("socks.http2.maxConcurrentStreams", 100);
+
+    // 每个服务端SslContext的会话缓存大小与超时（秒），用于客户端会话恢复
+    public static final long SSL_SESSION_CACHE_SIZE = Long.getLong("socks.ssl.sessionCacheSize", 256L);
+    public static final long SSL_SESSION_TIMEOUT = Long.getLong("socks.ssl.sessionTimeout", 3600L);
+
+    // 连接目标服务器的TLS会话缓存大小，按host:port复用
+    public static final long SSL_UPSTREAM_SESSION_CACHE_SIZE = Long.getLong("socks.ssl.upstreamSessionCacheSize", 4096L);
+
+    // 不校验目标服务器证书，仅用于测试
+    public static final boolean SSL_UPSTREAM_INSECURE = Boolean.getBoolean("socks.ssl.upstreamInsecure");
+
+    // 加密线程池的线程数与排队上限
+    public static final int CRYPTO_THREADS = Integer.getInteger("socks.crypto.threads", Runtime.getRuntime().availableProcessors());
+    public static final int CRYPTO_QUEUE_SIZE = Integer.getInteger("socks.crypto.queueSize", 1024);
+
+    // 在日志中输出运行统计（DNS缓存等）的间隔（秒），0表示不输出
+    public static final long STATS_INTERVAL_SECONDS = Long.getLong("socks.stats.intervalSeconds", 60L);
+
+    private ProxyConfig() {
+    }
+}
@@ -0,0 +1,198 @@
+package com.sokcs.connect;
+
+import com.sokcs.config.ProxyConfig;
+import com.sokcs.dns.DnsResolver;
+import com.sokcs.route.Router;
+import io.netty.bootstrap.Bootstrap;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.EventLoop;
+import io.netty.util.NetUtil;
+import io.netty.util.concurrent.Future;
+import io.netty.util.concurrent.FutureListener;
+import io.netty.util.concurrent.Promise;
+import io.netty.util.concurrent.ScheduledFuture;
+import lombok.extern.slf4j.Slf4j;
+
+import java.net.ConnectException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 多地址目标的并行连接（RFC 8305 Happy Eyeballs）：
+ * 解析出全部地址后按地址族交错排序，每隔一段时间或上一个尝试失败时发起下一个连接，第一个成功的胜出，其余取消
+ */
+@Slf4j
+public final class HappyEyeballsConnector {
+
+    private HappyEyeballsConnector() {
+    }
+
+    /**
+     * 连接目标，bootstrap必须已设置group为目标EventLoop，且handler可被多个通道共享
+     *
+     * @param bootstrap
+     * @param host
+     * @param port
+     * @return 胜出的通道
+     */
+    public static Future<Channel> connect(Bootstrap bootstrap, String host, int port) {
+        EventLoop eventLoop = bootstrap.config().group().next();
+        Promise<Channel> promise = eventLoop.newPromise();
+
+        if (NetUtil.isValidIpV4Address(host) || NetUtil.isValidIpV6Address(host)) {
+            bootstrap.connect(host, port).addListener((ChannelFutureListener) future -> {
+                if (future.isSuccess()) {
+                    promise.setSuccess(future.channel());
+                } else {
+                    promise.setFailure(future.cause());
+                }
+            });
+            return promise;
+        }
+
+        DnsResolver.GROUP.getResolver(eventLoop).resolveAll(InetSocketAddress.createUnresolved(host, port))
+                .addListener((FutureListener<List<InetSocketAddress>>) future -> {
+                    if (!future.isSuccess()) {
+                        promise.tryFailure(future.cause());
+                        return;
+                    }
+
+                    List<InetSocketAddress> addresses = new ArrayList<>(future.getNow());
+                    // 解析到路由规则拒绝的地址段时（如指向内网的域名）只连接其余地址
+                    addresses.removeIf(address -> !Router.permits(address.getAddress()));
+                    if (addresses.isEmpty()) {
+                        promise.tryFailure(new ConnectException("路由规则拒绝了全部解析地址：" + host));
+                    } else {
+                        new Race(bootstrap, eventLoop, host, interleave(addresses), promise).start();
+                    }
+                });
+        return promise;
+    }
+
+    /**
+     * 按地址族交错，以第一个地址的地址族开头
+     *
+     * @param addresses
+     * @return
+     */
+    private static List<InetSocketAddress> interleave(List<InetSocketAddress> addresses) {
+        if (addresses.size() < 2) {
+            return addresses;
+        }
+
+        Class<? extends InetAddress> family = addresses.get(0).getAddress().getClass();
+        List<InetSocketAddress> preferred = new ArrayList<>(addresses.size());
+        List<InetSocketAddress> other = new ArrayList<>(addresses.size());
+        for (InetSocketAddress address : addresses) {
+            (address.getAddress().getClass() == family ? preferred : other).add(address);
+        }
+
+        List<InetSocketAddress> result = new ArrayList<>(addresses.size());
+        for (int i = 0; i < Math.max(preferred.size(), other.size()); i++) {
+            if (i < preferred.size()) {
+                result.add(preferred.get(i));
+            }
+            if (i < other.size()) {
+                result.add(other.get(i));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 一次连接竞速，所有回调都在同一个EventLoop上执行，无需同步
+     */
+    private static final class Race {
+        private final Bootstrap bootstrap;
+        private final EventLoop eventLoop;
+        private final String host;
+        private final List<InetSocketAddress> addresses;
+        private final Promise<Channel> promise;
+
+        private final List<ChannelFuture> attempts = new ArrayList<>();
+        private ScheduledFuture<?> nextAttempt;
+        private int index;
+
+        Race(Bootstrap bootstrap, EventLoop eventLoop, String host, List<InetSocketAddress> addresses, Promise<Channel> promise) {
+            this.bootstrap = bootstrap;
+            this.eventLoop = eventLoop;
+            this.host = host;
+            this.addresses = addresses;
+            this.promise = promise;
+        }
+
+        void start() {
+            promise.addListener(future -> {
+                if (future.isCancelled()) {
+                    cancel(null);
+                }
+            });
+            attempt();
+        }
+
+        private void attempt() {
+            if (promise.isDone() || index >= addresses.size()) {
+                return;
+            }
+
+            InetSocketAddress address = addresses.get(index++);
+            // 先安排下一次尝试再连接：连接同步失败（如没有IPv6路由）时onComplete立即取消它并开始下一次，
+            // 之后不会再覆盖nextAttempt
+            if (index < addresses.size()) {
+                nextAttempt = eventLoop.schedule(this::attempt, ProxyConfig.CONNECT_ATTEMPT_DELAY_MILLIS, TimeUnit.MILLISECONDS);
+            }
+            ChannelFuture channelFuture = bootstrap.connect(address);
+            attempts.add(channelFuture);
+            channelFuture.addListener((ChannelFutureListener) this::onComplete);
+        }
+
+        private void onComplete(ChannelFuture channelFuture) {
+            if (channelFuture.isSuccess()) {
+                if (promise.trySuccess(channelFuture.channel())) {
+                    log.debug("{} 连接成功，胜出地址：{}，尝试次数：{}", host, channelFuture.channel().remoteAddress(), attempts.size());
+                    cancel(channelFuture);
+                } else {
+                    channelFuture.channel().close();
+                }
+                return;
+            }
+
+            if (promise.isDone()) {
+                return;
+            }
+
+            if (index < addresses.size()) {
+                // 失败时立即尝试下一个地址，不再等待
+                cancelNextAttempt();
+                attempt();
+            } else if (attempts.stream().allMatch(ChannelFuture::isDone)) {
+                promise.tryFailure(channelFuture.cause());
+            }
+        }
+
+        private void cancel(ChannelFuture winner) {
+            cancelNextAttempt();
+            for (ChannelFuture attempt : attempts) {
+                if (attempt == winner) {
+                    continue;
+                }
+                if (!attempt.cancel(false) && attempt.isSuccess()) {
+                    attempt.channel().close();
+                }
+            }
+        }
+
+        private void cancelNextAttempt() {
+            if (Objects.nonNull(nextAttempt)) {
+                nextAttempt.cancel(false);
+                nextAttempt = null;
+            }
+        }
+    }
+}
@@ -0,0 +1,282 @@
+package com.sokcs.connect;
+
+import com.sokcs.config.ProxyConfig;
+import com.sokcs.dns.DnsResolver;
+import com.sokcs.handler.http.HandlerName;
+import com.sokcs.handler.http.HttpUpstreamHandler;
+import com.sokcs.route.Router;
+import com.sokcs.utils.TransportUtils;
+import io.netty.bootstrap.Bootstrap;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.EventLoop;
+import io.netty.channel.EventLoopGroup;
+import io.netty.handler.codec.http.HttpClientCodec;
+import io.netty.util.AttributeKey;
+import io.netty.util.concurrent.EventExecutor;
+import io.netty.util.concurrent.Future;
+import io.netty.util.concurrent.FutureListener;
+import io.netty.util.concurrent.Promise;
+import io.netty.util.concurrent.ScheduledFuture;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * 普通http转发使用的上游keep-alive连接池。
+ * 每个EventLoop一个实例，连接与客户端在同一个EventLoop上，所有操作都在该EventLoop上执行，无需加锁
+ */
+@Slf4j
+public final class HttpConnectionPool {
+    private static final ConcurrentMap<EventLoop, HttpConnectionPool> POOLS = new ConcurrentHashMap<>();
+
+    private static final AttributeKey<Host> HOST = AttributeKey.valueOf("httpConnectionPoolHost");
+    private static final AttributeKey<Long> IDLE_SINCE = AttributeKey.valueOf("httpConnectionPoolIdleSince");
+
+    private final EventLoop eventLoop;
+    private final Bootstrap bootstrap;
+    private final Map<String, Host> hosts = new HashMap<>();
+
+    private HttpConnectionPool(EventLoop eventLoop) {
+        this.eventLoop = eventLoop;
+        this.bootstrap = new Bootstrap().group(eventLoop)
+                .channel(TransportUtils.socketChannelClass(eventLoop))
+                .resolver(DnsResolver.GROUP)
+                .option(ChannelOption.CONNECT_TIMEOUT_MILLIS, 15_000)
+                .option(ChannelOption.SO_KEEPALIVE, true)
+                .option(ChannelOption.WRITE_BUFFER_WATER_MARK, ProxyConfig.WRITE_BUFFER_WATER_MARK)
+                .handler(new ChannelInitializer<Channel>() {
+                    @Override
+                    protected void initChannel(Channel ch) throws Exception {
+                        ch.pipeline().addLast(HandlerName.HTTP_CLIENT_CODEC, new HttpClientCodec());
+                        ch.pipeline().addLast(HandlerName.HTTP_UPSTREAM_HANDLER, new HttpUpstreamHandler());
+                    }
+                });
+
+        long idleMillis = ProxyConfig.HTTP_POOL_IDLE_MILLIS;
+        eventLoop.scheduleWithFixedDelay(this::evictIdle, idleMillis, Math.max(idleMillis / 2, 1000), TimeUnit.MILLISECONDS);
+    }
+
+    public static HttpConnectionPool get(EventLoop eventLoop) {
+        return POOLS.computeIfAbsent(eventLoop, HttpConnectionPool::new);
+    }
+
+    /**
+     * 按配置为每个EventLoop预先建立到热点站点的连接，之后由{@link #evictIdle}保持该数量的空闲连接
+     *
+     * @param group
+     */
+    public static void prewarm(EventLoopGroup group) {
+        for (String target : ProxyConfig.HTTP_POOL_PREWARM) {
+            // host:port*count
+            String[] split = target.trim().split("\\*");
+            int count = split.length > 1 ? Integer.parseInt(split[1]) : 1;
+            int index = split[0].lastIndexOf(':');
+            String host = index > 0 ? split[0].substring(0, index) : split[0];
+            int port = index > 0 ? Integer.parseInt(split[0].substring(index + 1)) : 80;
+
+            for (EventExecutor executor : group) {
+                EventLoop eventLoop = (EventLoop) executor;
+                eventLoop.execute(() -> get(eventLoop).prewarm(host, port, count));
+            }
+        }
+    }
+
+    /**
+     * 获取到目标的连接，优先复用空闲连接，达到单站点上限时排队等待归还，
+     * 超过{@link ProxyConfig#HTTP_POOL_ACQUIRE_TIMEOUT_MILLIS}仍未拿到时以{@link TimeoutException}失败
+     *
+     * @param host
+     * @param port
+     * @return
+     */
+    public Future<Channel> acquire(String host, int port) {
+        Promise<Channel> promise = eventLoop.newPromise();
+        Host h = host(host, port);
+
+        Channel channel;
+        while ((channel = h.idle.pollLast()) != null) {
+            if (channel.isActive()) {
+                promise.setSuccess(channel);
+                return promise;
+            }
+        }
+
+        if (h.connections < ProxyConfig.HTTP_POOL_MAX_PER_HOST) {
+            connect(h, promise);
+        } else {
+            await(h, promise);
+        }
+        return promise;
+    }
+
+    /**
+     * 协议升级（101）后的连接不再是http，从连接池摘除，不再计入单站点连接数
+     *
+     * @param channel
+     */
+    public void detach(Channel channel) {
+        Host h = channel.attr(HOST).getAndSet(null);
+        if (Objects.nonNull(h)) {
+            removed(h, channel);
+        }
+    }
+
+    /**
+     * 归还连接，有等待者时直接交给等待者
+     *
+     * @param channel
+     */
+    public void release(Channel channel) {
+        Host h = channel.attr(HOST).get();
+        if (Objects.isNull(h) || !channel.isActive()) {
+            channel.close();
+            return;
+        }
+
+        channel.config().setAutoRead(true);
+
+        Promise<Channel> waiter;
+        while ((waiter = h.waiters.poll()) != null) {
+            if (waiter.trySuccess(channel)) {
+                return;
+            }
+        }
+
+        channel.attr(IDLE_SINCE).set(System.currentTimeMillis());
+        h.idle.addLast(channel);
+    }
+
+    private void prewarm(String host, int port, int count) {
+        Host h = host(host, port);
+        h.minIdle = Math.max(h.minIdle, count);
+        fill(h);
+    }
+
+    /**
+     * 预建的站点空闲连接（含正在建立的）不足minIdle时补足
+     *
+     * @param h
+     */
+    private void fill(Host h) {
+        for (int i = h.idle.size() + h.opening; i < h.minIdle && h.connections < ProxyConfig.HTTP_POOL_MAX_PER_HOST; i++) {
+            h.opening++;
+            Promise<Channel> promise = eventLoop.newPromise();
+            promise.addListener((FutureListener<Channel>) future -> {
+                h.opening--;
+                if (future.isSuccess()) {
+                    release(future.getNow());
+                } else {
+                    log.warn("预建连接失败：{}:{}，{}", h.host, h.port, future.cause().getMessage());
+                }
+            });
+            connect(h, promise);
+        }
+    }
+
+    private void await(Host h, Promise<Channel> promise) {
+        h.waiters.add(promise);
+        ScheduledFuture<?> timeout = eventLoop.schedule(() -> {
+            if (h.waiters.remove(promise)) {
+                promise.tryFailure(new TimeoutException("等待空闲连接超时：" + h.host + ":" + h.port));
+            }
+        }, ProxyConfig.HTTP_POOL_ACQUIRE_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+        promise.addListener(future -> timeout.cancel(false));
+    }
+
+    private Host host(String host, int port) {
+        return hosts.computeIfAbsent(host + ":" + port, key -> new Host(host, port));
+    }
+
+    private void connect(Host h, Promise<Channel> promise) {
+        h.connections++;
+        Router.route(h.host).getConnector().connect(bootstrap, h.host, h.port).addListener((FutureListener<Channel>) future -> {
+            if (!future.isSuccess()) {
+                h.connections--;
+                promise.tryFailure(future.cause());
+                // 排队的请求各自重新尝试连接
+                Promise<Channel> waiter = h.waiters.poll();
+                if (Objects.nonNull(waiter)) {
+                    connect(h, waiter);
+                }
+                return;
+            }
+
+            Channel channel = future.getNow();
+            channel.attr(HOST).set(h);
+            channel.closeFuture().addListener(closeFuture -> {
+                // 已经摘除的连接不再计数
+                if (Objects.nonNull(channel.attr(HOST).getAndSet(null))) {
+                    removed(h, channel);
+                }
+            });
+
+            if (!promise.trySuccess(channel)) {
+                release(channel);
+            }
+        });
+    }
+
+    private void removed(Host h, Channel channel) {
+        h.connections--;
+        h.idle.remove(channel);
+        Promise<Channel> waiter = h.waiters.poll();
+        if (Objects.nonNull(waiter)) {
+            connect(h, waiter);
+        }
+    }
+
+    /**
+     * 关闭空闲过久（站点可能已单方面断开）的连接，预建的站点随后补足空闲连接
+     */
+    private void evictIdle() {
+        long deadline = System.currentTimeMillis() - ProxyConfig.HTTP_POOL_IDLE_MILLIS;
+        List<Channel> expired = new ArrayList<>();
+
+        Iterator<Host> iterator = hosts.values().iterator();
+        while (iterator.hasNext()) {
+            Host h = iterator.next();
+            Iterator<Channel> channels = h.idle.iterator();
+            while (channels.hasNext()) {
+                Channel channel = channels.next();
+                if (channel.attr(IDLE_SINCE).get() < deadline) {
+                    channels.remove();
+                    expired.add(channel);
+                }
+            }
+            if (h.connections == 0 && h.waiters.isEmpty() && h.minIdle == 0) {
+                iterator.remove();
+            }
+        }
+
+        expired.forEach(Channel::close);
+        hosts.values().forEach(this::fill);
+    }
+
+    private static final class Host {
+        private final String host;
+        private final int port;
+        private final ArrayDeque<Channel> idle = new ArrayDeque<>();
+        private final ArrayDeque<Promise<Channel>> waiters = new ArrayDeque<>();
+        private int connections;
+        // 预建的站点保持的空闲连接数，以及正在为此建立的连接数
+        private int minIdle;
+        private int opening;
+
+        private Host(String host, int port) {
+            this.host = host;
+            this.port = port;
+        }
+    }
+}
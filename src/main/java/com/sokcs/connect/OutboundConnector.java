@@ -0,0 +1,23 @@
+package com.sokcs.connect;
+
+import io.netty.bootstrap.Bootstrap;
+import io.netty.channel.Channel;
+import io.netty.util.concurrent.Future;
+
+/**
+ * 出站连接方式：直连或经由上级代理。
+ * bootstrap必须已设置group为目标EventLoop，且handler可被多个通道共享；
+ * 返回的通道已经可以与目标直接收发数据，bootstrap的handler已加入pipeline。
+ * 返回的通道不一定是SocketChannel（经由干线时是Http2StreamChannel），handler不能依赖具体的通道类型
+ */
+public interface OutboundConnector {
+    OutboundConnector DIRECT = HappyEyeballsConnector::connect;
+
+    /**
+     * @param bootstrap
+     * @param host
+     * @param port
+     * @return
+     */
+    Future<Channel> connect(Bootstrap bootstrap, String host, int port);
+}
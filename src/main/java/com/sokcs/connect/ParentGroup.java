@@ -0,0 +1,143 @@
+package com.sokcs.connect;
+
+import io.netty.bootstrap.Bootstrap;
+import io.netty.channel.Channel;
+import io.netty.channel.EventLoop;
+import io.netty.util.concurrent.Future;
+import io.netty.util.concurrent.FutureListener;
+import io.netty.util.concurrent.Promise;
+import lombok.extern.slf4j.Slf4j;
+
+import java.net.ConnectException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * 规则中同名的一组上级代理。按权重随机选择可用的成员，全部不可用时在所有成员中选择；
+ * 上级代理本身连接或握手失败时换用未尝试过的成员，每个成员最多尝试一次
+ */
+@Slf4j
+public final class ParentGroup implements OutboundConnector {
+    // 一次连接中尝试过的成员用long的位记录
+    private static final int MAX_PARENTS = Long.SIZE;
+
+    private final String name;
+    private ParentProxy[] parents = new ParentProxy[0];
+    private int[] weights = new int[0];
+
+    public ParentGroup(String name) {
+        this.name = name;
+    }
+
+    /**
+     * 只在加载规则时调用
+     *
+     * @param parent
+     * @param weight
+     */
+    public void add(ParentProxy parent, int weight) {
+        if (weight <= 0) {
+            throw new IllegalArgumentException("权重必须大于0：" + weight);
+        }
+        if (parents.length == MAX_PARENTS) {
+            throw new IllegalArgumentException("每组最多" + MAX_PARENTS + "个上级代理：" + name);
+        }
+        parents = Arrays.copyOf(parents, parents.length + 1);
+        weights = Arrays.copyOf(weights, weights.length + 1);
+        parents[parents.length - 1] = parent;
+        weights[weights.length - 1] = weight;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public List<ParentProxy> getParents() {
+        return Collections.unmodifiableList(Arrays.asList(parents));
+    }
+
+    @Override
+    public Future<Channel> connect(Bootstrap bootstrap, String host, int port) {
+        EventLoop eventLoop = bootstrap.config().group().next();
+        Promise<Channel> promise = eventLoop.newPromise();
+        connect(ParentPool.get(eventLoop), bootstrap, host, port, 0L, promise);
+        return promise;
+    }
+
+    private void connect(ParentPool pool, Bootstrap bootstrap, String host, int port,
+                         long tried, Promise<Channel> promise) {
+        int index = select(tried);
+        if (index < 0) {
+            promise.tryFailure(new ConnectException("没有可用的上级代理：" + name));
+            return;
+        }
+        ParentProxy parent = parents[index];
+        long attempted = tried | 1L << index;
+
+        pool.connect(parent, bootstrap, host, port).addListener((FutureListener<Channel>) future -> {
+            if (future.isSuccess()) {
+                if (!promise.trySuccess(future.getNow())) {
+                    future.getNow().close();
+                }
+                return;
+            }
+
+            Throwable cause = future.cause();
+            if (cause instanceof TunnelRefusedException || Long.bitCount(attempted) == parents.length || promise.isDone()) {
+                promise.tryFailure(cause);
+                return;
+            }
+            log.warn("经由上级代理{}连接{}失败，改用其他上级代理：{}", parent, host, cause.getMessage());
+            connect(pool, bootstrap, host, port, attempted, promise);
+        });
+    }
+
+    /**
+     * 按权重随机选择，优先选择可用的成员
+     *
+     * @param exclude 本次连接已尝试过的成员，第i位对应parents[i]
+     * @return 成员的下标，没有其他成员时返回-1
+     */
+    private int select(long exclude) {
+        int total = 0;
+        for (int i = 0; i < parents.length; i++) {
+            if (!excluded(exclude, i) && parents[i].isHealthy()) {
+                total += weights[i];
+            }
+        }
+        boolean healthyOnly = total > 0;
+        if (!healthyOnly) {
+            for (int i = 0; i < parents.length; i++) {
+                if (!excluded(exclude, i)) {
+                    total += weights[i];
+                }
+            }
+        }
+        if (total == 0) {
+            return -1;
+        }
+
+        int random = ThreadLocalRandom.current().nextInt(total);
+        for (int i = 0; i < parents.length; i++) {
+            if (excluded(exclude, i) || (healthyOnly && !parents[i].isHealthy())) {
+                continue;
+            }
+            random -= weights[i];
+            if (random < 0) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static boolean excluded(long exclude, int index) {
+        return (exclude & 1L << index) != 0;
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+}
@@ -0,0 +1,428 @@
+package com.sokcs.connect;
+
+import com.sokcs.config.ProxyConfig;
+import com.sokcs.dns.DnsResolver;
+import com.sokcs.route.Router;
+import com.sokcs.utils.TransportUtils;
+import io.netty.bootstrap.Bootstrap;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelDuplexHandler;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.EventLoop;
+import io.netty.channel.EventLoopGroup;
+import io.netty.handler.codec.http2.Http2StreamChannel;
+import io.netty.util.AttributeKey;
+import io.netty.util.concurrent.EventExecutor;
+import io.netty.util.concurrent.Future;
+import io.netty.util.concurrent.FutureListener;
+import io.netty.util.concurrent.Promise;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 到上级代理的连接。每个EventLoop一个实例，所有操作都在该EventLoop上执行，无需加锁。
+ * 为每个上级代理保留预先建立的空闲连接（socks5已完成认证），取用时只差一次CONNECT的往返；
+ * 定期补充预建连接并探测不可用的上级代理，结果同时作为健康检查。
+ * 干线上级代理的连接不会被取走，由多个流轮流共用，见{@link Trunk}
+ */
+@Slf4j
+public final class ParentPool {
+    private static final ConcurrentMap<EventLoop, ParentPool> POOLS = new ConcurrentHashMap<>();
+
+    private static final AttributeKey<Long> IDLE_SINCE = AttributeKey.valueOf("parentPoolIdleSince");
+
+    private final EventLoop eventLoop;
+    private final Bootstrap bootstrap;
+    private final Map<ParentProxy, Deque<Channel>> idle = new HashMap<>();
+    // 正在建立的预建连接数
+    private final Map<ParentProxy, Integer> opening = new HashMap<>();
+    // 还没有可用的干线连接时，同时到达的请求等待同一个连接
+    private final Map<ParentProxy, Future<Channel>> trunkOpening = new HashMap<>();
+
+    private ParentPool(EventLoop eventLoop) {
+        this.eventLoop = eventLoop;
+        this.bootstrap = new Bootstrap().group(eventLoop)
+                .channel(TransportUtils.socketChannelClass(eventLoop))
+                .resolver(DnsResolver.GROUP)
+                .option(ChannelOption.CONNECT_TIMEOUT_MILLIS, 10_000)
+                .option(ChannelOption.SO_KEEPALIVE, true)
+                .option(ChannelOption.WRITE_BUFFER_WATER_MARK, ProxyConfig.WRITE_BUFFER_WATER_MARK)
+                .handler(new ChannelInitializer<Channel>() {
+                    @Override
+                    protected void initChannel(Channel ch) throws Exception {
+                        // 握手handler在连接建立后加入
+                    }
+                });
+        // 通道用于socks转发时可能要splice，注册后无法再修改
+        TransportUtils.spliceMode(bootstrap);
+
+        long interval = ProxyConfig.UPSTREAM_CHECK_INTERVAL_MILLIS;
+        eventLoop.scheduleWithFixedDelay(this::maintain, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    public static ParentPool get(EventLoop eventLoop) {
+        return POOLS.computeIfAbsent(eventLoop, ParentPool::new);
+    }
+
+    /**
+     * 启动时为每个EventLoop建立到所有上级代理的空闲连接
+     *
+     * @param group
+     */
+    public static void prewarm(EventLoopGroup group) {
+        for (EventExecutor executor : group) {
+            EventLoop eventLoop = (EventLoop) executor;
+            eventLoop.execute(() -> get(eventLoop).maintain());
+        }
+    }
+
+    /**
+     * 经由上级代理连接目标，成功后移除握手handler，加入bootstrap的handler并应用其option
+     *
+     * @param parent
+     * @param target
+     * @param host
+     * @param port
+     * @return
+     */
+    Future<Channel> connect(ParentProxy parent, Bootstrap target, String host, int port) {
+        if (parent.getType() == ParentProxy.Type.TRUNK) {
+            return connectTrunk(parent, target, host, port);
+        }
+
+        Promise<Channel> promise = eventLoop.newPromise();
+        acquire(parent).addListener((FutureListener<Channel>) future -> {
+            if (!future.isSuccess()) {
+                parent.failure(future.cause());
+                promise.tryFailure(future.cause());
+                return;
+            }
+
+            Channel channel = future.getNow();
+            ParentTunnelHandler tunnel = channel.pipeline().get(ParentTunnelHandler.class);
+            tunnel.connect(host, port).addListener(connectFuture -> {
+                if (!connectFuture.isSuccess()) {
+                    if (connectFuture.cause() instanceof TunnelRefusedException) {
+                        parent.success();
+                    } else {
+                        parent.failure(connectFuture.cause());
+                    }
+                    channel.close();
+                    promise.tryFailure(connectFuture.cause());
+                    return;
+                }
+
+                parent.success();
+                ByteBuf leftover = tunnel.leftover();
+                channel.pipeline().remove(tunnel);
+                if (Objects.nonNull(leftover)) {
+                    channel.pipeline().addLast(new Leftover(leftover));
+                }
+                channel.pipeline().addLast(target.config().handler());
+                applyOptions(channel, target);
+                // 握手完成时暂停了读取，bootstrap没有另外要求时恢复
+                if (!target.config().options().containsKey(ChannelOption.AUTO_READ)) {
+                    channel.config().setAutoRead(true);
+                }
+                if (!promise.trySuccess(channel)) {
+                    channel.close();
+                }
+            });
+        });
+        return promise;
+    }
+
+    /**
+     * 在干线连接上打开流，流代替连接交给bootstrap的handler
+     *
+     * @param parent
+     * @param target
+     * @param host
+     * @param port
+     * @return
+     */
+    private Future<Channel> connectTrunk(ParentProxy parent, Bootstrap target, String host, int port) {
+        Promise<Channel> promise = eventLoop.newPromise();
+        acquireTrunk(parent).addListener((FutureListener<Channel>) future -> {
+            if (!future.isSuccess()) {
+                parent.failure(future.cause());
+                promise.tryFailure(future.cause());
+                return;
+            }
+
+            Trunk.openStream(future.getNow(), parent, host, port).addListener((FutureListener<Http2StreamChannel>) streamFuture -> {
+                if (!streamFuture.isSuccess()) {
+                    promise.tryFailure(streamFuture.cause());
+                    return;
+                }
+
+                Http2StreamChannel stream = streamFuture.getNow();
+                stream.pipeline().addLast(target.config().handler());
+                applyOptions(stream, target);
+                if (!promise.trySuccess(stream)) {
+                    stream.close();
+                }
+            });
+        });
+        return promise;
+    }
+
+    /**
+     * 轮流使用已有的干线连接，没有时建立一个
+     *
+     * @param parent
+     * @return
+     */
+    private Future<Channel> acquireTrunk(ParentProxy parent) {
+        Deque<Channel> deque = idle.get(parent);
+        Channel channel;
+        while (Objects.nonNull(deque) && (channel = deque.pollFirst()) != null) {
+            if (channel.isActive()) {
+                deque.addLast(channel);
+                return eventLoop.newSucceededFuture(channel);
+            }
+        }
+
+        Future<Channel> future = trunkOpening.get(parent);
+        if (Objects.isNull(future)) {
+            future = open(parent);
+            trunkOpening.put(parent, future);
+            future.addListener((FutureListener<Channel>) openFuture -> {
+                trunkOpening.remove(parent);
+                if (openFuture.isSuccess()) {
+                    parent.success();
+                    addIdle(parent, openFuture.getNow());
+                }
+            });
+        }
+        return future;
+    }
+
+    /**
+     * 优先取用预建的空闲连接，取走后补充
+     *
+     * @param parent
+     * @return 已完成预建阶段握手的连接
+     */
+    private Future<Channel> acquire(ParentProxy parent) {
+        Deque<Channel> deque = idle.get(parent);
+        Channel channel;
+        while (Objects.nonNull(deque) && (channel = deque.pollLast()) != null) {
+            if (channel.isActive()) {
+                fill(parent);
+                return eventLoop.newSucceededFuture(channel);
+            }
+        }
+
+        Future<Channel> future = open(parent);
+        fill(parent);
+        return future;
+    }
+
+    /**
+     * 建立到上级代理的连接并完成预建阶段的握手，干线连接完成TLS握手后即可使用。上级代理通常使用IP，不经过路由规则的地址检查
+     *
+     * @param parent
+     * @return
+     */
+    private Future<Channel> open(ParentProxy parent) {
+        Promise<Channel> promise = eventLoop.newPromise();
+        bootstrap.connect(parent.getHost(), parent.getPort()).addListener((ChannelFutureListener) future -> {
+            if (!future.isSuccess()) {
+                promise.tryFailure(future.cause());
+                return;
+            }
+
+            Channel channel = future.channel();
+            if (parent.getType() == ParentProxy.Type.TRUNK) {
+                Trunk.client(channel, parent).addListener((FutureListener<Channel>) trunkFuture -> {
+                    if (trunkFuture.isSuccess()) {
+                        promise.trySuccess(channel);
+                    } else {
+                        promise.tryFailure(trunkFuture.cause());
+                    }
+                });
+                return;
+            }
+
+            ParentTunnelHandler tunnel = new ParentTunnelHandler(parent);
+            channel.pipeline().addLast(tunnel);
+            tunnel.prepare().addListener(prepareFuture -> {
+                if (prepareFuture.isSuccess()) {
+                    promise.trySuccess(channel);
+                } else {
+                    channel.close();
+                    promise.tryFailure(prepareFuture.cause());
+                }
+            });
+        });
+        return promise;
+    }
+
+    /**
+     * 补充空闲连接到配置的数量，不可用的上级代理不补充
+     *
+     * @param parent
+     */
+    private void fill(ParentProxy parent) {
+        if (!parent.isHealthy() || !parent.isActive()) {
+            return;
+        }
+
+        Deque<Channel> deque = idle.computeIfAbsent(parent, key -> new ArrayDeque<>());
+        // 先算出数量，连接同步失败时不会在循环中反复重试
+        int missing = capacity(parent) - deque.size() - opening.getOrDefault(parent, 0);
+        for (int i = 0; i < missing; i++) {
+            opening.merge(parent, 1, Integer::sum);
+            open(parent).addListener((FutureListener<Channel>) future -> {
+                opening.computeIfPresent(parent, (key, count) -> count > 1 ? count - 1 : null);
+                if (future.isSuccess()) {
+                    parent.success();
+                    addIdle(parent, future.getNow());
+                } else {
+                    log.debug("预建上级代理连接失败：{} {}", parent, future.cause().getMessage());
+                    parent.failure(future.cause());
+                }
+            });
+        }
+    }
+
+    private void addIdle(ParentProxy parent, Channel channel) {
+        Deque<Channel> deque = idle.computeIfAbsent(parent, key -> new ArrayDeque<>());
+        // 干线连接可能已经有流在使用，超出数量时也保留
+        if (!parent.isActive() || (deque.size() >= capacity(parent) && parent.getType() != ParentProxy.Type.TRUNK)) {
+            channel.close();
+            return;
+        }
+
+        channel.attr(IDLE_SINCE).set(System.currentTimeMillis());
+        deque.addLast(channel);
+        channel.closeFuture().addListener(closeFuture -> deque.remove(channel));
+    }
+
+    /**
+     * 关闭空闲过久（上级代理可能已单方面断开）及已不在规则中的连接，补充空闲连接，探测不可用的上级代理
+     */
+    private void maintain() {
+        long deadline = System.currentTimeMillis() - ProxyConfig.UPSTREAM_IDLE_MILLIS;
+        List<Channel> expired = new ArrayList<>();
+
+        Iterator<Map.Entry<ParentProxy, Deque<Channel>>> iterator = idle.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<ParentProxy, Deque<Channel>> entry = iterator.next();
+            if (!entry.getKey().isActive()) {
+                expired.addAll(entry.getValue());
+                iterator.remove();
+                opening.remove(entry.getKey());
+                continue;
+            }
+            if (entry.getKey().getType() == ParentProxy.Type.TRUNK) {
+                // 干线连接一直保留，依靠TCP keepalive
+                continue;
+            }
+            for (Channel channel : entry.getValue()) {
+                if (channel.attr(IDLE_SINCE).get() < deadline) {
+                    expired.add(channel);
+                }
+            }
+        }
+        expired.forEach(Channel::close);
+
+        for (ParentProxy parent : Router.table().parents()) {
+            if (parent.isHealthy()) {
+                fill(parent);
+            } else {
+                probe(parent);
+            }
+        }
+    }
+
+    /**
+     * 探测不可用的上级代理，连接并完成预建阶段的握手即恢复可用，连接留作空闲连接
+     *
+     * @param parent
+     */
+    void probe(ParentProxy parent) {
+        if (!parent.tryProbe()) {
+            return;
+        }
+        open(parent).addListener((FutureListener<Channel>) future -> {
+            parent.probed();
+            if (future.isSuccess()) {
+                parent.success();
+                addIdle(parent, future.getNow());
+            }
+        });
+    }
+
+    /**
+     * @param parent
+     * @return 每个EventLoop保留的连接数
+     */
+    private static int capacity(ParentProxy parent) {
+        return parent.getType() == ParentProxy.Type.TRUNK ? ProxyConfig.TRUNK_CONNECTIONS_PER_LOOP : ProxyConfig.UPSTREAM_IDLE_PER_LOOP;
+    }
+
+    /**
+     * 握手时多读到的目标数据，在第一次读取时先交给后续的handler，保证与之后读到的数据顺序一致
+     */
+    private static final class Leftover extends ChannelDuplexHandler {
+        private ByteBuf buf;
+
+        private Leftover(ByteBuf buf) {
+            this.buf = buf;
+        }
+
+        @Override
+        public void read(ChannelHandlerContext ctx) throws Exception {
+            ByteBuf data = buf;
+            buf = null;
+            ctx.pipeline().remove(this);
+            if (Objects.nonNull(data)) {
+                ctx.fireChannelRead(data);
+                ctx.fireChannelReadComplete();
+            }
+            ctx.read();
+        }
+
+        @Override
+        public void handlerRemoved(ChannelHandlerContext ctx) throws Exception {
+            if (Objects.nonNull(buf)) {
+                buf.release();
+                buf = null;
+            }
+        }
+    }
+
+    /**
+     * 连接已注册，EPOLL_MODE等只能在注册前设置的选项跳过，预建连接已按需要设置
+     *
+     * @param channel
+     * @param target
+     */
+    @SuppressWarnings("unchecked")
+    private static void applyOptions(Channel channel, Bootstrap target) {
+        for (Map.Entry<ChannelOption<?>, Object> entry : target.config().options().entrySet()) {
+            try {
+                channel.config().setOption((ChannelOption<Object>) entry.getKey(), entry.getValue());
+            } catch (IllegalStateException e) {
+                log.debug("忽略选项：{}", entry.getKey());
+            }
+        }
+    }
+}
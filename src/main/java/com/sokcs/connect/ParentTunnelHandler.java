@@ -0,0 +1,321 @@
+package com.sokcs.connect;
+
+import com.sokcs.config.ProxyConfig;
+import com.sokcs.route.CidrTrie;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ConnectTimeoutException;
+import io.netty.handler.codec.ByteToMessageDecoder;
+import io.netty.handler.codec.base64.Base64;
+import io.netty.handler.codec.socksx.v5.Socks5CommandStatus;
+import io.netty.util.CharsetUtil;
+import io.netty.util.NetUtil;
+import io.netty.util.concurrent.Future;
+import io.netty.util.concurrent.Promise;
+import io.netty.util.concurrent.ScheduledFuture;
+
+import java.net.ConnectException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 与上级代理之间的握手。socks5在预建连接时就完成方法协商与认证，取用时只需发送CONNECT；
+ * http在取用时发送CONNECT请求。握手完成后暂停读取，多读到的目标数据保留下来，交给后续的handler
+ */
+final class ParentTunnelHandler extends ByteToMessageDecoder {
+    // http响应头的上限
+    private static final int MAX_RESPONSE_HEADER = 8192;
+
+    private final ParentProxy parent;
+    private ChannelHandlerContext ctx;
+    private State state = State.NEW;
+    // 当前阶段的结果
+    private Promise<Void> promise;
+    private ByteBuf leftover;
+
+    ParentTunnelHandler(ParentProxy parent) {
+        this.parent = parent;
+    }
+
+    @Override
+    public void handlerAdded(ChannelHandlerContext ctx) throws Exception {
+        this.ctx = ctx;
+    }
+
+    /**
+     * 预建阶段：socks5发送方法协商并完成认证，http不需要
+     *
+     * @return
+     */
+    Future<Void> prepare() {
+        promise = ctx.executor().newPromise();
+        if (parent.getType() == ParentProxy.Type.HTTP) {
+            state = State.READY;
+            return promise.setSuccess(null);
+        }
+
+        state = State.GREETING;
+        ByteBuf buf = ctx.alloc().buffer(4);
+        buf.writeByte(5);
+        if (parent.hasCredentials()) {
+            buf.writeByte(2).writeByte(0).writeByte(2);
+        } else {
+            buf.writeByte(1).writeByte(0);
+        }
+        ctx.writeAndFlush(buf);
+        return withTimeout(promise);
+    }
+
+    /**
+     * 请求上级代理连接目标
+     *
+     * @param host
+     * @param port
+     * @return 上级代理拒绝连接目标时失败原因为{@link TunnelRefusedException}
+     */
+    Future<Void> connect(String host, int port) {
+        promise = ctx.executor().newPromise();
+        state = State.CONNECTING;
+        ctx.writeAndFlush(parent.getType() == ParentProxy.Type.SOCKS5 ? socks5Command(host, port) : httpConnect(host, port));
+        return withTimeout(promise);
+    }
+
+    /**
+     * @return 握手完成时已读到的目标数据，没有时为null，调用方负责释放
+     */
+    ByteBuf leftover() {
+        ByteBuf buf = leftover;
+        leftover = null;
+        return buf;
+    }
+
+    @Override
+    protected void decode(ChannelHandlerContext ctx, ByteBuf in, List<Object> out) throws Exception {
+        switch (state) {
+            case GREETING:
+                if (in.readableBytes() < 2) {
+                    return;
+                }
+                byte version = in.readByte();
+                int method = in.readUnsignedByte();
+                if (version != 5) {
+                    fail(new ConnectException("上级代理不是socks5：" + parent));
+                } else if (method == 0) {
+                    ready();
+                } else if (method == 2 && parent.hasCredentials()) {
+                    state = State.AUTH;
+                    ctx.writeAndFlush(socks5Auth());
+                } else {
+                    fail(new ConnectException("上级代理不接受的认证方式：" + parent));
+                }
+                break;
+            case AUTH:
+                if (in.readableBytes() < 2) {
+                    return;
+                }
+                in.skipBytes(1);
+                if (in.readByte() == 0) {
+                    ready();
+                } else {
+                    fail(new ConnectException("上级代理认证失败：" + parent));
+                }
+                break;
+            case CONNECTING:
+                if (parent.getType() == ParentProxy.Type.SOCKS5) {
+                    socks5Response(in);
+                } else {
+                    httpResponse(in);
+                }
+                break;
+            default:
+                // 空闲期间上级代理不应发送数据
+                in.skipBytes(in.readableBytes());
+                break;
+        }
+    }
+
+    /**
+     * +----+-----+-------+------+----------+----------+
+     * |VER | REP |  RSV  | ATYP | BND.ADDR | BND.PORT |
+     * +----+-----+-------+------+----------+----------+
+     */
+    private void socks5Response(ByteBuf in) {
+        if (in.readableBytes() < 5) {
+            return;
+        }
+
+        int index = in.readerIndex();
+        int length;
+        switch (in.getByte(index + 3)) {
+            case 1:
+                length = 4 + 4 + 2;
+                break;
+            case 4:
+                length = 4 + 16 + 2;
+                break;
+            case 3:
+                length = 4 + 1 + in.getUnsignedByte(index + 4) + 2;
+                break;
+            default:
+                fail(new ConnectException("上级代理响应格式错误：" + parent));
+                return;
+        }
+        if (in.readableBytes() < length) {
+            return;
+        }
+
+        byte status = in.getByte(index + 1);
+        in.skipBytes(length);
+        if (status != 0) {
+            fail(new TunnelRefusedException("上级代理无法连接目标：" + Socks5CommandStatus.valueOf(status)));
+            return;
+        }
+        done(in);
+    }
+
+    private void httpResponse(ByteBuf in) {
+        int end = -1;
+        for (int i = in.readerIndex(); i + 3 < in.writerIndex(); i++) {
+            if (in.getByte(i) == '\r' && in.getByte(i + 1) == '\n' && in.getByte(i + 2) == '\r' && in.getByte(i + 3) == '\n') {
+                end = i + 4;
+                break;
+            }
+        }
+        if (end < 0) {
+            if (in.readableBytes() > MAX_RESPONSE_HEADER) {
+                fail(new ConnectException("上级代理响应头过长：" + parent));
+            }
+            return;
+        }
+
+        String header = in.readCharSequence(end - in.readerIndex(), StandardCharsets.ISO_8859_1).toString();
+        String[] statusLine = header.substring(0, header.indexOf('\r')).split(" ", 3);
+        int status = statusLine.length > 1 && statusLine[1].length() == 3 ? Integer.parseInt(statusLine[1]) : -1;
+        if (status >= 200 && status < 300) {
+            done(in);
+        } else if (status == 407 || status < 0) {
+            // 认证或协议问题属于上级代理本身
+            fail(new ConnectException("上级代理响应：" + header.substring(0, header.indexOf('\r'))));
+        } else {
+            fail(new TunnelRefusedException("上级代理无法连接目标：" + header.substring(0, header.indexOf('\r'))));
+        }
+    }
+
+    private void ready() {
+        state = State.READY;
+        promise.trySuccess(null);
+    }
+
+    private void done(ByteBuf in) {
+        state = State.DONE;
+        // 后续的handler准备好之前不再读取
+        ctx.channel().config().setAutoRead(false);
+        if (in.isReadable()) {
+            leftover = in.readRetainedSlice(in.readableBytes());
+        }
+        promise.trySuccess(null);
+    }
+
+    private void fail(Throwable cause) {
+        state = State.FAILED;
+        if (Objects.nonNull(promise)) {
+            promise.tryFailure(cause);
+        }
+        ctx.close();
+    }
+
+    private Future<Void> withTimeout(Promise<Void> promise) {
+        ScheduledFuture<?> timeout = ctx.executor().schedule(() -> {
+            if (!promise.isDone()) {
+                fail(new ConnectTimeoutException("与上级代理握手超时：" + parent));
+            }
+        }, ProxyConfig.UPSTREAM_HANDSHAKE_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+        promise.addListener(future -> timeout.cancel(false));
+        return promise;
+    }
+
+    /**
+     * RFC 1929用户名密码认证
+     *
+     * @return
+     */
+    private ByteBuf socks5Auth() {
+        byte[] username = parent.getUsername().getBytes(StandardCharsets.UTF_8);
+        byte[] password = parent.getPassword().getBytes(StandardCharsets.UTF_8);
+        ByteBuf buf = ctx.alloc().buffer(3 + username.length + password.length);
+        buf.writeByte(1);
+        buf.writeByte(username.length).writeBytes(username);
+        buf.writeByte(password.length).writeBytes(password);
+        return buf;
+    }
+
+    /**
+     * +----+-----+-------+------+----------+----------+
+     * |VER | CMD |  RSV  | ATYP | DST.ADDR | DST.PORT |
+     * +----+-----+-------+------+----------+----------+
+     */
+    private ByteBuf socks5Command(String host, int port) {
+        ByteBuf buf = ctx.alloc().buffer(22 + host.length());
+        buf.writeByte(5).writeByte(1).writeByte(0);
+        if (CidrTrie.parseIpv4(host) >= 0 || NetUtil.isValidIpV6Address(host)) {
+            byte[] address = NetUtil.createByteArrayFromIpAddressString(host);
+            buf.writeByte(address.length == 4 ? 1 : 4).writeBytes(address);
+        } else {
+            byte[] name = host.getBytes(StandardCharsets.US_ASCII);
+            buf.writeByte(3).writeByte(name.length).writeBytes(name);
+        }
+        buf.writeShort(port);
+        return buf;
+    }
+
+    private ByteBuf httpConnect(String host, int port) {
+        String authority = (host.indexOf(':') >= 0 ? "[" + host + "]" : host) + ":" + port;
+        StringBuilder request = new StringBuilder(128)
+                .append("CONNECT ").append(authority).append(" HTTP/1.1\r\n")
+                .append("Host: ").append(authority).append("\r\n");
+        if (parent.hasCredentials()) {
+            ByteBuf credentials = Unpooled.copiedBuffer(parent.getUsername() + ":" + parent.getPassword(), CharsetUtil.UTF_8);
+            ByteBuf encoded = Base64.encode(credentials, false);
+            request.append("Proxy-Authorization: Basic ").append(encoded.toString(CharsetUtil.US_ASCII)).append("\r\n");
+            credentials.release();
+            encoded.release();
+        }
+        request.append("\r\n");
+        return Unpooled.copiedBuffer(request, CharsetUtil.US_ASCII);
+    }
+
+    @Override
+    public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+        if (Objects.nonNull(promise)) {
+            promise.tryFailure(new ConnectException("上级代理关闭了连接：" + parent));
+        }
+        super.channelInactive(ctx);
+    }
+
+    @Override
+    protected void handlerRemoved0(ChannelHandlerContext ctx) throws Exception {
+        if (Objects.nonNull(leftover)) {
+            leftover.release();
+            leftover = null;
+        }
+    }
+
+    @Override
+    public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) throws Exception {
+        fail(cause);
+    }
+
+    private enum State {
+        NEW,
+        GREETING,
+        AUTH,
+        // 可以发送CONNECT
+        READY,
+        CONNECTING,
+        DONE,
+        FAILED
+    }
+}
@@ -0,0 +1,271 @@
+package com.sokcs.connect;
+
+import com.sokcs.config.ProxyConfig;
+import com.sokcs.utils.SslUtils;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http2.DefaultHttp2Headers;
+import io.netty.handler.codec.http2.DefaultHttp2HeadersFrame;
+import io.netty.handler.codec.http2.DefaultHttp2WindowUpdateFrame;
+import io.netty.handler.codec.http2.Http2CodecUtil;
+import io.netty.handler.codec.http2.Http2FrameCodecBuilder;
+import io.netty.handler.codec.http2.Http2Headers;
+import io.netty.handler.codec.http2.Http2MultiplexHandler;
+import io.netty.handler.codec.http2.Http2Settings;
+import io.netty.handler.codec.http2.Http2StreamChannel;
+import io.netty.handler.codec.http2.Http2StreamChannelBootstrap;
+import io.netty.handler.ssl.ApplicationProtocolNames;
+import io.netty.handler.ssl.SslContext;
+import io.netty.handler.ssl.SslContextBuilder;
+import io.netty.handler.ssl.SslHandler;
+import io.netty.handler.ssl.SslProvider;
+import io.netty.util.concurrent.Future;
+import io.netty.util.concurrent.FutureListener;
+import io.netty.util.concurrent.Promise;
+import lombok.extern.slf4j.Slf4j;
+
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLException;
+import javax.net.ssl.SSLParameters;
+import java.io.File;
+import java.net.ConnectException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.Base64;
+import java.util.Objects;
+
+/**
+ * 实例之间的干线：一条h2连接上每个隧道是一个CONNECT流，流各自做流量控制，
+ * 发送时按流公平分配（HTTP/2默认的加权公平队列）。打开流不需要握手，请求与数据一起发出，
+ * 小流量的隧道不必在长距离链路上各自经历TCP慢启动。
+ * 干线连接默认使用TLS并校验服务端证书，每个流都要带上认证信息
+ */
+@Slf4j
+public final class Trunk {
+    // 干线服务端连接上的错误（客户端不信任证书等）记录后关闭连接，不传到pipeline末尾
+    private static final ChannelHandler SERVER_ERROR_HANDLER = new ServerErrorHandler();
+
+    // 连接干线上级代理的TLS客户端，未启用TLS或创建失败时为null
+    private static final SslContext CLIENT_SSL_CONTEXT = ProxyConfig.TRUNK_TLS ? newClientSslContext(ProxyConfig.TRUNK_TRUST_FILE) : null;
+
+    private Trunk() {
+    }
+
+    /**
+     * 到另一个实例干线端口的连接建立后调用，启用TLS时校验证书并要求协商出h2
+     *
+     * @param channel
+     * @param parent
+     * @return 完成后即可打开流，失败时连接已关闭
+     */
+    static Future<Channel> client(Channel channel, ParentProxy parent) {
+        if (ProxyConfig.TRUNK_TLS && Objects.isNull(CLIENT_SSL_CONTEXT)) {
+            channel.close();
+            return channel.eventLoop().newFailedFuture(new SSLException("干线TLS客户端不可用"));
+        }
+        return client(channel, parent, CLIENT_SSL_CONTEXT);
+    }
+
+    /**
+     * @param channel
+     * @param parent
+     * @param sslContext {@link #newClientSslContext(String)}，不使用TLS时为null
+     * @return
+     */
+    static Future<Channel> client(Channel channel, ParentProxy parent, SslContext sslContext) {
+        if (Objects.isNull(sslContext)) {
+            clientCodec(channel);
+            return channel.eventLoop().newSucceededFuture(channel);
+        }
+
+        SslHandler sslHandler = sslContext.newHandler(channel.alloc(), parent.getHost(), parent.getPort());
+        // 校验证书中的域名或IP与上级代理一致
+        SSLEngine engine = sslHandler.engine();
+        SSLParameters sslParameters = engine.getSSLParameters();
+        sslParameters.setEndpointIdentificationAlgorithm("HTTPS");
+        engine.setSSLParameters(sslParameters);
+        // 握手失败由handshakeFuture的监听器处理，异常不再传到pipeline末尾
+        ChannelInboundHandlerAdapter handshakeFailure = new ChannelInboundHandlerAdapter() {
+            @Override
+            public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+                ctx.close();
+            }
+        };
+        channel.pipeline().addLast(sslHandler, handshakeFailure);
+
+        Promise<Channel> promise = channel.eventLoop().newPromise();
+        sslHandler.handshakeFuture().addListener(future -> {
+            if (!future.isSuccess()) {
+                channel.close();
+                promise.tryFailure(future.cause());
+            } else if (!ApplicationProtocolNames.HTTP_2.equals(sslHandler.applicationProtocol())) {
+                channel.close();
+                promise.tryFailure(new ConnectException("干线未协商出h2：" + parent));
+            } else {
+                channel.pipeline().remove(handshakeFailure);
+                clientCodec(channel);
+                promise.trySuccess(channel);
+            }
+        });
+        return promise;
+    }
+
+    private static void clientCodec(Channel channel) {
+        channel.pipeline().addLast(Http2FrameCodecBuilder.forClient()
+                .initialSettings(settings().pushEnabled(false))
+                .build());
+        channel.pipeline().addLast(new Http2MultiplexHandler(new ChannelInboundHandlerAdapter()));
+        growConnectionWindow(channel);
+    }
+
+    /**
+     * 干线端口接受的连接，每个流交给streamHandler
+     *
+     * @param channel
+     * @param sslContext    {@link #newServerSslContext()}，未启用TLS时为null
+     * @param streamHandler 可共享，通常是ChannelInitializer
+     */
+    public static void server(Channel channel, SslContext sslContext, ChannelHandler streamHandler) {
+        if (Objects.nonNull(sslContext)) {
+            channel.pipeline().addLast(sslContext.newHandler(channel.alloc()));
+        }
+        channel.pipeline().addLast(Http2FrameCodecBuilder.forServer()
+                .initialSettings(settings().maxConcurrentStreams(ProxyConfig.TRUNK_MAX_STREAMS))
+                .build());
+        channel.pipeline().addLast(new Http2MultiplexHandler(streamHandler));
+        channel.pipeline().addLast(SERVER_ERROR_HANDLER);
+        growConnectionWindow(channel);
+    }
+
+    /**
+     * 打开一个到目标的流，不等待对端的响应，对端连接目标失败时关闭流
+     *
+     * @param trunk
+     * @param parent
+     * @param host
+     * @param port
+     * @return 可以直接收发目标数据的流
+     */
+    static Future<Http2StreamChannel> openStream(Channel trunk, ParentProxy parent, String host, int port) {
+        Promise<Http2StreamChannel> promise = trunk.eventLoop().newPromise();
+        new Http2StreamChannelBootstrap(trunk).handler(new TrunkStreamCodec()).open()
+                .addListener((FutureListener<Http2StreamChannel>) future -> {
+                    if (!future.isSuccess()) {
+                        promise.tryFailure(future.cause());
+                        return;
+                    }
+
+                    Http2StreamChannel stream = future.getNow();
+                    Http2Headers headers = new DefaultHttp2Headers()
+                            .method(HttpMethod.CONNECT.asciiName())
+                            .authority((host.indexOf(':') >= 0 ? "[" + host + "]" : host) + ":" + port);
+                    if (parent.hasCredentials()) {
+                        headers.set(HttpHeaderNames.PROXY_AUTHORIZATION, basic(parent.getUsername() + ":" + parent.getPassword()));
+                    }
+                    // 立即发出，对端在本端回复客户端的同时开始连接目标
+                    stream.writeAndFlush(new DefaultHttp2HeadersFrame(headers));
+                    promise.trySuccess(stream);
+                });
+        return promise;
+    }
+
+    /**
+     * @param credentials user:pass
+     * @return 服务端比对的Proxy-Authorization，未配置认证时为null
+     */
+    public static byte[] authorization(String credentials) {
+        return credentials.isEmpty() ? null : basic(credentials).getBytes(StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * @param headers       流的请求头
+     * @param authorization {@link #authorization(String)}
+     * @return 认证信息正确，未配置认证时总是false
+     */
+    public static boolean authorized(Http2Headers headers, byte[] authorization) {
+        if (Objects.isNull(authorization)) {
+            return false;
+        }
+        CharSequence actual = headers.get(HttpHeaderNames.PROXY_AUTHORIZATION);
+        return Objects.nonNull(actual)
+                && MessageDigest.isEqual(authorization, actual.toString().getBytes(StandardCharsets.US_ASCII));
+    }
+
+    /**
+     * 干线服务的TLS服务端，证书与私钥见{@link ProxyConfig#TRUNK_CERT_FILE}、{@link ProxyConfig#TRUNK_KEY_FILE}
+     *
+     * @return 未配置证书或创建失败时返回null
+     */
+    public static SslContext newServerSslContext() {
+        if (ProxyConfig.TRUNK_CERT_FILE.isEmpty() || ProxyConfig.TRUNK_KEY_FILE.isEmpty()) {
+            log.error("干线服务启用了TLS，但未配置证书（socks.trunk.certFile）与私钥（socks.trunk.keyFile）");
+            return null;
+        }
+        return newServerSslContext(ProxyConfig.TRUNK_CERT_FILE, ProxyConfig.TRUNK_KEY_FILE);
+    }
+
+    static SslContext newServerSslContext(String certFile, String keyFile) {
+        try {
+            return SslContextBuilder.forServer(new File(certFile), new File(keyFile))
+                    .sslProvider(SslUtils.provider())
+                    .applicationProtocolConfig(SslUtils.alpn(ApplicationProtocolNames.HTTP_2))
+                    .build();
+        } catch (SSLException | IllegalArgumentException e) {
+            log.error("创建干线TLS服务端失败：{}", e.getMessage());
+        }
+        return null;
+    }
+
+    /**
+     * @param trustFile 信任的证书，为空时使用系统的CA
+     * @return 创建失败时返回null
+     */
+    static SslContext newClientSslContext(String trustFile) {
+        try {
+            // 与连接目标服务器一样使用JDK实现
+            SslContextBuilder builder = SslContextBuilder.forClient()
+                    .sslProvider(SslProvider.JDK)
+                    .applicationProtocolConfig(SslUtils.alpn(ApplicationProtocolNames.HTTP_2));
+            if (!trustFile.isEmpty()) {
+                builder.trustManager(new File(trustFile));
+            }
+            return builder.build();
+        } catch (SSLException | IllegalArgumentException e) {
+            log.error("创建干线TLS客户端失败：{}", e.getMessage());
+        }
+        return null;
+    }
+
+    private static Http2Settings settings() {
+        return Http2Settings.defaultSettings().initialWindowSize(ProxyConfig.TRUNK_STREAM_WINDOW);
+    }
+
+    /**
+     * 连接级窗口只能通过WINDOW_UPDATE增大，默认的64K会限制整条干线的吞吐
+     *
+     * @param channel
+     */
+    private static void growConnectionWindow(Channel channel) {
+        int increment = ProxyConfig.TRUNK_CONNECTION_WINDOW - Http2CodecUtil.DEFAULT_WINDOW_SIZE;
+        if (increment > 0) {
+            channel.writeAndFlush(new DefaultHttp2WindowUpdateFrame(increment));
+        }
+    }
+
+    private static String basic(String credentials) {
+        return "Basic " + Base64.getEncoder().encodeToString(credentials.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @ChannelHandler.Sharable
+    private static final class ServerErrorHandler extends ChannelInboundHandlerAdapter {
+        @Override
+        public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+            log.debug("干线连接出错：{} {}", ctx.channel().remoteAddress(), cause.getMessage());
+            ctx.close();
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package com.sokcs.connect;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelDuplexHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelPromise;
+import io.netty.handler.codec.http2.DefaultHttp2DataFrame;
+import io.netty.handler.codec.http2.Http2DataFrame;
+import io.netty.handler.codec.http2.Http2HeadersFrame;
+import io.netty.util.ReferenceCountUtil;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.Objects;
+
+/**
+ * 干线上的一个流与字节流互转，后续的handler（RelayHandler等）把流当作普通连接使用。
+ * 关闭时先发送END_STREAM再关闭，对端结束流时本端也结束，已发出的数据不会被RST_STREAM丢弃
+ */
+@Slf4j
+public final class TrunkStreamCodec extends ChannelDuplexHandler {
+    // 本端已发送END_STREAM
+    private boolean ended;
+
+    @Override
+    public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+        if (msg instanceof Http2DataFrame) {
+            Http2DataFrame frame = (Http2DataFrame) msg;
+            if (frame.content().isReadable()) {
+                ctx.fireChannelRead(frame.content());
+            } else {
+                frame.release();
+            }
+            if (frame.isEndStream()) {
+                end(ctx);
+            }
+        } else if (msg instanceof Http2HeadersFrame) {
+            Http2HeadersFrame frame = (Http2HeadersFrame) msg;
+            CharSequence status = frame.headers().status();
+            if (Objects.isNull(status)) {
+                // 服务端收到的CONNECT请求
+                ctx.fireChannelRead(frame);
+            } else if (status.length() == 0 || status.charAt(0) != '2') {
+                log.debug("干线对端无法连接目标：{}", status);
+                ctx.channel().close();
+            }
+            if (frame.isEndStream()) {
+                end(ctx);
+            }
+        } else {
+            ReferenceCountUtil.release(msg);
+        }
+    }
+
+    @Override
+    public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) throws Exception {
+        if (!(msg instanceof ByteBuf)) {
+            if (msg instanceof Http2HeadersFrame && ((Http2HeadersFrame) msg).isEndStream()) {
+                ended = true;
+            }
+            ctx.write(msg, promise);
+            return;
+        }
+
+        ByteBuf buf = (ByteBuf) msg;
+        // 关闭前写入的空数据只为触发刷新
+        if (!buf.isReadable()) {
+            buf.release();
+            promise.trySuccess();
+            return;
+        }
+        ctx.write(new DefaultHttp2DataFrame(buf), promise);
+    }
+
+    @Override
+    public void close(ChannelHandlerContext ctx, ChannelPromise promise) throws Exception {
+        if (ended || !ctx.channel().isActive()) {
+            ctx.close(promise);
+            return;
+        }
+
+        ended = true;
+        ctx.writeAndFlush(new DefaultHttp2DataFrame(true)).addListener(future -> ctx.close(promise));
+    }
+
+    private void end(ChannelHandlerContext ctx) {
+        if (!ended) {
+            ended = true;
+            ctx.writeAndFlush(new DefaultHttp2DataFrame(true));
+        }
+    }
+}
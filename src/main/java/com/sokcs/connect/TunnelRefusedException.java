@@ -0,0 +1,14 @@
+package com.sokcs.connect;
+
+import java.net.ConnectException;
+
+/**
+ * 上级代理正常响应，但拒绝或无法连接目标。上级代理本身可用，不计入失败，也不换用其他上级代理重试
+ */
+public class TunnelRefusedException extends ConnectException {
+    private static final long serialVersionUID = 1L;
+
+    public TunnelRefusedException(String message) {
+        super(message);
+    }
+}
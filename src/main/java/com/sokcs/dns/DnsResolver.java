@@ -0,0 +1,68 @@
+package com.sokcs.dns;
+
+import com.sokcs.config.ProxyConfig;
+import com.sokcs.utils.StatsReporter;
+import com.sokcs.utils.TransportUtils;
+import io.netty.resolver.AddressResolverGroup;
+import io.netty.resolver.dns.DefaultDnsCache;
+import io.netty.resolver.dns.DnsAddressResolverGroup;
+import io.netty.resolver.dns.DnsCache;
+import io.netty.resolver.dns.DnsNameResolverBuilder;
+import io.netty.resolver.dns.DnsServerAddressStreamProvider;
+import io.netty.resolver.dns.DnsServerAddressStreamProviders;
+import io.netty.resolver.dns.SingletonDnsServerAddressStreamProvider;
+import lombok.extern.slf4j.Slf4j;
+
+import java.net.InetSocketAddress;
+import java.util.Objects;
+
+/**
+ * 出站连接共用的非阻塞DNS解析，运行在各自的EventLoop上。
+ * 正/负结果按TTL缓存，所有EventLoop共享同一份缓存；相同主机名的并发解析只发出一次查询
+ */
+@Slf4j
+public final class DnsResolver {
+    public static final MetricsDnsCache CACHE = new MetricsDnsCache(new DefaultDnsCache(
+            ProxyConfig.DNS_MIN_TTL, ProxyConfig.DNS_MAX_TTL, ProxyConfig.DNS_NEGATIVE_TTL));
+
+    public static final AddressResolverGroup<InetSocketAddress> GROUP = newGroup(nameServerProvider(), CACHE);
+
+    static {
+        StatsReporter.register("DNS缓存", CACHE::toString);
+    }
+
+    private DnsResolver() {
+    }
+
+    /**
+     * @param nameServerProvider
+     * @param cache
+     * @return 按EventLoop创建解析器，相同主机名的并发解析在各EventLoop之间也只查询一次
+     */
+    static AddressResolverGroup<InetSocketAddress> newGroup(DnsServerAddressStreamProvider nameServerProvider, DnsCache cache) {
+        return new DnsAddressResolverGroup(new DnsNameResolverBuilder()
+                .channelType(TransportUtils.datagramChannelClass())
+                .nameServerProvider(nameServerProvider)
+                .resolveCache(cache)
+                .queryTimeoutMillis(ProxyConfig.DNS_QUERY_TIMEOUT_MILLIS));
+    }
+
+    /**
+     * 配置了socks.dns.server（host:port）时只使用该服务器，便于指向本地测试DNS，否则使用系统配置
+     *
+     * @return
+     */
+    private static DnsServerAddressStreamProvider nameServerProvider() {
+        String server = ProxyConfig.DNS_SERVER;
+        if (Objects.isNull(server) || server.isEmpty()) {
+            return DnsServerAddressStreamProviders.platformDefault();
+        }
+
+        int index = server.lastIndexOf(':');
+        InetSocketAddress address = index > 0
+                ? new InetSocketAddress(server.substring(0, index), Integer.parseInt(server.substring(index + 1)))
+                : new InetSocketAddress(server, 53);
+        log.info("使用指定的DNS服务器：{}", address);
+        return new SingletonDnsServerAddressStreamProvider(address);
+    }
+}
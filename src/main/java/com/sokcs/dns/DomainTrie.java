@@ -0,0 +1,191 @@
+package com.sokcs.dns;
+
+import java.util.Locale;
+import java.util.Objects;
+
+/**
+ * 按标签倒序（com -> example -> www）组织的域名后缀树，匹配时最长的规则优先。
+ * 规则"example.com"匹配example.com及其所有子域名，"*.example.com"只匹配子域名。
+ * 子节点用开放寻址表保存，匹配时直接在主机名上按区间比较标签（忽略大小写），不产生新对象。
+ * 构建完成后只读，可以在多个线程间共享
+ *
+ * @param <T> 规则对应的值
+ */
+public final class DomainTrie<T> {
+    private final Node<T> root = new Node<>();
+    private int size;
+
+    /**
+     * 添加规则，同一规则重复添加时后者覆盖前者
+     *
+     * @param pattern 域名或"*."开头的通配符
+     * @param value
+     */
+    public void put(String pattern, T value) {
+        String name = normalize(pattern);
+        boolean wildcard = name.startsWith("*.");
+        if (wildcard) {
+            name = name.substring(2);
+        }
+
+        Node<T> node = root;
+        int end = name.length();
+        while (end > 0) {
+            int start = name.lastIndexOf('.', end - 1) + 1;
+            node = node.getOrAdd(name.substring(start, end));
+            end = start - 1;
+        }
+
+        // 覆盖已有规则时不计数
+        if (wildcard) {
+            if (Objects.isNull(node.wildcard)) {
+                size++;
+            }
+            node.wildcard = value;
+        } else {
+            if (Objects.isNull(node.value)) {
+                size++;
+            }
+            node.value = value;
+        }
+    }
+
+    /**
+     * 按标签逐级向下，记录沿途最后一个命中的规则
+     *
+     * @param host
+     * @return 没有规则命中时返回null
+     */
+    public T match(String host) {
+        T matched = null;
+        Node<T> node = root;
+        int end = host.length();
+        // 完全限定的域名末尾的点
+        if (end > 0 && host.charAt(end - 1) == '.') {
+            end--;
+        }
+        while (end > 0) {
+            int start = host.lastIndexOf('.', end - 1) + 1;
+            node = node.get(host, start, end);
+            if (Objects.isNull(node)) {
+                break;
+            }
+
+            boolean last = start == 0;
+            // 还有下一级标签时，"*.x"比"x"更具体
+            T value = !last && Objects.nonNull(node.wildcard) ? node.wildcard : node.value;
+            if (Objects.nonNull(value)) {
+                matched = value;
+            }
+            end = start - 1;
+        }
+        return matched;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    private static String normalize(String name) {
+        String result = name.trim().toLowerCase(Locale.ROOT);
+        return result.endsWith(".") ? result.substring(0, result.length() - 1) : result;
+    }
+
+    /**
+     * 标签的哈希，ASCII字母不区分大小写，与保存的小写标签一致
+     *
+     * @param name
+     * @param start
+     * @param end
+     * @return
+     */
+    private static int hash(String name, int start, int end) {
+        int h = 0;
+        for (int i = start; i < end; i++) {
+            char c = name.charAt(i);
+            if (c >= 'A' && c <= 'Z') {
+                c += 'a' - 'A';
+            }
+            h = 31 * h + c;
+        }
+        return h ^ (h >>> 16);
+    }
+
+    private static final class Node<T> {
+        // 容量为2的幂，装载因子不超过1/2，叶子节点不分配
+        private String[] labels;
+        private Node<T>[] children;
+        private int count;
+        // 规则"x"
+        private T value;
+        // 规则"*.x"
+        private T wildcard;
+
+        private Node<T> get(String name, int start, int end) {
+            if (count == 0) {
+                return null;
+            }
+
+            int length = end - start;
+            int mask = labels.length - 1;
+            for (int i = hash(name, start, end) & mask; ; i = (i + 1) & mask) {
+                String label = labels[i];
+                if (Objects.isNull(label)) {
+                    return null;
+                }
+                if (label.length() == length && name.regionMatches(true, start, label, 0, length)) {
+                    return children[i];
+                }
+            }
+        }
+
+        private Node<T> getOrAdd(String label) {
+            Node<T> node = get(label, 0, label.length());
+            if (Objects.nonNull(node)) {
+                return node;
+            }
+
+            if (Objects.isNull(labels)) {
+                labels = new String[4];
+                children = newArray(4);
+            } else if ((count + 1) * 2 > labels.length) {
+                resize();
+            }
+            node = new Node<>();
+            insert(label, node);
+            count++;
+            return node;
+        }
+
+        private void insert(String label, Node<T> node) {
+            int mask = labels.length - 1;
+            int i = hash(label, 0, label.length()) & mask;
+            while (Objects.nonNull(labels[i])) {
+                i = (i + 1) & mask;
+            }
+            labels[i] = label;
+            children[i] = node;
+        }
+
+        private void resize() {
+            String[] oldLabels = labels;
+            Node<T>[] oldChildren = children;
+            labels = new String[oldLabels.length * 2];
+            children = newArray(oldLabels.length * 2);
+            for (int i = 0; i < oldLabels.length; i++) {
+                if (Objects.nonNull(oldLabels[i])) {
+                    insert(oldLabels[i], oldChildren[i]);
+                }
+            }
+        }
+
+        @SuppressWarnings("unchecked")
+        private static <T> Node<T>[] newArray(int length) {
+            return (Node<T>[]) new Node<?>[length];
+        }
+    }
+}
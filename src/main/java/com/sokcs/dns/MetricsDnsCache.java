@@ -0,0 +1,79 @@
+package com.sokcs.dns;
+
+import io.netty.channel.EventLoop;
+import io.netty.handler.codec.dns.DnsRecord;
+import io.netty.resolver.dns.DnsCache;
+import io.netty.resolver.dns.DnsCacheEntry;
+
+import java.net.InetAddress;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 统计命中率的DNS缓存，实际缓存与TTL过期交给被包装的缓存
+ */
+public final class MetricsDnsCache implements DnsCache {
+    private final DnsCache delegate;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder negativeHits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    public MetricsDnsCache(DnsCache delegate) {
+        this.delegate = delegate;
+    }
+
+    @Override
+    public void clear() {
+        delegate.clear();
+    }
+
+    @Override
+    public boolean clear(String hostname) {
+        return delegate.clear(hostname);
+    }
+
+    @Override
+    public List<? extends DnsCacheEntry> get(String hostname, DnsRecord[] additionals) {
+        List<? extends DnsCacheEntry> entries = delegate.get(hostname, additionals);
+        if (entries == null || entries.isEmpty()) {
+            misses.increment();
+        } else if (entries.get(0).cause() != null) {
+            negativeHits.increment();
+        } else {
+            hits.increment();
+        }
+        return entries;
+    }
+
+    @Override
+    public DnsCacheEntry cache(String hostname, DnsRecord[] additionals, InetAddress address, long originalTtl, EventLoop loop) {
+        return delegate.cache(hostname, additionals, address, originalTtl, loop);
+    }
+
+    @Override
+    public DnsCacheEntry cache(String hostname, DnsRecord[] additionals, Throwable cause, EventLoop loop) {
+        return delegate.cache(hostname, additionals, cause, loop);
+    }
+
+    public long hits() {
+        return hits.sum();
+    }
+
+    public long negativeHits() {
+        return negativeHits.sum();
+    }
+
+    public long misses() {
+        return misses.sum();
+    }
+
+    @Override
+    public String toString() {
+        long hits = hits();
+        long negativeHits = negativeHits();
+        long total = hits + negativeHits + misses();
+        return String.format("命中 %d，失败结果命中 %d，未命中 %d，命中率 %.1f%%", hits, negativeHits, misses(),
+                total == 0 ? 0.0 : (hits + negativeHits) * 100.0 / total);
+    }
+}
@@ -0,0 +1,128 @@
+package com.sokcs.dns;
+
+import com.sokcs.config.ProxyConfig;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.net.IDN;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * 公共后缀表（publicsuffix.org格式），用于求主机名的可注册域名。
+ * 未配置socks.publicSuffixList时只使用内置的常见多级后缀，单级顶级域名由默认规则"*"覆盖
+ */
+@Slf4j
+public final class PublicSuffixList {
+    private static final List<String> DEFAULT_RULES = Arrays.asList(
+            "com.cn", "net.cn", "org.cn", "gov.cn", "edu.cn", "ac.cn",
+            "com.hk", "com.tw", "org.tw", "com.sg", "com.my",
+            "co.uk", "org.uk", "ac.uk", "gov.uk",
+            "co.jp", "ne.jp", "or.jp", "ac.jp", "co.kr", "or.kr",
+            "com.au", "net.au", "org.au", "co.nz", "co.in", "com.br", "com.mx", "co.za",
+            "github.io", "githubusercontent.com", "herokuapp.com", "appspot.com", "blogspot.com",
+            "cloudfront.net", "azurewebsites.net", "vercel.app", "netlify.app", "pages.dev", "workers.dev",
+            "s3.amazonaws.com", "*.compute.amazonaws.com");
+
+    public static final PublicSuffixList INSTANCE = load(ProxyConfig.PUBLIC_SUFFIX_LIST);
+
+    private final Set<String> rules = new HashSet<>();
+    // "*.ck"形式的规则，只保存"ck"
+    private final Set<String> wildcards = new HashSet<>();
+    // "!www.ck"形式的例外规则，只保存"www.ck"
+    private final Set<String> exceptions = new HashSet<>();
+
+    private PublicSuffixList(List<String> lines) {
+        for (String line : lines) {
+            String rule = line.trim();
+            if (rule.isEmpty() || rule.startsWith("//")) {
+                continue;
+            }
+
+            int space = rule.indexOf(' ');
+            rule = toAscii(space > 0 ? rule.substring(0, space) : rule);
+            if (Objects.isNull(rule)) {
+                continue;
+            }
+
+            if (rule.startsWith("!")) {
+                exceptions.add(rule.substring(1));
+            } else if (rule.startsWith("*.")) {
+                wildcards.add(rule.substring(2));
+            } else {
+                rules.add(rule);
+            }
+        }
+    }
+
+    /**
+     * @param path 为空时使用内置规则
+     * @return
+     */
+    public static PublicSuffixList load(String path) {
+        if (Objects.isNull(path) || path.isEmpty()) {
+            return new PublicSuffixList(DEFAULT_RULES);
+        }
+
+        try {
+            PublicSuffixList publicSuffixList = new PublicSuffixList(Files.readAllLines(Paths.get(path), StandardCharsets.UTF_8));
+            log.info("加载公共后缀表：{}，规则数 {}", path, publicSuffixList.rules.size()
+                    + publicSuffixList.wildcards.size() + publicSuffixList.exceptions.size());
+            return publicSuffixList;
+        } catch (IOException e) {
+            log.error("读取公共后缀表失败，使用内置规则：{}", e.getMessage());
+            return new PublicSuffixList(DEFAULT_RULES);
+        }
+    }
+
+    /**
+     * 求可注册域名，例如a.b.example.com.cn返回example.com.cn
+     *
+     * @param host
+     * @return 主机名本身就是公共后缀时返回null
+     */
+    public String registrableDomain(String host) {
+        String name = host.toLowerCase(Locale.ROOT);
+        if (name.endsWith(".")) {
+            name = name.substring(0, name.length() - 1);
+        }
+
+        // 各级后缀的起始位置，starts[0]为完整主机名
+        String[] labels = name.split("\\.");
+        int[] starts = new int[labels.length];
+        for (int i = 1; i < labels.length; i++) {
+            starts[i] = starts[i - 1] + labels[i - 1].length() + 1;
+        }
+
+        // 默认规则"*"：最后一级总是公共后缀
+        int suffix = labels.length - 1;
+        for (int i = 0; i < labels.length; i++) {
+            String candidate = name.substring(starts[i]);
+            if (exceptions.contains(candidate)) {
+                suffix = i + 1;
+                break;
+            }
+            if (rules.contains(candidate) || (i + 1 < labels.length && wildcards.contains(name.substring(starts[i + 1])))) {
+                suffix = i;
+                break;
+            }
+        }
+
+        return suffix == 0 ? null : name.substring(starts[suffix - 1]);
+    }
+
+    private static String toAscii(String rule) {
+        try {
+            return IDN.toASCII(rule, IDN.ALLOW_UNASSIGNED).toLowerCase(Locale.ROOT);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+}
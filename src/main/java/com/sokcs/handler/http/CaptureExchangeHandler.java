@@ -1,15 +1,18 @@
 package com.sokcs.handler.http;
 
 import com.sokcs.utils.ChannelUtils;
-import com.sokcs.utils.ReleaseUtils;
+import com.sokcs.utils.MsgUtils;
 import com.sokcs.utils.ThrowableUtils;
 import io.netty.channel.Channel;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.ChannelInboundHandlerAdapter;
 import io.netty.handler.codec.http.FullHttpRequest;
-import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpObject;
+import io.netty.handler.codec.http.HttpRequest;
+import io.netty.util.ReferenceCountUtil;
 import lombok.extern.slf4j.Slf4j;
 
+import java.util.Objects;
 import java.util.function.Consumer;
 
 @Slf4j
@@ -32,17 +35,16 @@ public class CaptureExchangeHandler extends ChannelInboundHandlerAdapter {
 
     @Override
     public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
-        if (msg instanceof FullHttpRequest) {
-            FullHttpRequest fullHttpRequest = (FullHttpRequest) msg;
-
-            consumer.accept(fullHttpRequest);
+        if (msg instanceof HttpRequest && Objects.nonNull(consumer)) {
+            consumer.accept(MsgUtils.fullHttpRequest((HttpRequest) msg));
+        }
 
-            ChannelUtils.writeAndFlush(outputChannel, fullHttpRequest);
-            ReleaseUtils.release(fullHttpRequest);
-        } else if (msg instanceof FullHttpResponse) {
-            ChannelUtils.writeAndFlush(outputChannel, msg);
+        // 请求头、请求体、响应都按块转发
+        if (msg instanceof HttpObject) {
+            ChannelUtils.relay(ctx.channel(), outputChannel, msg);
+        } else {
+            ReferenceCountUtil.release(msg);
         }
-        ctx.flush();
     }
 
     @Override
@@ -51,8 +53,14 @@ public class CaptureExchangeHandler extends ChannelInboundHandlerAdapter {
         ctx.close();
     }
 
+    @Override
+    public void channelWritabilityChanged(ChannelHandlerContext ctx) throws Exception {
+        ChannelUtils.resumeRead(ctx.channel(), outputChannel);
+        super.channelWritabilityChanged(ctx);
+    }
+
     @Override
     public void channelReadComplete(ChannelHandlerContext ctx) throws Exception {
-        ctx.flush();
+        ChannelUtils.flush(outputChannel);
     }
 }
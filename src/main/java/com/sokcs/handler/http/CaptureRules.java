@@ -0,0 +1,57 @@
+package com.sokcs.handler.http;
+
+import com.sokcs.config.ProxyConfig;
+import com.sokcs.dns.DomainTrie;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.Objects;
+
+/**
+ * 按目标主机决定https隧道是否解密捕获，规则见{@link ProxyConfig#CAPTURE_HOSTS}
+ */
+@Slf4j
+public final class CaptureRules {
+    private static final DomainTrie<Boolean> RULES = new DomainTrie<>();
+    // 配置了捕获规则时未命中的主机直接转发，只有排除规则时未命中的主机都捕获
+    private static final boolean DEFAULT_CAPTURE;
+
+    static {
+        boolean hasCapture = false;
+        for (String rule : ProxyConfig.CAPTURE_HOSTS) {
+            String pattern = rule.trim();
+            if (pattern.isEmpty()) {
+                continue;
+            }
+
+            boolean capture = !pattern.startsWith("!");
+            RULES.put(capture ? pattern : pattern.substring(1), capture);
+            hasCapture |= capture;
+        }
+        DEFAULT_CAPTURE = !hasCapture;
+
+        if (!RULES.isEmpty()) {
+            log.info("https捕获规则数：{}", RULES.size());
+        }
+    }
+
+    private CaptureRules() {
+    }
+
+    /**
+     * 没有配置规则时全部捕获
+     *
+     * @return
+     */
+    public static boolean isEmpty() {
+        return RULES.isEmpty();
+    }
+
+    public static boolean isCapture(String host) {
+        if (RULES.isEmpty()) {
+            return true;
+        }
+
+        Boolean capture = RULES.match(host);
+        return Objects.nonNull(capture) ? capture : DEFAULT_CAPTURE;
+    }
+}
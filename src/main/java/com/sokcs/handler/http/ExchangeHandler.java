@@ -27,11 +27,17 @@ public class ExchangeHandler extends ChannelInboundHandlerAdapter {
 
     @Override
     public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
-        ChannelUtils.writeAndFlush(outputChannel, msg);
+        ChannelUtils.relay(ctx.channel(), outputChannel, msg);
+    }
+
+    @Override
+    public void channelWritabilityChanged(ChannelHandlerContext ctx) throws Exception {
+        ChannelUtils.resumeRead(ctx.channel(), outputChannel);
+        super.channelWritabilityChanged(ctx);
     }
 
     @Override
     public void channelReadComplete(ChannelHandlerContext ctx) throws Exception {
-        ctx.flush();
+        ChannelUtils.flush(outputChannel);
     }
 }
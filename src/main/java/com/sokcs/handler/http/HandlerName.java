@@ -7,8 +7,23 @@ public final class HandlerName {
     // new HttpHandler()
     public static final String HTTP_HANDLER = "httpHandler";
 
-    // new HttpObjectAggregator(1024 * 1024)
+    // new HttpObjectAggregator(ProxyConfig.HTTP_MAX_CONTENT_LENGTH)，仅捕获完整请求体时添加
     public static final String HTTP_OBJECT_AGGREGATOR = "httpObjectAggregator";
 
     public static final String HTTP_AUTH = "httpAuth";
+
+    // 连接池中上游连接的new HttpClientCodec()
+    public static final String HTTP_CLIENT_CODEC = "httpClientCodec";
+
+    // 连接池中上游连接的new HttpUpstreamHandler()
+    public static final String HTTP_UPSTREAM_HANDLER = "httpUpstreamHandler";
+
+    // CONNECT目标是IP时读取ClientHello中的SNI
+    public static final String SNI_HANDLER = "sniHandler";
+
+    // 捕获https时与客户端之间的SslHandler
+    public static final String SSL_HANDLER = "sslHandler";
+
+    // 根据客户端ALPN协商结果选择h2或HTTP/1.1
+    public static final String ALPN_HANDLER = "alpnHandler";
 }
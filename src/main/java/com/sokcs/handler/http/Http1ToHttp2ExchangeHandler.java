@@ -0,0 +1,148 @@
+package com.sokcs.handler.http;
+
+import com.sokcs.utils.ChannelUtils;
+import com.sokcs.utils.MsgUtils;
+import com.sokcs.utils.ThrowableUtils;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.handler.codec.http.FullHttpRequest;
+import io.netty.handler.codec.http.HttpObject;
+import io.netty.handler.codec.http.HttpRequest;
+import io.netty.handler.codec.http.LastHttpContent;
+import io.netty.handler.codec.http2.Http2StreamChannel;
+import io.netty.util.ReferenceCountUtil;
+import io.netty.util.concurrent.Future;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Objects;
+import java.util.function.Consumer;
+
+/**
+ * 客户端只支持HTTP/1.1而上游协商出h2时，每个请求在上游h2连接上打开一个流，
+ * 一次只处理一个请求，流关闭（响应结束）后再处理排队的请求
+ */
+@Slf4j
+public class Http1ToHttp2ExchangeHandler extends ChannelInboundHandlerAdapter {
+    private final Consumer<FullHttpRequest> consumer;
+    private final Channel upstream;
+    private final String authority;
+
+    private ChannelHandlerContext clientContext;
+    // 当前请求对应的上游流
+    private Http2StreamChannel stream;
+    // 当前请求已经完整发往上游
+    private boolean requestComplete;
+    // 当前请求未结束时收到的后续请求
+    private final Deque<HttpObject> pendingMessages = new ArrayDeque<>();
+
+    public Http1ToHttp2ExchangeHandler(Consumer<FullHttpRequest> consumer, Channel upstream, String authority) {
+        this.consumer = consumer;
+        this.upstream = upstream;
+        this.authority = authority;
+    }
+
+    @Override
+    public void handlerAdded(ChannelHandlerContext ctx) throws Exception {
+        this.clientContext = ctx;
+    }
+
+    @Override
+    public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+        if (!(msg instanceof HttpObject)) {
+            ReferenceCountUtil.release(msg);
+            return;
+        }
+
+        dispatch((HttpObject) msg);
+    }
+
+    /**
+     * 处理一个http消息，调用后消息由本方法负责释放
+     *
+     * @param msg
+     */
+    private void dispatch(HttpObject msg) {
+        if (Objects.nonNull(stream)) {
+            if (requestComplete) {
+                pendingMessages.add(msg);
+                clientContext.channel().config().setAutoRead(false);
+                return;
+            }
+
+            requestComplete = msg instanceof LastHttpContent;
+            ChannelUtils.relay(clientContext.channel(), stream, msg);
+            return;
+        }
+
+        if (!(msg instanceof HttpRequest)) {
+            ReferenceCountUtil.release(msg);
+            return;
+        }
+
+        HttpRequest httpRequest = (HttpRequest) msg;
+        if (Objects.nonNull(consumer)) {
+            consumer.accept(MsgUtils.fullHttpRequest(httpRequest));
+        }
+
+        // 客户端连接与上游连接在同一个事件循环，打开流是同步完成的
+        Future<Http2StreamChannel> future = Http2Exchange.openStream(upstream, clientContext.channel(), authority);
+        if (!future.isSuccess()) {
+            log.error("打开上游流失败：{}", future.cause().getMessage());
+            ReferenceCountUtil.release(msg);
+            clientContext.close();
+            return;
+        }
+
+        stream = future.getNow();
+        stream.closeFuture().addListener(closeFuture -> responseComplete());
+        requestComplete = msg instanceof LastHttpContent;
+        ChannelUtils.relay(clientContext.channel(), stream, msg);
+    }
+
+    private void responseComplete() {
+        stream = null;
+        ChannelUtils.flush(clientContext.channel());
+
+        HttpObject pending;
+        while ((Objects.isNull(stream) || !requestComplete) && (pending = pendingMessages.poll()) != null) {
+            dispatch(pending);
+        }
+        ChannelUtils.flush(stream);
+
+        if (pendingMessages.isEmpty() && clientContext.channel().isActive()) {
+            clientContext.channel().config().setAutoRead(true);
+        }
+    }
+
+    @Override
+    public void channelReadComplete(ChannelHandlerContext ctx) throws Exception {
+        ChannelUtils.flush(stream);
+    }
+
+    @Override
+    public void channelWritabilityChanged(ChannelHandlerContext ctx) throws Exception {
+        ChannelUtils.resumeRead(ctx.channel(), stream);
+        super.channelWritabilityChanged(ctx);
+    }
+
+    @Override
+    public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+        if (Objects.nonNull(stream)) {
+            stream.close();
+        }
+        HttpObject pending;
+        while ((pending = pendingMessages.poll()) != null) {
+            ReferenceCountUtil.release(pending);
+        }
+        super.channelInactive(ctx);
+    }
+
+    @Override
+    public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) throws Exception {
+        ThrowableUtils.message(this.getClass(), cause);
+        ctx.close();
+    }
+}
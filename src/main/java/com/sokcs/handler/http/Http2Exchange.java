@@ -0,0 +1,194 @@
+package com.sokcs.handler.http;
+
+import com.sokcs.config.ProxyConfig;
+import com.sokcs.utils.ChannelUtils;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.ChannelOutboundHandlerAdapter;
+import io.netty.channel.ChannelPipeline;
+import io.netty.channel.ChannelPromise;
+import io.netty.handler.codec.http.FullHttpRequest;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpObjectAggregator;
+import io.netty.handler.codec.http.HttpRequest;
+import io.netty.handler.codec.http.HttpResponse;
+import io.netty.handler.codec.http.LastHttpContent;
+import io.netty.handler.codec.http2.Http2FrameCodec;
+import io.netty.handler.codec.http2.Http2FrameCodecBuilder;
+import io.netty.handler.codec.http2.Http2MultiplexHandler;
+import io.netty.handler.codec.http2.Http2Settings;
+import io.netty.handler.codec.http2.Http2StreamChannel;
+import io.netty.handler.codec.http2.Http2StreamChannelBootstrap;
+import io.netty.handler.codec.http2.Http2StreamFrameToHttpObjectCodec;
+import io.netty.handler.codec.http2.HttpConversionUtil;
+import io.netty.util.concurrent.Future;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.Objects;
+import java.util.function.Consumer;
+
+/**
+ * 捕获https时的HTTP/2转发：与目标服务器之间只建立一条h2连接，
+ * 客户端的每个流（或HTTP/1.1的每个请求）对应上游的一个流，流之间各自做背压。
+ * 客户端的并发流数不超过上游的限制，超出上游限制的流在上游连接上排队
+ */
+@Slf4j
+public final class Http2Exchange {
+    private Http2Exchange() {
+    }
+
+    /**
+     * 上游协商出h2后替换为h2客户端，服务器推送的流直接拒绝，
+     * 超过服务器SETTINGS_MAX_CONCURRENT_STREAMS的流排队，等已有的流结束后再打开
+     *
+     * @param upstream
+     * @param clientChannel
+     */
+    public static void upstream(Channel upstream, Channel clientChannel) {
+        upstream.pipeline().addLast(Http2FrameCodecBuilder.forClient()
+                .initialSettings(Http2Settings.defaultSettings().pushEnabled(false))
+                .encoderEnforceMaxConcurrentStreams(true)
+                .build());
+        upstream.pipeline().addLast(new Http2MultiplexHandler(new ChannelInboundHandlerAdapter()));
+        // 上游连接断开后客户端上的流都无法继续
+        upstream.closeFuture().addListener(future -> ChannelUtils.close(clientChannel));
+    }
+
+    /**
+     * 客户端协商出h2后替换为h2服务端，每个客户端流打开一个上游流
+     *
+     * @param channelPipeline 客户端连接
+     * @param upstream        已完成{@link #upstream}的上游连接
+     * @param authority       客户端未带:authority时使用
+     * @param consumer
+     */
+    public static void client(ChannelPipeline channelPipeline, Channel upstream, String authority,
+                              Consumer<FullHttpRequest> consumer) {
+        if (Objects.nonNull(channelPipeline.get(HandlerName.HTTP_OBJECT_AGGREGATOR))) {
+            channelPipeline.remove(HandlerName.HTTP_OBJECT_AGGREGATOR);
+        }
+        channelPipeline.remove(HandlerName.HTTP_SERVER_CODEC);
+
+        // 客户端的流共用一条上游连接，并发流数按上游的限制（尚未收到上游SETTINGS时按配置）
+        long maxConcurrentStreams = Math.min(ProxyConfig.HTTP2_MAX_CONCURRENT_STREAMS,
+                upstream.pipeline().get(Http2FrameCodec.class).connection().remote().maxActiveStreams());
+        channelPipeline.addLast(Http2FrameCodecBuilder.forServer()
+                .initialSettings(Http2Settings.defaultSettings().maxConcurrentStreams(maxConcurrentStreams))
+                .build());
+        channelPipeline.addLast(new Http2MultiplexHandler(new ChannelInitializer<Http2StreamChannel>() {
+            @Override
+            protected void initChannel(Http2StreamChannel ch) throws Exception {
+                // 客户端连接与上游连接在同一个事件循环，打开流是同步完成的
+                Future<Http2StreamChannel> future = openStream(upstream, ch, authority);
+                if (!future.isSuccess()) {
+                    log.error("打开上游流失败：{}", future.cause().getMessage());
+                    ch.close();
+                    return;
+                }
+
+                Http2StreamChannel upstreamStream = future.getNow();
+                ch.closeFuture().addListener(closeFuture -> upstreamStream.close());
+
+                ch.pipeline().addLast(new Http2StreamFrameToHttpObjectCodec(true));
+                if (Objects.nonNull(consumer) && ProxyConfig.HTTP_CAPTURE_FULL_BODY) {
+                    ch.pipeline().addLast(new HttpObjectAggregator(ProxyConfig.HTTP_MAX_CONTENT_LENGTH));
+                }
+                ch.pipeline().addLast(new CaptureExchangeHandler(consumer, upstreamStream, "客户端"));
+            }
+        }));
+    }
+
+    /**
+     * 在上游连接上打开一个流，响应转发到output。
+     * 响应没有结束流就被关闭时（上游RST）同时关闭output，正常结束时output由自身的流状态关闭
+     *
+     * @param upstream
+     * @param output    客户端的流或HTTP/1.1连接
+     * @param authority
+     * @return
+     */
+    public static Future<Http2StreamChannel> openStream(Channel upstream, Channel output, String authority) {
+        ResponseTracker responseTracker = new ResponseTracker();
+        Future<Http2StreamChannel> future = new Http2StreamChannelBootstrap(upstream)
+                .handler(new ChannelInitializer<Http2StreamChannel>() {
+                    @Override
+                    protected void initChannel(Http2StreamChannel ch) throws Exception {
+                        ch.pipeline().addLast(new Http2StreamFrameToHttpObjectCodec(false));
+                        ch.pipeline().addLast(new AuthorityHandler(authority));
+                        ch.pipeline().addLast(responseTracker);
+                        ch.pipeline().addLast(new CaptureExchangeHandler(output, "远程服务器"));
+                    }
+                }).open();
+
+        future.addListener(openFuture -> {
+            if (openFuture.isSuccess()) {
+                future.getNow().closeFuture().addListener(closeFuture -> {
+                    // 收到结束流的帧后流立即关闭，不会再触发channelReadComplete
+                    if (responseTracker.complete) {
+                        ChannelUtils.flush(output);
+                    } else {
+                        closeOutput(output);
+                    }
+                });
+            }
+        });
+        return future;
+    }
+
+    private static void closeOutput(Channel output) {
+        if (output instanceof Http2StreamChannel) {
+            ChannelUtils.flush(output);
+            output.close();
+        } else {
+            ChannelUtils.close(output);
+        }
+    }
+
+    /**
+     * h2请求必须带:scheme和:authority，转为绝对路径后由编码器从Host或uri中取出
+     */
+    private static final class AuthorityHandler extends ChannelOutboundHandlerAdapter {
+        private final String authority;
+
+        private AuthorityHandler(String authority) {
+            this.authority = authority;
+        }
+
+        @Override
+        public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) throws Exception {
+            if (msg instanceof HttpRequest) {
+                HttpRequest httpRequest = (HttpRequest) msg;
+                if (httpRequest.uri().startsWith("/")) {
+                    String host = httpRequest.headers().get(HttpHeaderNames.HOST);
+                    if (Objects.isNull(host)) {
+                        host = authority;
+                        httpRequest.headers().set(HttpHeaderNames.HOST, host);
+                    }
+                    httpRequest.setUri("https://" + host + httpRequest.uri());
+                }
+            }
+            ctx.write(msg, promise);
+        }
+    }
+
+    /**
+     * 记录响应是否已完整转发
+     */
+    private static final class ResponseTracker extends ChannelInboundHandlerAdapter {
+        private boolean complete;
+
+        @Override
+        public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+            if (msg instanceof HttpResponse) {
+                // 转给HTTP/1.1客户端时不需要h2的扩展头
+                ((HttpResponse) msg).headers().remove(HttpConversionUtil.ExtensionHeaderNames.STREAM_ID.text());
+            }
+            if (msg instanceof LastHttpContent) {
+                complete = true;
+            }
+            ctx.fireChannelRead(msg);
+        }
+    }
+}
@@ -1,29 +1,43 @@
 package com.sokcs.handler.http;
 
 import com.sokcs.certificate.CertificatePool;
+import com.sokcs.certificate.CryptoExecutor;
+import com.sokcs.config.ProxyConfig;
+import com.sokcs.connect.HttpConnectionPool;
+import com.sokcs.dns.DnsResolver;
 import com.sokcs.pojo.CertificateInfo;
+import com.sokcs.route.Router;
 import com.sokcs.utils.ChannelUtils;
 import com.sokcs.utils.MsgUtils;
-import com.sokcs.utils.ReleaseUtils;
+import com.sokcs.utils.SslUtils;
 import com.sokcs.utils.ThrowableUtils;
+import com.sokcs.utils.TransportUtils;
 import io.netty.bootstrap.Bootstrap;
 import io.netty.buffer.Unpooled;
 import io.netty.channel.*;
-import io.netty.channel.socket.SocketChannel;
-import io.netty.channel.socket.nio.NioSocketChannel;
 import io.netty.handler.codec.http.*;
 import io.netty.handler.codec.http.multipart.DefaultHttpDataFactory;
 import io.netty.handler.codec.http.multipart.HttpPostRequestDecoder;
 import io.netty.handler.codec.http.multipart.InterfaceHttpData;
+import io.netty.handler.ssl.ApplicationProtocolNames;
+import io.netty.handler.ssl.ApplicationProtocolNegotiationHandler;
 import io.netty.handler.ssl.SslContext;
-import io.netty.handler.ssl.SslContextBuilder;
+import io.netty.handler.ssl.SslHandler;
+import io.netty.util.NetUtil;
+import io.netty.util.ReferenceCountUtil;
+import io.netty.util.concurrent.Future;
+import io.netty.util.concurrent.FutureListener;
+import io.netty.util.concurrent.Promise;
 import lombok.extern.slf4j.Slf4j;
 import top.hserver.core.server.context.Request;
 import top.hserver.core.server.handlers.BuildResponse;
 
-import javax.net.ssl.SSLException;
 import java.nio.charset.StandardCharsets;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeoutException;
+import java.util.function.BiConsumer;
 import java.util.function.Consumer;
 
 
@@ -33,13 +47,38 @@ public class HttpHandler extends SimpleChannelInboundHandler<HttpObject> {
     private final CertificatePool certificatePool;
     private final Consumer<FullHttpRequest> consumer;
     private final SslContext clientSslContext;
+    // 同时提供h2的上游TLS客户端，指定了clientSslContext或未启用HTTP/2时为null
+    private final SslContext http2ClientSslContext;
     private final Bootstrap bootstrap = new Bootstrap();
 
+    // 当前正在转发的普通http请求所使用的上游连接
+    private Channel upstreamChannel;
+    // 从收到请求头到响应结束
+    private boolean exchanging;
+    // 正在从连接池获取上游连接
+    private boolean acquiring;
+    // 当前请求已经完整发往上游
+    private boolean requestComplete;
+    // 获取连接期间收到的请求体，以及后续排队的请求
+    private final Deque<HttpObject> pendingMessages = new ArrayDeque<>();
+
     public HttpHandler(CertificatePool certificatePool, Consumer<FullHttpRequest> consumer,
                        SslContext clientSslContext) {
         this.certificatePool = certificatePool;
         this.consumer = consumer;
-        this.clientSslContext = clientSslContext;
+        // 未指定时使用内置的上游TLS客户端
+        this.clientSslContext = Objects.nonNull(clientSslContext) ? clientSslContext : SslUtils.clientContext();
+        this.http2ClientSslContext = Objects.nonNull(clientSslContext) ? null : SslUtils.http2ClientContext();
+    }
+
+    @Override
+    public void handlerAdded(ChannelHandlerContext ctx) throws Exception {
+        // 只有捕获者需要完整请求体时才聚合，否则请求体按块流式转发
+        if (Objects.nonNull(consumer) && ProxyConfig.HTTP_CAPTURE_FULL_BODY
+                && Objects.isNull(ctx.pipeline().get(HandlerName.HTTP_OBJECT_AGGREGATOR))) {
+            ctx.pipeline().addAfter(HandlerName.HTTP_SERVER_CODEC, HandlerName.HTTP_OBJECT_AGGREGATOR,
+                    new HttpObjectAggregator(ProxyConfig.HTTP_MAX_CONTENT_LENGTH));
+        }
     }
 
     @Override
@@ -51,6 +90,24 @@ public class HttpHandler extends SimpleChannelInboundHandler<HttpObject> {
     @Override
     public void channelReadComplete(ChannelHandlerContext ctx) throws Exception {
         ctx.flush();
+        ChannelUtils.flush(upstreamChannel);
+    }
+
+    @Override
+    public void channelWritabilityChanged(ChannelHandlerContext ctx) throws Exception {
+        ChannelUtils.resumeRead(ctx.channel(), upstreamChannel);
+        super.channelWritabilityChanged(ctx);
+    }
+
+    @Override
+    public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+        // 响应未结束时上游连接不能归还
+        if (Objects.nonNull(upstreamChannel)) {
+            upstreamChannel.close();
+            upstreamChannel = null;
+        }
+        releasePendingMessages();
+        super.channelInactive(ctx);
     }
 
     @Override
@@ -62,74 +119,198 @@ public class HttpHandler extends SimpleChannelInboundHandler<HttpObject> {
 
     @Override
     protected void channelRead0(ChannelHandlerContext ctx, HttpObject msg) throws Exception {
-        if (msg instanceof FullHttpRequest) {
-            FullHttpRequest fullHttpRequest = (FullHttpRequest) msg;
-            int port = 80;
-            String[] hostSplit = fullHttpRequest.headers().get(HttpHeaderNames.HOST).split(":");
-            String host = hostSplit[0];
-            if (hostSplit.length > 1) {
-                port = Integer.parseInt(hostSplit[1]);
-            }
+        dispatch(ReferenceCountUtil.retain(msg));
+    }
 
-            // http连接
-            if (!fullHttpRequest.method().equals(HttpMethod.CONNECT)) {
-                if (Objects.nonNull(consumer)) {
-                    // 如果是http请求，无需解密，直接获取
-                    consumer.accept(fullHttpRequest);
-                }
+    /**
+     * 处理一个http消息，调用后消息由本方法负责释放
+     *
+     * @param msg
+     */
+    private void dispatch(HttpObject msg) {
+        if (exchanging) {
+            httpContent(msg);
+            return;
+        }
 
-                httpHandle(fullHttpRequest, host, port);
-                return;
-            }
+        if (!(msg instanceof HttpRequest)) {
+            ReferenceCountUtil.release(msg);
+            return;
+        }
+
+        HttpRequest httpRequest = (HttpRequest) msg;
+        int port = 80;
+        String[] hostSplit = httpRequest.headers().get(HttpHeaderNames.HOST).split(":");
+        String host = hostSplit[0];
+        if (hostSplit.length > 1) {
+            port = Integer.parseInt(hostSplit[1]);
+        }
 
+        if (Router.route(host).isDenied()) {
+            log.debug("路由规则拒绝：{}", host);
+            ReferenceCountUtil.release(msg);
+            releasePendingMessages();
+            clientContext.writeAndFlush(HttpResponse.FORBIDDEN).addListener(ChannelFutureListener.CLOSE);
+            return;
+        }
+
+        // http连接
+        if (!httpRequest.method().equals(HttpMethod.CONNECT)) {
             if (Objects.nonNull(consumer)) {
-                httpsHandleCapture(sslContext(host, port), host, port);
-            } else {
-                httpsHandle(host, port);
+                // 如果是http请求，无需解密，直接获取
+                consumer.accept(MsgUtils.fullHttpRequest(httpRequest));
             }
+
+            httpHandle(httpRequest, host, port);
+            return;
+        }
+
+        ReferenceCountUtil.release(msg);
+        if (Objects.nonNull(consumer)) {
+            httpsHandleCapture(host, port);
+        } else {
+            httpsHandle(host, port);
         }
     }
 
     /**
-     * 直接转发http数据
+     * 按请求转发http数据，上游连接从连接池获取，响应结束后归还，
+     * 同一个客户端连接上的请求可以发往不同站点。请求体按块流式转发，一次只处理一个请求，其余请求排队
      *
-     * @param fullHttpRequest
+     * @param httpRequest
      * @param host
      * @param port
      */
-    private void httpHandle(FullHttpRequest fullHttpRequest, String host, int port) {
-        fullHttpRequest.retain();
-        Object object = MsgUtils.fromHttpRequest(fullHttpRequest);
-
-        connect(host, port, new ChannelInitializer<SocketChannel>() {
-            @Override
-            protected void initChannel(SocketChannel ch) throws Exception {
-                ch.pipeline().addLast(new ExchangeHandler(clientContext.channel()));
-                clientContext.channel().closeFuture().addListener(future -> ChannelUtils.close(ch));
-            }
-        }).addListener((ChannelFutureListener) future -> {
-            try {
+    private void httpHandle(HttpRequest httpRequest, String host, int port) {
+        Channel clientChannel = clientContext.channel();
+        exchanging = true;
+        acquiring = true;
+        requestComplete = httpRequest instanceof LastHttpContent;
+        // 拿到上游连接前暂停读取，期间收到的请求体先排队
+        clientChannel.config().setAutoRead(false);
+
+        boolean keepAlive = HttpUtil.isKeepAlive(httpRequest);
+        toOriginForm(httpRequest);
+
+        HttpConnectionPool.get(clientChannel.eventLoop()).acquire(host, port).addListener((FutureListener<Channel>) future -> {
+            acquiring = false;
+            if (!future.isSuccess() || !clientChannel.isActive()) {
+                ReferenceCountUtil.release(httpRequest);
+                releasePendingMessages();
                 if (future.isSuccess()) {
-                    ChannelPipeline channelPipeline = clientContext.pipeline();
-
-                    removeHandler(channelPipeline, HandlerName.HTTP_HANDLER);
-                    removeHandler(channelPipeline, HandlerName.HTTP_SERVER_CODEC);
-                    removeHandler(channelPipeline, HandlerName.HTTP_OBJECT_AGGREGATOR);
-
-                    Channel channel = future.channel();
-
-                    channelPipeline.addLast(new ExchangeHandler(channel));
-                    // 发送请求数据
-                    channel.writeAndFlush(object);
+                    HttpConnectionPool.get(clientChannel.eventLoop()).release(future.getNow());
+                }
+                if (future.cause() instanceof TimeoutException && clientChannel.isActive()) {
+                    log.warn("{}", future.cause().getMessage());
+                    clientContext.writeAndFlush(HttpResponse.GATEWAY_TIMEOUT).addListener(ChannelFutureListener.CLOSE);
                 } else {
                     clientContext.close();
                 }
-            } finally {
-                ReleaseUtils.release(object);
+                return;
+            }
+
+            Channel channel = future.getNow();
+            upstreamChannel = channel;
+            channel.pipeline().get(HttpUpstreamHandler.class).bind(clientChannel, keepAlive, this::responseComplete, this::upgraded);
+            // 由上游连接上的HttpClientCodec编码
+            channel.write(httpRequest);
+
+            HttpObject pending;
+            while (!requestComplete && (pending = pendingMessages.peek()) != null && !(pending instanceof HttpRequest)) {
+                pendingMessages.poll();
+                requestComplete = pending instanceof LastHttpContent;
+                channel.write(pending);
+            }
+            channel.flush();
+
+            if (!requestComplete && pendingMessages.isEmpty()) {
+                clientChannel.config().setAutoRead(true);
             }
         });
     }
 
+    /**
+     * 请求处理期间收到的消息：属于当前请求的请求体直接转发，其余排队
+     *
+     * @param msg
+     */
+    private void httpContent(HttpObject msg) {
+        if (acquiring || requestComplete) {
+            pendingMessages.add(msg);
+            clientContext.channel().config().setAutoRead(false);
+            return;
+        }
+
+        requestComplete = msg instanceof LastHttpContent;
+        ChannelUtils.relay(clientContext.channel(), upstreamChannel, msg);
+    }
+
+    private void responseComplete(boolean keepAlive) {
+        exchanging = false;
+        upstreamChannel = null;
+        if (!keepAlive) {
+            releasePendingMessages();
+            ChannelUtils.close(clientContext.channel());
+            return;
+        }
+
+        HttpObject pending = pendingMessages.poll();
+        if (Objects.nonNull(pending)) {
+            dispatch(pending);
+        } else {
+            clientContext.channel().config().setAutoRead(true);
+        }
+    }
+
+    /**
+     * 上游回复101后客户端连接上不再是http，之后两端直接转发
+     *
+     * @param upstream
+     */
+    private void upgraded(Channel upstream) {
+        exchanging = false;
+        upstreamChannel = null;
+        releasePendingMessages();
+
+        // 先换上转发的handler再去掉编解码，解码器中剩余的数据交给它
+        ChannelPipeline channelPipeline = clientContext.pipeline();
+        channelPipeline.replace(HandlerName.HTTP_HANDLER, HandlerName.HTTP_HANDLER, new ExchangeHandler(upstream));
+        removeHandler(channelPipeline, HandlerName.HTTP_OBJECT_AGGREGATOR);
+        removeHandler(channelPipeline, HandlerName.HTTP_SERVER_CODEC);
+        channelPipeline.channel().config().setAutoRead(true);
+    }
+
+    private void releasePendingMessages() {
+        HttpObject pending;
+        while ((pending = pendingMessages.poll()) != null) {
+            ReferenceCountUtil.release(pending);
+        }
+    }
+
+    /**
+     * 代理请求的绝对路径转为源站使用的相对路径，并去掉只对代理有效的头。
+     * 与上游之间保持keep-alive，协议升级请求保留Connection中的upgrade
+     *
+     * @param httpRequest
+     */
+    private static void toOriginForm(HttpRequest httpRequest) {
+        String uri = httpRequest.uri();
+        if (uri.regionMatches(true, 0, "http://", 0, 7)) {
+            int index = uri.indexOf('/', 7);
+            httpRequest.setUri(index < 0 ? "/" : uri.substring(index));
+        }
+
+        HttpHeaders headers = httpRequest.headers();
+        headers.remove(HttpHeaderNames.PROXY_AUTHORIZATION);
+        headers.remove("Proxy-Connection");
+        boolean upgrade = headers.contains(HttpHeaderNames.UPGRADE)
+                && headers.containsValue(HttpHeaderNames.CONNECTION, HttpHeaderValues.UPGRADE, true);
+        HttpUtil.setKeepAlive(httpRequest, true);
+        if (upgrade) {
+            headers.add(HttpHeaderNames.CONNECTION, HttpHeaderValues.UPGRADE);
+        }
+    }
+
     /**
      * 直接转发https数据
      *
@@ -137,91 +318,235 @@ public class HttpHandler extends SimpleChannelInboundHandler<HttpObject> {
      * @param port
      */
     private void httpsHandle(String host, int port) {
-        connect(host, port, new ChannelInitializer<SocketChannel>() {
+        connectPassthrough(host, port).addListener((FutureListener<Channel>) future -> {
+            if (future.isSuccess()) {
+                replyConnect(() -> passthrough(future.getNow()));
+            } else {
+                clientContext.close();
+            }
+        });
+    }
+
+    private Future<Channel> connectPassthrough(String host, int port) {
+        // 目标可能先发数据，回复CONNECT并建立转发前不读取
+        return connect(host, port, false, new ChannelInitializer<Channel>() {
             @Override
-            protected void initChannel(SocketChannel ch) throws Exception {
+            protected void initChannel(Channel ch) throws Exception {
                 ch.pipeline().addLast(new ExchangeHandler(clientContext.channel()));
                 clientContext.channel().closeFuture().addListener(future -> ChannelUtils.close(ch));
             }
-        }).addListener((ChannelFutureListener) future -> {
-            if (future.isSuccess()) {
-                FullHttpResponse response = new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.OK);
+        });
+    }
 
-                clientContext.writeAndFlush(response).addListener((ChannelFutureListener) channelFuture -> {
-                    ChannelPipeline channelPipeline = clientContext.pipeline();
+    /**
+     * 回复CONNECT成功，之后客户端连接上不再是代理请求
+     *
+     * @param next 回复发出后调整pipeline
+     */
+    private void replyConnect(Runnable next) {
+        FullHttpResponse response = new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.OK);
 
-                    removeHandler(channelPipeline, HandlerName.HTTP_HANDLER);
-                    removeHandler(channelPipeline, HandlerName.HTTP_SERVER_CODEC);
-                    removeHandler(channelPipeline, HandlerName.HTTP_OBJECT_AGGREGATOR);
+        clientContext.writeAndFlush(response).addListener((ChannelFutureListener) channelFuture -> {
+            removeHandler(clientContext.pipeline(), HandlerName.HTTP_HANDLER);
+            next.run();
+        });
+    }
 
-                    channelPipeline.addLast(new ExchangeHandler(future.channel()));
-                });
-            } else {
+    private void passthrough(Channel upstream) {
+        ChannelPipeline channelPipeline = clientContext.pipeline();
+
+        removeHandler(channelPipeline, HandlerName.HTTP_SERVER_CODEC);
+        removeHandler(channelPipeline, HandlerName.HTTP_OBJECT_AGGREGATOR);
+
+        channelPipeline.addLast(new ExchangeHandler(upstream));
+        upstream.config().setAutoRead(true);
+    }
+
+    /**
+     * 按捕获规则决定解密还是直接转发。CONNECT的目标是IP时先回复CONNECT，再按ClientHello中的SNI判断
+     *
+     * @param host
+     * @param port
+     */
+    private void httpsHandleCapture(String host, int port) {
+        if (!CaptureRules.isEmpty() && (NetUtil.isValidIpV4Address(host) || NetUtil.isValidIpV6Address(host))) {
+            replyConnect(() -> clientContext.pipeline().addFirst(HandlerName.SNI_HANDLER,
+                    new SniPeekHandler(serverName -> selectBySni(serverName, host, port))));
+            return;
+        }
+
+        if (!CaptureRules.isCapture(host)) {
+            httpsHandle(host, port);
+            return;
+        }
+
+        captureUpstream(host, host, port, (certificateInfo, upstream) -> {
+            if (Objects.isNull(upstream)) {
                 clientContext.close();
+                return;
             }
+            replyConnect(() -> capture(certificateInfo, upstream, authority(host, port)));
         });
     }
 
     /**
-     * 捕获https请求内容
+     * 连接准备好之前ClientHello一直留在SniPeekHandler中
      *
-     * @param sslContext
+     * @param serverName 客户端未发送SNI时为null，按CONNECT的目标判断
      * @param host
      * @param port
+     * @return
      */
-    private void httpsHandleCapture(SslContext sslContext, String host, int port) {
-        connect(host, port, new ChannelInitializer<SocketChannel>() {
-            @Override
-            protected void initChannel(SocketChannel ch) throws Exception {
-                ChannelPipeline channelPipeline = ch.pipeline();
-
-                // 处理与目标服务器的ssl
-                channelPipeline.addFirst(clientSslContext.newHandler(ch.alloc()));
-
-                channelPipeline.addLast(new HttpClientCodec());
-                channelPipeline.addLast(new HttpObjectAggregator(1024 * 1024 * 512));
+    private Future<Runnable> selectBySni(String serverName, String host, int port) {
+        Promise<Runnable> promise = clientContext.executor().newPromise();
+        String name = Objects.nonNull(serverName) ? serverName : host;
+        if (Objects.nonNull(serverName) && Router.route(serverName).isDenied()) {
+            promise.setFailure(new ChannelException("路由规则拒绝：" + serverName));
+            return promise;
+        }
+        if (!CaptureRules.isCapture(name)) {
+            connectPassthrough(host, port).addListener((FutureListener<Channel>) future -> {
+                if (future.isSuccess()) {
+                    promise.setSuccess(() -> passthrough(future.getNow()));
+                } else {
+                    promise.setFailure(future.cause());
+                }
+            });
+            return promise;
+        }
 
-                Channel channel = clientContext.channel();
-                channel.closeFuture().addListener(future -> ChannelUtils.close(ch));
+        captureUpstream(name, host, port, (certificateInfo, upstream) -> {
+            if (Objects.isNull(upstream)) {
+                promise.setFailure(new ChannelException("准备捕获失败：" + name));
+            } else {
+                promise.setSuccess(() -> capture(certificateInfo, upstream, authority(name, port)));
+            }
+        });
+        return promise;
+    }
 
-                channelPipeline.addLast(new CaptureExchangeHandler(channel, "远程服务器"));
+    /**
+     * 签发证书并与目标服务器完成握手，按上游协商出的协议布置上游连接。完成后在事件循环上回调，失败时参数都为null
+     *
+     * @param serverName 证书与SNI使用的主机名
+     * @param host       连接的目标
+     * @param port
+     * @param callback
+     */
+    private void captureUpstream(String serverName, String host, int port, BiConsumer<CertificateInfo, Channel> callback) {
+        certificateInfo(serverName).whenComplete((certificateInfo, cause) -> clientContext.executor().execute(() -> {
+            if (Objects.isNull(certificateInfo)) {
+                callback.accept(null, null);
+                return;
             }
-        }).addListener((ChannelFutureListener) future -> {
-            if (future.isSuccess()) {
-                FullHttpResponse response = new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.OK);
 
-                clientContext.writeAndFlush(response).addListener((ChannelFutureListener) channelFuture -> {
-                    ChannelPipeline channelPipeline = clientContext.pipeline();
+            SslContext upstreamSslContext = Objects.isNull(http2ClientSslContext) || Objects.isNull(certificateInfo.getHttp2SslContext())
+                    ? clientSslContext : http2ClientSslContext;
+            Channel channel = clientContext.channel();
+            connect(host, port, true, new ChannelInitializer<Channel>() {
+                @Override
+                protected void initChannel(Channel ch) throws Exception {
+                    // 处理与目标服务器的ssl
+                    ch.pipeline().addFirst(CryptoExecutor.onEventLoop(() -> SslUtils.newClientHandler(upstreamSslContext, ch.alloc(), serverName, port)));
+                    channel.closeFuture().addListener(future -> ChannelUtils.close(ch));
+                }
+            }).addListener((FutureListener<Channel>) future -> {
+                if (!future.isSuccess()) {
+                    callback.accept(null, null);
+                    return;
+                }
 
-                    removeHandler(channelPipeline, HandlerName.HTTP_HANDLER);
+                Channel upstream = future.getNow();
+                upstream.pipeline().get(SslHandler.class).handshakeFuture().addListener((FutureListener<Channel>) handshakeFuture -> {
+                    if (!handshakeFuture.isSuccess()) {
+                        log.error("与目标服务器握手失败：{} {}", serverName, handshakeFuture.cause().getMessage());
+                        ChannelUtils.close(upstream);
+                        callback.accept(null, null);
+                        return;
+                    }
+
+                    if (isHttp2(upstream)) {
+                        Http2Exchange.upstream(upstream, channel);
+                    } else {
+                        // 响应不交给捕获者，按块流式转发
+                        upstream.pipeline().addLast(new HttpClientCodec());
+                        upstream.pipeline().addLast(new CaptureExchangeHandler(channel, "远程服务器"));
+                    }
+                    callback.accept(certificateInfo, upstream);
+                });
+            });
+        }));
+    }
+
+    /**
+     * 回复CONNECT后与客户端握手，上游为h2时客户端可以用h2多路复用，也可以继续用HTTP/1.1
+     *
+     * @param certificateInfo
+     * @param upstream
+     * @param authority
+     */
+    private void capture(CertificateInfo certificateInfo, Channel upstream, String authority) {
+        ChannelPipeline channelPipeline = clientContext.pipeline();
+        boolean http2 = isHttp2(upstream);
+
+        // 处理与客户端的ssl，读取SNI时要放在SniPeekHandler之后接收ClientHello
+        SslContext sslContext = http2 ? certificateInfo.getHttp2SslContext() : certificateInfo.getSslContext();
+        SslHandler sslHandler = CryptoExecutor.onEventLoop(() -> sslContext.newHandler(clientContext.alloc()));
+        if (Objects.nonNull(channelPipeline.get(HandlerName.SNI_HANDLER))) {
+            channelPipeline.addAfter(HandlerName.SNI_HANDLER, HandlerName.SSL_HANDLER, sslHandler);
+        } else {
+            channelPipeline.addFirst(HandlerName.SSL_HANDLER, sslHandler);
+        }
+        if (!http2) {
+            //前面还有 new HttpServerCodec()，捕获完整请求体时还有 new HttpObjectAggregator()
+            channelPipeline.addLast(new CaptureExchangeHandler(consumer, upstream, "客户端"));
+            return;
+        }
 
-                    // 处理与客户端的ssl
-                    channelPipeline.addFirst(sslContext.newHandler(clientContext.alloc()));
-                    //前面还有 new HttpServerCodec()、new HttpObjectAggregator(1024 * 1024 * 512)
-                    channelPipeline.addLast(new CaptureExchangeHandler(consumer, future.channel(), "客户端"));
+        channelPipeline.addAfter(HandlerName.SSL_HANDLER, HandlerName.ALPN_HANDLER,
+                new ApplicationProtocolNegotiationHandler(ApplicationProtocolNames.HTTP_1_1) {
+                    @Override
+                    protected void configurePipeline(ChannelHandlerContext ctx, String protocol) throws Exception {
+                        if (ApplicationProtocolNames.HTTP_2.equals(protocol)) {
+                            Http2Exchange.client(ctx.pipeline(), upstream, authority, consumer);
+                        } else {
+                            ctx.pipeline().addLast(new Http1ToHttp2ExchangeHandler(consumer, upstream, authority));
+                        }
+                    }
                 });
-            } else {
-                clientContext.close();
-            }
-        });
     }
 
-    private SslContext sslContext(String host, int port) {
-        try {
-            CertificateInfo certificateInfo = certificatePool.getCertificateInfo(host, port);
+    private static boolean isHttp2(Channel upstream) {
+        return ApplicationProtocolNames.HTTP_2.equals(upstream.pipeline().get(SslHandler.class).applicationProtocol());
+    }
 
-            if (Objects.nonNull(certificateInfo)) {
-                return SslContextBuilder.forServer(certificateInfo.getKeyPair().getPrivate(),
-                        certificateInfo.getX509Certificate()).build();
-            }
-        } catch (SSLException e) {
-            log.error(e.getMessage());
-        }
+    private static String authority(String host, int port) {
+        return port == 443 ? host : host + ":" + port;
+    }
 
-        return null;
+    /**
+     * 缓存的证书及SslContext，未命中时在加密线程池中签发证书并构建
+     *
+     * @param host
+     * @return 失败时结果为null
+     */
+    private CompletableFuture<CertificateInfo> certificateInfo(String host) {
+        try {
+            return certificatePool.getCertificateInfo(host).exceptionally(cause -> {
+                log.error("签发证书失败：{}", cause.getMessage());
+                return null;
+            });
+        } catch (RejectedExecutionException e) {
+            log.error("加密线程池已满：{}", host);
+            return CompletableFuture.completedFuture(null);
+        }
     }
 
     private void removeHandler(ChannelPipeline channelPipeline, String handlerName) {
+        if (Objects.isNull(channelPipeline.get(handlerName))) {
+            return;
+        }
+
         try {
             channelPipeline.remove(handlerName);
         } catch (NoSuchElementException e) {
@@ -229,10 +554,16 @@ public class HttpHandler extends SimpleChannelInboundHandler<HttpObject> {
         }
     }
 
-    private ChannelFuture connect(String host, int port, ChannelHandler channelHandler) {
-        return bootstrap.option(ChannelOption.CONNECT_TIMEOUT_MILLIS, 15_000)
+    private Future<Channel> connect(String host, int port, boolean autoRead, ChannelHandler channelHandler) {
+        bootstrap.option(ChannelOption.CONNECT_TIMEOUT_MILLIS, 15_000)
                 .option(ChannelOption.SO_KEEPALIVE, false)
-                .group(clientContext.channel().eventLoop()).channel(NioSocketChannel.class)
-                .handler(channelHandler).connect(host, port);
+                .option(ChannelOption.AUTO_READ, autoRead)
+                .option(ChannelOption.WRITE_BUFFER_WATER_MARK, ProxyConfig.WRITE_BUFFER_WATER_MARK)
+                .group(clientContext.channel().eventLoop())
+                .channel(TransportUtils.socketChannelClass(clientContext.channel().eventLoop()))
+                .resolver(DnsResolver.GROUP)
+                .handler(channelHandler);
+
+        return Router.route(host).getConnector().connect(bootstrap, host, port);
     }
 }
@@ -2,7 +2,8 @@ package com.sokcs.handler.http;
 
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.ChannelInboundHandlerAdapter;
-import io.netty.handler.codec.http.FullHttpRequest;
+import io.netty.handler.codec.http.HttpRequest;
+import io.netty.util.ReferenceCountUtil;
 
 import java.util.Base64;
 
@@ -13,8 +14,8 @@ public class HttpProxyAuthorizationHandler extends ChannelInboundHandlerAdapter
 
     @Override
     public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
-        if (msg instanceof FullHttpRequest) {
-            FullHttpRequest request = (FullHttpRequest) msg;
+        if (msg instanceof HttpRequest) {
+            HttpRequest request = (HttpRequest) msg;
             try {
                 boolean ok = false;
                 String s = request.headers().get("Proxy-Authorization");
@@ -31,6 +32,7 @@ public class HttpProxyAuthorizationHandler extends ChannelInboundHandlerAdapter
                     }
                 }
                 if (!ok) {
+                    ReferenceCountUtil.release(msg);
                     ctx.channel().writeAndFlush(HttpResponse.PROXY_AUTHENTICATION_REQUIRED);
                 } else {
                     ctx.pipeline().remove(this.getClass());
@@ -39,8 +41,12 @@ public class HttpProxyAuthorizationHandler extends ChannelInboundHandlerAdapter
 
             } catch (Exception e) {
                 e.printStackTrace();
+                ReferenceCountUtil.release(msg);
                 ctx.channel().writeAndFlush(HttpResponse.PROXY_AUTHENTICATION_REQUIRED);
             }
+        } else {
+            // 认证通过前的请求体直接丢弃
+            ReferenceCountUtil.release(msg);
         }
     }
 }
\ No newline at end of file
@@ -15,6 +15,10 @@ public class HttpResponse extends DefaultFullHttpResponse {
 
     // 4XX
     public static final HttpResponse PROXY_AUTHENTICATION_REQUIRED = new HttpResponse(HttpResponseStatus.PROXY_AUTHENTICATION_REQUIRED);
+    public static final HttpResponse FORBIDDEN = new HttpResponse(HttpResponseStatus.FORBIDDEN);
+
+    // 5XX
+    public static final HttpResponse GATEWAY_TIMEOUT = new HttpResponse(HttpResponseStatus.GATEWAY_TIMEOUT);
 
     static {
         PROXY_AUTHENTICATION_REQUIRED.headers().set(HttpHeaderNames.PROXY_AUTHENTICATE, "Basic realm=\"fuck username and password\"");
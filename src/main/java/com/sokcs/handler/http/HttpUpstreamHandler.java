@@ -0,0 +1,176 @@
+package com.sokcs.handler.http;
+
+import com.sokcs.connect.HttpConnectionPool;
+import com.sokcs.utils.ChannelUtils;
+import com.sokcs.utils.ThrowableUtils;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelDuplexHandler;
+import io.netty.channel.ChannelPipeline;
+import io.netty.channel.ChannelPromise;
+import io.netty.handler.codec.http.HttpClientCodec;
+import io.netty.handler.codec.http.HttpResponse;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.HttpStatusClass;
+import io.netty.handler.codec.http.HttpUtil;
+import io.netty.handler.codec.http.LastHttpContent;
+import io.netty.util.ReferenceCountUtil;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.Objects;
+import java.util.function.Consumer;
+
+/**
+ * 连接池中上游连接的响应处理：把响应逐段转发给当前绑定的客户端，响应结束后把连接归还连接池。
+ * 收到101（协议升级）后连接从连接池摘除，两端去掉http编解码后直接转发
+ */
+@Slf4j
+public class HttpUpstreamHandler extends ChannelDuplexHandler {
+    private Channel clientChannel;
+    private boolean clientKeepAlive;
+    private boolean reusable;
+    // 请求体已经完整写出，响应先于请求体结束时连接不能复用
+    private boolean requestSent;
+    // 正在转发100-continue等中间响应
+    private boolean informational;
+    // 正在转发101
+    private boolean upgrading;
+    private Consumer<Boolean> onComplete;
+    private Consumer<Channel> onUpgrade;
+
+    /**
+     * 绑定到发起请求的客户端
+     *
+     * @param clientChannel
+     * @param clientKeepAlive 客户端请求是否keep-alive
+     * @param onComplete      响应结束后回调，参数表示客户端连接是否可以继续使用
+     * @param onUpgrade       101转发后回调，参数为上游连接，客户端连接此时应换成{@link ExchangeHandler}
+     */
+    public void bind(Channel clientChannel, boolean clientKeepAlive, Consumer<Boolean> onComplete, Consumer<Channel> onUpgrade) {
+        this.clientChannel = clientChannel;
+        this.clientKeepAlive = clientKeepAlive;
+        this.reusable = false;
+        this.requestSent = false;
+        this.informational = false;
+        this.upgrading = false;
+        this.onComplete = onComplete;
+        this.onUpgrade = onUpgrade;
+    }
+
+    @Override
+    public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+        if (Objects.isNull(clientChannel)) {
+            // 空闲时收到的数据直接丢弃
+            ReferenceCountUtil.release(msg);
+            return;
+        }
+
+        if (msg instanceof HttpResponse) {
+            HttpResponse response = (HttpResponse) msg;
+            informational = response.status().codeClass() == HttpStatusClass.INFORMATIONAL;
+            upgrading = response.status().code() == HttpResponseStatus.SWITCHING_PROTOCOLS.code();
+            if (!informational) {
+                reusable = HttpUtil.isKeepAlive(response);
+                HttpUtil.setKeepAlive(response, clientKeepAlive && reusable && requestSent);
+            }
+        }
+
+        boolean last = msg instanceof LastHttpContent;
+        ChannelUtils.relay(ctx.channel(), clientChannel, msg);
+
+        if (last) {
+            if (upgrading) {
+                upgrade(ctx);
+            } else if (informational) {
+                // 中间响应之后还有最终响应
+                informational = false;
+                ChannelUtils.flush(clientChannel);
+            } else {
+                complete(ctx);
+            }
+        }
+    }
+
+    @Override
+    public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) throws Exception {
+        if (msg instanceof LastHttpContent) {
+            requestSent = true;
+        }
+        super.write(ctx, msg, promise);
+    }
+
+    @Override
+    public void channelReadComplete(ChannelHandlerContext ctx) throws Exception {
+        ChannelUtils.flush(clientChannel);
+    }
+
+    @Override
+    public void channelWritabilityChanged(ChannelHandlerContext ctx) throws Exception {
+        ChannelUtils.resumeRead(ctx.channel(), clientChannel);
+        super.channelWritabilityChanged(ctx);
+    }
+
+    @Override
+    public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+        // 响应未结束上游就断开，客户端也无法得到完整响应
+        if (Objects.nonNull(clientChannel)) {
+            ChannelUtils.close(clientChannel);
+            clientChannel = null;
+        }
+        super.channelInactive(ctx);
+    }
+
+    @Override
+    public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) throws Exception {
+        ThrowableUtils.message(this.getClass(), cause);
+        ctx.close();
+    }
+
+    /**
+     * 先停用上游的请求编码，客户端换成直接转发后写来的数据原样发出，再去掉上游的http编解码，
+     * 解码器中101之后剩余的数据交给新的{@link ExchangeHandler}
+     *
+     * @param ctx
+     */
+    private void upgrade(ChannelHandlerContext ctx) {
+        Channel client = clientChannel;
+        Consumer<Channel> callback = onUpgrade;
+        clientChannel = null;
+        onComplete = null;
+        onUpgrade = null;
+
+        Channel upstream = ctx.channel();
+        HttpConnectionPool.get(upstream.eventLoop()).detach(upstream);
+        ChannelUtils.flush(client);
+        if (Objects.isNull(client) || !client.isActive()) {
+            ctx.close();
+            return;
+        }
+
+        ChannelPipeline pipeline = ctx.pipeline();
+        HttpClientCodec codec = (HttpClientCodec) pipeline.get(HandlerName.HTTP_CLIENT_CODEC);
+        codec.prepareUpgradeFrom(ctx);
+        callback.accept(upstream);
+        pipeline.replace(this, HandlerName.HTTP_UPSTREAM_HANDLER, new ExchangeHandler(client));
+        codec.upgradeFrom(ctx);
+
+        upstream.closeFuture().addListener(future -> ChannelUtils.close(client));
+        client.closeFuture().addListener(future -> ChannelUtils.close(upstream));
+    }
+
+    private void complete(ChannelHandlerContext ctx) {
+        Channel client = clientChannel;
+        Consumer<Boolean> callback = onComplete;
+        clientChannel = null;
+        onComplete = null;
+
+        boolean reuse = reusable && requestSent;
+        ChannelUtils.flush(client);
+        if (reuse) {
+            HttpConnectionPool.get(ctx.channel().eventLoop()).release(ctx.channel());
+        } else {
+            ctx.close();
+        }
+        callback.accept(clientKeepAlive && reuse);
+    }
+}
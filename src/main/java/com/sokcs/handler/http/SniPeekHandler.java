@@ -0,0 +1,48 @@
+package com.sokcs.handler.http;
+
+import com.sokcs.utils.ThrowableUtils;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.ssl.AbstractSniHandler;
+import io.netty.util.concurrent.Future;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.function.Function;
+
+/**
+ * 读取客户端ClientHello中的SNI，交给选择器决定后续处理方式。
+ * 选择器准备期间ClientHello留在本handler中，选择器返回的操作布置好pipeline后本handler移除，
+ * ClientHello原样交给后面的handler（SslHandler或直接转发）
+ */
+@Slf4j
+public class SniPeekHandler extends AbstractSniHandler<Runnable> {
+    private final Function<String, Future<Runnable>> selector;
+
+    /**
+     * @param selector 参数为SNI，客户端未发送时为null
+     */
+    public SniPeekHandler(Function<String, Future<Runnable>> selector) {
+        this.selector = selector;
+    }
+
+    @Override
+    protected Future<Runnable> lookup(ChannelHandlerContext ctx, String hostname) throws Exception {
+        return selector.apply(hostname);
+    }
+
+    @Override
+    protected void onLookupComplete(ChannelHandlerContext ctx, String hostname, Future<Runnable> future) throws Exception {
+        if (!future.isSuccess()) {
+            ctx.close();
+            return;
+        }
+
+        future.getNow().run();
+        ctx.pipeline().remove(this);
+    }
+
+    @Override
+    public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) throws Exception {
+        ThrowableUtils.message(this.getClass(), cause);
+        ctx.close();
+    }
+}
@@ -1,26 +1,23 @@
 package com.sokcs.handler.socks;
 
-import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandler;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.ChannelInboundHandlerAdapter;
-import io.netty.util.concurrent.Promise;
 
+/**
+ * 出站连接的占位handler，连接可能并行发起多个，因此可共享，连接建立后移除自身
+ */
+@ChannelHandler.Sharable
 public final class DirectClientHandler extends ChannelInboundHandlerAdapter {
 
-    private final Promise<Channel> promise;
+    public static final DirectClientHandler INSTANCE = new DirectClientHandler();
 
-    public DirectClientHandler(Promise<Channel> promise) {
-        this.promise = promise;
+    private DirectClientHandler() {
     }
 
     @Override
     public void channelActive(ChannelHandlerContext ctx) {
         ctx.pipeline().remove(this);
-        promise.setSuccess(ctx.channel());
+        ctx.fireChannelActive();
     }
-
-    @Override
-    public void exceptionCaught(ChannelHandlerContext ctx, Throwable throwable) {
-        promise.setFailure(throwable);
-    }
-}
\ No newline at end of file
+}
@@ -1,11 +1,11 @@
 package com.sokcs.handler.socks;
 
+import com.sokcs.utils.ChannelUtils;
 import com.sokcs.utils.SocksServerUtils;
 import io.netty.buffer.Unpooled;
 import io.netty.channel.Channel;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.ChannelInboundHandlerAdapter;
-import io.netty.util.ReferenceCountUtil;
 
 public final class RelayHandler extends ChannelInboundHandlerAdapter {
 
@@ -22,11 +22,18 @@ public final class RelayHandler extends ChannelInboundHandlerAdapter {
 
     @Override
     public void channelRead(ChannelHandlerContext ctx, Object msg) {
-        if (relayChannel.isActive()) {
-            relayChannel.writeAndFlush(msg);
-        } else {
-            ReferenceCountUtil.release(msg);
-        }
+        ChannelUtils.relay(ctx.channel(), relayChannel, msg);
+    }
+
+    @Override
+    public void channelReadComplete(ChannelHandlerContext ctx) {
+        ChannelUtils.flush(relayChannel);
+    }
+
+    @Override
+    public void channelWritabilityChanged(ChannelHandlerContext ctx) {
+        ChannelUtils.resumeRead(ctx.channel(), relayChannel);
+        ctx.fireChannelWritabilityChanged();
     }
 
     @Override
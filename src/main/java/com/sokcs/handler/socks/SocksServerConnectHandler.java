@@ -1,6 +1,11 @@
 package com.sokcs.handler.socks;
 
+import com.sokcs.config.ProxyConfig;
+import com.sokcs.dns.DnsResolver;
+import com.sokcs.route.Route;
+import com.sokcs.route.Router;
 import com.sokcs.utils.SocksServerUtils;
+import com.sokcs.utils.TransportUtils;
 import io.netty.bootstrap.Bootstrap;
 import io.netty.channel.Channel;
 import io.netty.channel.ChannelFuture;
@@ -9,7 +14,6 @@ import io.netty.channel.ChannelHandler;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.ChannelOption;
 import io.netty.channel.SimpleChannelInboundHandler;
-import io.netty.channel.socket.nio.NioSocketChannel;
 import io.netty.handler.codec.socksx.SocksMessage;
 import io.netty.handler.codec.socksx.v4.DefaultSocks4CommandResponse;
 import io.netty.handler.codec.socksx.v4.Socks4CommandRequest;
@@ -20,7 +24,10 @@ import io.netty.handler.codec.socksx.v5.Socks5CommandStatus;
 import io.netty.util.concurrent.Future;
 import io.netty.util.concurrent.FutureListener;
 import io.netty.util.concurrent.Promise;
+import io.netty.util.concurrent.PromiseNotifier;
+import lombok.extern.slf4j.Slf4j;
 
+@Slf4j
 @ChannelHandler.Sharable
 public final class SocksServerConnectHandler extends SimpleChannelInboundHandler<SocksMessage> {
 
@@ -30,6 +37,14 @@ public final class SocksServerConnectHandler extends SimpleChannelInboundHandler
     public void channelRead0(final ChannelHandlerContext ctx, final SocksMessage message) throws Exception {
         if (message instanceof Socks4CommandRequest) {
             final Socks4CommandRequest request = (Socks4CommandRequest) message;
+            final Route route = Router.route(request.dstAddr());
+            if (route.isDenied()) {
+                log.debug("路由规则拒绝：{}", request.dstAddr());
+                ctx.channel().writeAndFlush(new DefaultSocks4CommandResponse(Socks4CommandStatus.REJECTED_OR_FAILED));
+                SocksServerUtils.closeOnFlush(ctx.channel());
+                return;
+            }
+
             Promise<Channel> promise = ctx.executor().newPromise();
             promise.addListener(
                     new FutureListener<Channel>() {
@@ -43,9 +58,7 @@ public final class SocksServerConnectHandler extends SimpleChannelInboundHandler
                                 responseFuture.addListener(new ChannelFutureListener() {
                                     @Override
                                     public void operationComplete(ChannelFuture channelFuture) {
-                                        ctx.pipeline().remove(SocksServerConnectHandler.this);
-                                        outboundChannel.pipeline().addLast(new RelayHandler(ctx.channel()));
-                                        ctx.pipeline().addLast(new RelayHandler(outboundChannel));
+                                        relay(ctx, outboundChannel);
                                     }
                                 });
                             } else {
@@ -58,27 +71,30 @@ public final class SocksServerConnectHandler extends SimpleChannelInboundHandler
 
             final Channel inboundChannel = ctx.channel();
             b.group(inboundChannel.eventLoop())
-                    .channel(NioSocketChannel.class)
+                    .channel(TransportUtils.socketChannelClass(inboundChannel.eventLoop()))
+                    .resolver(DnsResolver.GROUP)
                     .option(ChannelOption.CONNECT_TIMEOUT_MILLIS, 10000)
                     .option(ChannelOption.SO_KEEPALIVE, true)
-                    .handler(new DirectClientHandler(promise));
+                    // 目标可能先发数据（如smtp的banner），转发建立前不读取
+                    .option(ChannelOption.AUTO_READ, false)
+                    .option(ChannelOption.WRITE_BUFFER_WATER_MARK, ProxyConfig.WRITE_BUFFER_WATER_MARK)
+                    .handler(DirectClientHandler.INSTANCE);
+            TransportUtils.spliceMode(b);
 
-            b.connect(request.dstAddr(), request.dstPort()).addListener(new ChannelFutureListener() {
-                @Override
-                public void operationComplete(ChannelFuture future) throws Exception {
-                    if (future.isSuccess()) {
-                        // Connection established use handler provided results
-                    } else {
-                        // Close the connection if the connection attempt has failed.
-                        ctx.channel().writeAndFlush(
-                                new DefaultSocks4CommandResponse(Socks4CommandStatus.REJECTED_OR_FAILED)
-                        );
-                        SocksServerUtils.closeOnFlush(ctx.channel());
-                    }
-                }
-            });
+            // 连接失败时由promise的监听器回复失败并关闭，经由上级代理时返回的通道已建好隧道
+            route.getConnector().connect(b, request.dstAddr(), request.dstPort())
+                    .addListener(new PromiseNotifier<Channel, Future<Channel>>(promise));
         } else if (message instanceof Socks5CommandRequest) {
             final Socks5CommandRequest request = (Socks5CommandRequest) message;
+            final Route route = Router.route(request.dstAddr());
+            if (route.isDenied()) {
+                log.debug("路由规则拒绝：{}", request.dstAddr());
+                ctx.channel().writeAndFlush(new DefaultSocks5CommandResponse(
+                        Socks5CommandStatus.FORBIDDEN, request.dstAddrType()));
+                SocksServerUtils.closeOnFlush(ctx.channel());
+                return;
+            }
+
             Promise<Channel> promise = ctx.executor().newPromise();
             promise.addListener(
                     new FutureListener<Channel>() {
@@ -96,9 +112,7 @@ public final class SocksServerConnectHandler extends SimpleChannelInboundHandler
                                 responseFuture.addListener(new ChannelFutureListener() {
                                     @Override
                                     public void operationComplete(ChannelFuture channelFuture) {
-                                        ctx.pipeline().remove(SocksServerConnectHandler.this);
-                                        outboundChannel.pipeline().addLast(new RelayHandler(ctx.channel()));
-                                        ctx.pipeline().addLast(new RelayHandler(outboundChannel));
+                                        relay(ctx, outboundChannel);
                                     }
                                 });
                             } else {
@@ -111,29 +125,37 @@ public final class SocksServerConnectHandler extends SimpleChannelInboundHandler
 
             final Channel inboundChannel = ctx.channel();
             b.group(inboundChannel.eventLoop())
-                    .channel(NioSocketChannel.class)
+                    .channel(TransportUtils.socketChannelClass(inboundChannel.eventLoop()))
+                    .resolver(DnsResolver.GROUP)
                     .option(ChannelOption.CONNECT_TIMEOUT_MILLIS, 10000)
                     .option(ChannelOption.SO_KEEPALIVE, true)
-                    .handler(new DirectClientHandler(promise));
+                    // 目标可能先发数据（如smtp的banner），转发建立前不读取
+                    .option(ChannelOption.AUTO_READ, false)
+                    .option(ChannelOption.WRITE_BUFFER_WATER_MARK, ProxyConfig.WRITE_BUFFER_WATER_MARK)
+                    .handler(DirectClientHandler.INSTANCE);
+            TransportUtils.spliceMode(b);
 
-            b.connect(request.dstAddr(), request.dstPort()).addListener(new ChannelFutureListener() {
-                @Override
-                public void operationComplete(ChannelFuture future) throws Exception {
-                    if (future.isSuccess()) {
-                        // Connection established use handler provided results
-                    } else {
-                        // Close the connection if the connection attempt has failed.
-                        ctx.channel().writeAndFlush(
-                                new DefaultSocks5CommandResponse(Socks5CommandStatus.FAILURE, request.dstAddrType()));
-                        SocksServerUtils.closeOnFlush(ctx.channel());
-                    }
-                }
-            });
+            route.getConnector().connect(b, request.dstAddr(), request.dstPort())
+                    .addListener(new PromiseNotifier<Channel, Future<Channel>>(promise));
         } else {
             ctx.close();
         }
     }
 
+    /**
+     * 建立双向转发，epoll下优先使用splice，RelayHandler负责转发已读入用户态的数据及关闭对端
+     *
+     * @param ctx
+     * @param outboundChannel
+     */
+    private void relay(ChannelHandlerContext ctx, Channel outboundChannel) {
+        ctx.pipeline().remove(this);
+        outboundChannel.pipeline().addLast(new RelayHandler(ctx.channel()));
+        ctx.pipeline().addLast(new RelayHandler(outboundChannel));
+        TransportUtils.splice(ctx.channel(), outboundChannel);
+        outboundChannel.config().setAutoRead(true);
+    }
+
     @Override
     public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) throws Exception {
         SocksServerUtils.closeOnFlush(ctx.channel());
@@ -1,22 +1,39 @@
 package com.sokcs.handler.socks;
 
+import com.sokcs.auth.Authenticator;
+import com.sokcs.auth.Authenticators;
+import com.sokcs.config.ProxyConfig;
 import com.sokcs.utils.SocksServerUtils;
+import io.netty.channel.Channel;
 import io.netty.channel.ChannelHandler;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.SimpleChannelInboundHandler;
 import io.netty.handler.codec.socksx.SocksMessage;
+import io.netty.handler.codec.socksx.v4.DefaultSocks4CommandResponse;
 import io.netty.handler.codec.socksx.v4.Socks4CommandRequest;
+import io.netty.handler.codec.socksx.v4.Socks4CommandStatus;
 import io.netty.handler.codec.socksx.v4.Socks4CommandType;
 import io.netty.handler.codec.socksx.v5.*;
+import io.netty.util.concurrent.ScheduledFuture;
+import lombok.extern.slf4j.Slf4j;
 
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+@Slf4j
 @ChannelHandler.Sharable
 public final class SocksServerHandler extends SimpleChannelInboundHandler<SocksMessage> {
 
-    public static final SocksServerHandler INSTANCE = new SocksServerHandler();
+    public static final SocksServerHandler INSTANCE = new SocksServerHandler(Authenticators.get(), ProxyConfig.AUTH_TIMEOUT_MILLIS);
 
-    private static final boolean flag = false;
+    // 未启用认证时为null
+    private final Authenticator authenticator;
+    private final long authTimeoutMillis;
 
-    private SocksServerHandler() {
+    SocksServerHandler(Authenticator authenticator, long authTimeoutMillis) {
+        this.authenticator = authenticator;
+        this.authTimeoutMillis = authTimeoutMillis;
     }
 
     @Override
@@ -24,7 +41,12 @@ public final class SocksServerHandler extends SimpleChannelInboundHandler<SocksM
         switch (socksRequest.version()) {
             case SOCKS4a:
                 Socks4CommandRequest socksV4CmdRequest = (Socks4CommandRequest) socksRequest;
-                if (socksV4CmdRequest.type() == Socks4CommandType.CONNECT) {
+                if (Objects.nonNull(authenticator)) {
+                    // socks4没有密码认证，启用认证后一律拒绝
+                    log.warn("已启用认证，拒绝socks4请求：{}", ctx.channel().remoteAddress());
+                    ctx.write(new DefaultSocks4CommandResponse(Socks4CommandStatus.REJECTED_OR_FAILED));
+                    SocksServerUtils.closeOnFlush(ctx.channel());
+                } else if (socksV4CmdRequest.type() == Socks4CommandType.CONNECT) {
                     ctx.pipeline().addLast(new SocksServerConnectHandler());
                     ctx.pipeline().remove(this);
                     ctx.fireChannelRead(socksRequest);
@@ -34,26 +56,22 @@ public final class SocksServerHandler extends SimpleChannelInboundHandler<SocksM
                 break;
             case SOCKS5:
                 if (socksRequest instanceof Socks5InitialRequest) {
-                    if (flag) {
-                        ctx.pipeline().addFirst(new Socks5PasswordAuthRequestDecoder());
-                        ctx.writeAndFlush(new DefaultSocks5InitialResponse(Socks5AuthMethod.PASSWORD));
+                    if (Objects.nonNull(authenticator)) {
+                        if (((Socks5InitialRequest) socksRequest).authMethods().contains(Socks5AuthMethod.PASSWORD)) {
+                            ctx.pipeline().addFirst(new Socks5PasswordAuthRequestDecoder());
+                            ctx.writeAndFlush(new DefaultSocks5InitialResponse(Socks5AuthMethod.PASSWORD));
+                        } else {
+                            ctx.write(new DefaultSocks5InitialResponse(Socks5AuthMethod.UNACCEPTED));
+                            SocksServerUtils.closeOnFlush(ctx.channel());
+                        }
                     } else {
                         ctx.pipeline().addFirst(new Socks5CommandRequestDecoder());
                         ctx.writeAndFlush(new DefaultSocks5InitialResponse(Socks5AuthMethod.NO_AUTH));
                     }
 
                 } else if (socksRequest instanceof Socks5PasswordAuthRequest) {
-                    if (flag) {
-                        Socks5PasswordAuthRequest passwordAuthRequest = (Socks5PasswordAuthRequest) socksRequest;
-                        if (passwordAuthRequest.username().equals("aa") &&
-                                passwordAuthRequest.password().equals("aa")) {
-                            ctx.pipeline().addFirst( new Socks5CommandRequestDecoder());
-
-                            ctx.write(new DefaultSocks5PasswordAuthResponse(Socks5PasswordAuthStatus.SUCCESS));
-                        } else {
-                            ctx.write(new DefaultSocks5PasswordAuthResponse(Socks5PasswordAuthStatus.FAILURE));
-                            SocksServerUtils.closeOnFlush(ctx.channel());
-                        }
+                    if (Objects.nonNull(authenticator)) {
+                        authenticate(ctx, (Socks5PasswordAuthRequest) socksRequest);
                     } else {
                         ctx.pipeline().addFirst(new Socks5CommandRequestDecoder());
                         ctx.write(new DefaultSocks5PasswordAuthResponse(Socks5PasswordAuthStatus.SUCCESS));
@@ -64,6 +82,10 @@ public final class SocksServerHandler extends SimpleChannelInboundHandler<SocksM
                         ctx.pipeline().addLast(new SocksServerConnectHandler());
                         ctx.pipeline().remove(this);
                         ctx.fireChannelRead(socksRequest);
+                    } else if (socks5CmdRequest.type() == Socks5CommandType.UDP_ASSOCIATE) {
+                        ctx.pipeline().addLast(new SocksServerUdpAssociateHandler());
+                        ctx.pipeline().remove(this);
+                        ctx.fireChannelRead(socksRequest);
                     } else {
                         ctx.close();
                     }
@@ -77,6 +99,48 @@ public final class SocksServerHandler extends SimpleChannelInboundHandler<SocksM
         }
     }
 
+    /**
+     * 认证后端可能较慢，结果返回前暂停读取，返回后回到事件循环回复客户端
+     *
+     * @param ctx
+     * @param request
+     */
+    private void authenticate(ChannelHandlerContext ctx, Socks5PasswordAuthRequest request) {
+        CompletableFuture<Boolean> future = Authenticators.authenticate(authenticator, request.username(), request.password());
+        if (future.isDone()) {
+            authenticated(ctx, future.getNow(false));
+            return;
+        }
+
+        Channel channel = ctx.channel();
+        channel.config().setAutoRead(false);
+        // 先执行的一方取消另一方：超时任务执行后cancel返回false，结果被忽略
+        ScheduledFuture<?> timeout = ctx.executor().schedule(() -> {
+            log.warn("认证超时：{} {}", request.username(), channel.remoteAddress());
+            authenticated(ctx, false);
+        }, authTimeoutMillis, TimeUnit.MILLISECONDS);
+        future.thenAccept(ok -> ctx.executor().execute(() -> {
+            if (timeout.cancel(false)) {
+                authenticated(ctx, ok);
+            }
+        }));
+    }
+
+    private static void authenticated(ChannelHandlerContext ctx, boolean ok) {
+        Channel channel = ctx.channel();
+        if (!channel.isActive()) {
+            return;
+        }
+        if (ok) {
+            ctx.pipeline().addFirst(new Socks5CommandRequestDecoder());
+            ctx.writeAndFlush(new DefaultSocks5PasswordAuthResponse(Socks5PasswordAuthStatus.SUCCESS));
+            channel.config().setAutoRead(true);
+        } else {
+            ctx.write(new DefaultSocks5PasswordAuthResponse(Socks5PasswordAuthStatus.FAILURE));
+            SocksServerUtils.closeOnFlush(channel);
+        }
+    }
+
     @Override
     public void channelReadComplete(ChannelHandlerContext ctx) {
         ctx.flush();
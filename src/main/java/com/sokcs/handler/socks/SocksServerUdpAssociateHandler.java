@@ -0,0 +1,69 @@
+package com.sokcs.handler.socks;
+
+import com.sokcs.config.ProxyConfig;
+import com.sokcs.utils.SocksServerUtils;
+import com.sokcs.utils.TransportUtils;
+import io.netty.bootstrap.Bootstrap;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.handler.codec.socksx.v5.DefaultSocks5CommandResponse;
+import io.netty.handler.codec.socksx.v5.Socks5AddressType;
+import io.netty.handler.codec.socksx.v5.Socks5CommandRequest;
+import io.netty.handler.codec.socksx.v5.Socks5CommandStatus;
+import io.netty.util.NetUtil;
+
+import java.net.Inet4Address;
+import java.net.InetSocketAddress;
+
+/**
+ * 处理Socks5 UDP ASSOCIATE：在控制连接所在的本地地址上绑定一个UDP端口用于转发，
+ * 关联的生命周期与控制连接一致，任意一方关闭另一方随之关闭
+ */
+public final class SocksServerUdpAssociateHandler extends SimpleChannelInboundHandler<Socks5CommandRequest> {
+
+    @Override
+    public void channelRead0(final ChannelHandlerContext ctx, final Socks5CommandRequest request) throws Exception {
+        final Channel controlChannel = ctx.channel();
+        InetSocketAddress localAddress = (InetSocketAddress) controlChannel.localAddress();
+        InetSocketAddress remoteAddress = (InetSocketAddress) controlChannel.remoteAddress();
+
+        // 请求中的DST.PORT是客户端发送数据报的端口，为0时由第一个数据报确定
+        InetSocketAddress client = request.dstPort() == 0 ? null
+                : new InetSocketAddress(remoteAddress.getAddress(), request.dstPort());
+
+        new Bootstrap().group(controlChannel.eventLoop())
+                .channel(TransportUtils.datagramChannelClass(controlChannel.eventLoop()))
+                .handler(new UdpRelayHandler(remoteAddress.getAddress(), client, ProxyConfig.UDP_MAX_FLOWS))
+                .bind(localAddress.getAddress(), 0)
+                .addListener(new ChannelFutureListener() {
+                    @Override
+                    public void operationComplete(ChannelFuture future) {
+                        if (!future.isSuccess()) {
+                            ctx.channel().writeAndFlush(new DefaultSocks5CommandResponse(
+                                    Socks5CommandStatus.FAILURE, request.dstAddrType()));
+                            SocksServerUtils.closeOnFlush(controlChannel);
+                            return;
+                        }
+
+                        final Channel relayChannel = future.channel();
+                        controlChannel.closeFuture().addListener(f -> relayChannel.close());
+                        relayChannel.closeFuture().addListener(f -> SocksServerUtils.closeOnFlush(controlChannel));
+
+                        InetSocketAddress bindAddress = (InetSocketAddress) relayChannel.localAddress();
+                        ctx.channel().writeAndFlush(new DefaultSocks5CommandResponse(
+                                Socks5CommandStatus.SUCCESS,
+                                bindAddress.getAddress() instanceof Inet4Address ? Socks5AddressType.IPv4 : Socks5AddressType.IPv6,
+                                NetUtil.toAddressString(bindAddress.getAddress()),
+                                bindAddress.getPort()));
+                    }
+                });
+    }
+
+    @Override
+    public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) throws Exception {
+        SocksServerUtils.closeOnFlush(ctx.channel());
+    }
+}
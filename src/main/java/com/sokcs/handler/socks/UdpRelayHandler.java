@@ -0,0 +1,273 @@
+package com.sokcs.handler.socks;
+
+import com.sokcs.config.ProxyConfig;
+import com.sokcs.dns.DnsResolver;
+import com.sokcs.route.Route;
+import com.sokcs.route.RouteTable;
+import com.sokcs.route.Router;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.channel.socket.DatagramPacket;
+import io.netty.handler.codec.socksx.v5.Socks5AddressDecoder;
+import io.netty.handler.codec.socksx.v5.Socks5AddressType;
+import io.netty.util.NetUtil;
+import io.netty.util.concurrent.Future;
+import io.netty.util.concurrent.FutureListener;
+import lombok.extern.slf4j.Slf4j;
+
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.Consumer;
+
+/**
+ * UDP ASSOCIATE的数据报转发，一个关联对应一个UDP端口：
+ * 来自客户端的数据报去掉Socks5 UDP头后发往目标，来自客户端发送过的目标的数据报加上Socks5 UDP头后发回客户端，
+ * 其它来源的数据报丢弃。
+ * 每个目标（流）解码一次地址、查一次路由，之后的数据报按头部字节查表，转发时使用原数据报的切片，不复制数据；
+ * 回包把缓存的UDP头和数据写进一个池化的直接内存缓冲区，复制一次数据
+ * （NIO发送组合缓冲区时同样会复制到一个直接内存缓冲区，直接写入少一次复制，也不再为每个回包创建组合缓冲区）
+ */
+@Slf4j
+public final class UdpRelayHandler extends SimpleChannelInboundHandler<DatagramPacket> {
+
+    // 只接受来自控制连接同一IP的客户端
+    private final InetAddress clientAddress;
+
+    // 客户端的UDP地址，请求中未指定端口时以第一个数据报的来源为准
+    private InetSocketAddress client;
+
+    // 客户端发往的目标，键为数据报中ATYP、DST.ADDR、DST.PORT的字节（堆上的拷贝，不需要释放）
+    private final Map<ByteBuf, Flow> flows;
+
+    // 客户端发送过的目标地址 → 回包的Socks5 UDP头
+    private final Map<InetSocketAddress, ByteBuf> headers;
+
+    public UdpRelayHandler(InetAddress clientAddress, InetSocketAddress client, int maxFlows) {
+        this.clientAddress = clientAddress;
+        this.client = client;
+        this.flows = lru(maxFlows, eldest -> {
+        });
+        this.headers = lru(maxFlows, eldest -> eldest.getValue().release());
+    }
+
+    /**
+     * 超过maxFlows时淘汰最久未使用的条目
+     */
+    private static <K, V> Map<K, V> lru(int maxFlows, Consumer<Map.Entry<K, V>> onEvict) {
+        return new LinkedHashMap<K, V>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+                if (size() > maxFlows) {
+                    // 只能释放值，移除条目时还要计算键的hashCode
+                    onEvict.accept(eldest);
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    @Override
+    protected void channelRead0(ChannelHandlerContext ctx, DatagramPacket packet) throws Exception {
+        InetSocketAddress sender = packet.sender();
+        if (isClient(sender)) {
+            forward(ctx, packet.content());
+        } else if (Objects.nonNull(client)) {
+            reply(ctx, sender, packet.content());
+        }
+    }
+
+    @Override
+    public void channelReadComplete(ChannelHandlerContext ctx) {
+        ctx.flush();
+    }
+
+    @Override
+    public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+        flows.clear();
+        headers.values().forEach(ByteBuf::release);
+        headers.clear();
+        super.channelInactive(ctx);
+    }
+
+    @Override
+    public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+        // 单个数据报出错不影响整个关联，任何人都能发来畸形数据报，不按错误记录
+        log.debug("UDP转发出错：{}", cause.getMessage());
+    }
+
+    private boolean isClient(InetSocketAddress sender) {
+        if (Objects.nonNull(client)) {
+            return client.equals(sender);
+        }
+        if (clientAddress.equals(sender.getAddress())) {
+            client = sender;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * +----+------+------+----------+----------+----------+
+     * |RSV | FRAG | ATYP | DST.ADDR | DST.PORT |   DATA   |
+     * +----+------+------+----------+----------+----------+
+     * | 2  |  1   |  1   | Variable |    2     | Variable |
+     * +----+------+------+----------+----------+----------+
+     */
+    private void forward(ChannelHandlerContext ctx, ByteBuf in) throws Exception {
+        // 不支持分片，直接丢弃
+        if (in.readableBytes() < 4 || in.getByte(in.readerIndex() + 2) != 0) {
+            return;
+        }
+        int start = in.readerIndex() + 3;
+        int length = addressLength(in, start);
+        if (length < 0) {
+            return;
+        }
+
+        Flow flow;
+        ByteBuf key = in.retainedSlice(start, length);
+        try {
+            flow = flows.get(key);
+            if (Objects.isNull(flow)) {
+                flow = new Flow();
+                flows.put(Unpooled.copiedBuffer(key), flow);
+            }
+            // 规则重新加载后重新决策
+            if (flow.table != Router.table()) {
+                decide(flow, key.duplicate());
+            }
+        } finally {
+            key.release();
+        }
+        if (flow.dropped) {
+            return;
+        }
+
+        ByteBuf payload = in.retainedSlice(start + length, in.writerIndex() - start - length);
+        if (Objects.nonNull(flow.target)) {
+            headers.computeIfAbsent(flow.target, UdpRelayHandler::encodeHeader);
+            ctx.write(new DatagramPacket(payload, flow.target));
+            return;
+        }
+
+        // 域名目标在第一次解析完成前，每个数据报各自等待解析（解析器合并相同的查询）
+        Flow resolving = flow;
+        DnsResolver.GROUP.getResolver(ctx.channel().eventLoop()).resolve(InetSocketAddress.createUnresolved(flow.host, flow.port))
+                .addListener(new FutureListener<InetSocketAddress>() {
+                    @Override
+                    public void operationComplete(Future<InetSocketAddress> future) {
+                        // 关联已关闭时headers已释放并清空，不能再放入新的UDP头
+                        if (!future.isSuccess() || !ctx.channel().isActive()) {
+                            payload.release();
+                            return;
+                        }
+                        InetSocketAddress target = future.getNow();
+                        if (!Router.permits(target.getAddress())) {
+                            resolving.dropped = true;
+                            payload.release();
+                            return;
+                        }
+                        resolving.target = target;
+                        headers.computeIfAbsent(target, UdpRelayHandler::encodeHeader);
+                        ctx.writeAndFlush(new DatagramPacket(payload, target));
+                    }
+                });
+    }
+
+    /**
+     * 解码目标地址并按当前规则决定是否转发。udp不经由上级代理，
+     * 规则指定经由上级代理的目标默认丢弃，除非配置了{@link ProxyConfig#UDP_UPSTREAM_DIRECT}
+     *
+     * @param flow
+     * @param address ATYP、DST.ADDR、DST.PORT
+     * @throws Exception 地址格式错误
+     */
+    private static void decide(Flow flow, ByteBuf address) throws Exception {
+        Socks5AddressType addressType = Socks5AddressType.valueOf(address.readByte());
+        String host = Socks5AddressDecoder.DEFAULT.decodeAddress(addressType, address);
+        int port = address.readUnsignedShort();
+
+        RouteTable table = Router.table();
+        Route route = table.route(host);
+        flow.table = table;
+        flow.host = host;
+        flow.port = port;
+        flow.dropped = route.isDenied()
+                || (route.getAction() == Route.Action.UPSTREAM && !ProxyConfig.UDP_UPSTREAM_DIRECT);
+        flow.target = addressType == Socks5AddressType.DOMAIN ? null
+                : new InetSocketAddress(InetAddress.getByAddress(NetUtil.createByteArrayFromIpAddressString(host)), port);
+        if (flow.dropped) {
+            log.debug("UDP目标被路由规则丢弃：{} {}", host, route);
+        }
+    }
+
+    /**
+     * @param in
+     * @param start ATYP的位置
+     * @return ATYP、DST.ADDR、DST.PORT的总长度，类型未知或长度不足时返回-1
+     */
+    private static int addressLength(ByteBuf in, int start) {
+        int end = in.writerIndex();
+        if (start >= end) {
+            return -1;
+        }
+
+        byte type = in.getByte(start);
+        int length;
+        if (type == Socks5AddressType.IPv4.byteValue()) {
+            length = 1 + 4 + 2;
+        } else if (type == Socks5AddressType.IPv6.byteValue()) {
+            length = 1 + 16 + 2;
+        } else if (type == Socks5AddressType.DOMAIN.byteValue() && start + 1 < end) {
+            length = 1 + 1 + in.getUnsignedByte(start + 1) + 2;
+        } else {
+            return -1;
+        }
+        return start + length <= end ? length : -1;
+    }
+
+    private void reply(ChannelHandlerContext ctx, InetSocketAddress sender, ByteBuf content) {
+        // 只转发客户端发送过的目标的回包
+        ByteBuf header = headers.get(sender);
+        if (Objects.isNull(header)) {
+            return;
+        }
+
+        ByteBuf out = ctx.alloc().directBuffer(header.readableBytes() + content.readableBytes());
+        out.writeBytes(header, header.readerIndex(), header.readableBytes()).writeBytes(content);
+        ctx.write(new DatagramPacket(out, client));
+    }
+
+    private static ByteBuf encodeHeader(InetSocketAddress address) {
+        byte[] bytes = address.getAddress().getAddress();
+        ByteBuf header = ByteBufAllocator.DEFAULT.directBuffer(4 + bytes.length + 2);
+        header.writeShort(0);
+        header.writeByte(0);
+        header.writeByte(address.getAddress() instanceof Inet4Address
+                ? Socks5AddressType.IPv4.byteValue() : Socks5AddressType.IPv6.byteValue());
+        header.writeBytes(bytes);
+        header.writeShort(address.getPort());
+        return header;
+    }
+
+    /**
+     * 一个目标的解码结果与路由决策
+     */
+    private static final class Flow {
+        // 做出决策时的规则
+        private RouteTable table;
+        private String host;
+        private int port;
+        private boolean dropped;
+        // 域名目标解析完成前为null
+        private InetSocketAddress target;
+    }
+}
@@ -0,0 +1,176 @@
+package com.sokcs.handler.trunk;
+
+import com.sokcs.config.ProxyConfig;
+import com.sokcs.connect.Trunk;
+import com.sokcs.dns.DnsResolver;
+import com.sokcs.handler.socks.DirectClientHandler;
+import com.sokcs.handler.socks.RelayHandler;
+import com.sokcs.route.Route;
+import com.sokcs.route.Router;
+import com.sokcs.utils.TransportUtils;
+import io.netty.bootstrap.Bootstrap;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.ChannelOption;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http2.DefaultHttp2Headers;
+import io.netty.handler.codec.http2.DefaultHttp2HeadersFrame;
+import io.netty.handler.codec.http2.Http2Headers;
+import io.netty.handler.codec.http2.Http2HeadersFrame;
+import io.netty.util.ReferenceCountUtil;
+import io.netty.util.concurrent.FutureListener;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.ArrayDeque;
+import java.util.Objects;
+import java.util.Queue;
+
+/**
+ * 干线服务端的一个流：按CONNECT请求连接目标（同样经过路由规则），成功后回复200并双向转发。
+ * 客户端不等待响应就会发送数据，连接目标期间暂停读取流，已读到的数据排队；
+ * 请求被拒绝或连接目标失败时回复错误后关闭流
+ */
+@Slf4j
+public final class TrunkStreamHandler extends ChannelInboundHandlerAdapter {
+    // 比对的Proxy-Authorization，见Trunk#authorization
+    private final byte[] authorization;
+    private final Queue<Object> pending = new ArrayDeque<>();
+    private boolean requested;
+    // 已回复错误，之后读到的数据直接丢弃
+    private boolean rejected;
+
+    /**
+     * @param authorization 未配置认证时为null，拒绝所有流
+     */
+    public TrunkStreamHandler(byte[] authorization) {
+        this.authorization = authorization;
+    }
+
+    @Override
+    public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+        if (rejected) {
+            ReferenceCountUtil.release(msg);
+            return;
+        }
+        if (requested) {
+            pending.add(msg);
+            return;
+        }
+        if (!(msg instanceof Http2HeadersFrame)) {
+            ReferenceCountUtil.release(msg);
+            ctx.close();
+            return;
+        }
+
+        requested = true;
+        Http2Headers headers = ((Http2HeadersFrame) msg).headers();
+        CharSequence authority = headers.authority();
+        int index = Objects.isNull(authority) ? -1 : authority.toString().lastIndexOf(':');
+        if (!HttpMethod.CONNECT.asciiName().contentEquals(headers.method()) || index <= 0) {
+            reject(ctx, HttpResponseStatus.BAD_REQUEST);
+            return;
+        }
+        if (!Trunk.authorized(headers, authorization)) {
+            log.warn("干线认证失败：{}", ctx.channel().remoteAddress());
+            reject(ctx, HttpResponseStatus.PROXY_AUTHENTICATION_REQUIRED);
+            return;
+        }
+
+        String host = authority.subSequence(0, index).toString();
+        if (host.startsWith("[")) {
+            host = host.substring(1, host.length() - 1);
+        }
+        int port;
+        try {
+            port = Integer.parseInt(authority.subSequence(index + 1, authority.length()).toString());
+        } catch (NumberFormatException e) {
+            reject(ctx, HttpResponseStatus.BAD_REQUEST);
+            return;
+        }
+
+        Route route = Router.route(host);
+        if (route.isDenied()) {
+            log.debug("路由规则拒绝：{}", host);
+            reject(ctx, HttpResponseStatus.FORBIDDEN);
+            return;
+        }
+        connect(ctx, route, host, port);
+    }
+
+    private void connect(ChannelHandlerContext ctx, Route route, String host, int port) {
+        Channel stream = ctx.channel();
+        stream.config().setAutoRead(false);
+        Bootstrap b = new Bootstrap().group(stream.eventLoop())
+                .channel(TransportUtils.socketChannelClass(stream.eventLoop()))
+                .resolver(DnsResolver.GROUP)
+                .option(ChannelOption.CONNECT_TIMEOUT_MILLIS, 10000)
+                .option(ChannelOption.SO_KEEPALIVE, true)
+                // 目标可能先发数据，回复200之前不读取
+                .option(ChannelOption.AUTO_READ, false)
+                .option(ChannelOption.WRITE_BUFFER_WATER_MARK, ProxyConfig.WRITE_BUFFER_WATER_MARK)
+                .handler(DirectClientHandler.INSTANCE);
+
+        route.getConnector().connect(b, host, port).addListener((FutureListener<Channel>) future -> {
+            if (!future.isSuccess()) {
+                log.debug("干线连接目标失败：{}:{} {}", host, port, future.cause().getMessage());
+                reject(ctx, HttpResponseStatus.BAD_GATEWAY);
+                return;
+            }
+
+            Channel outboundChannel = future.getNow();
+            if (!stream.isActive()) {
+                outboundChannel.close();
+                return;
+            }
+
+            respond(ctx, HttpResponseStatus.OK, false);
+            Object msg;
+            while ((msg = pending.poll()) != null) {
+                outboundChannel.write(msg);
+            }
+            outboundChannel.flush();
+            outboundChannel.pipeline().addLast(new RelayHandler(stream));
+            ctx.pipeline().replace(this, null, new RelayHandler(outboundChannel));
+            outboundChannel.config().setAutoRead(true);
+            stream.config().setAutoRead(true);
+        });
+    }
+
+    private static ChannelFuture respond(ChannelHandlerContext ctx, HttpResponseStatus status, boolean endStream) {
+        Http2Headers headers = new DefaultHttp2Headers().status(status.codeAsText());
+        return ctx.writeAndFlush(new DefaultHttp2HeadersFrame(headers, endStream));
+    }
+
+    /**
+     * 回复错误后关闭流，客户端已发出的数据不再读取和排队
+     *
+     * @param ctx
+     * @param status
+     */
+    private void reject(ChannelHandlerContext ctx, HttpResponseStatus status) {
+        rejected = true;
+        Object msg;
+        while ((msg = pending.poll()) != null) {
+            ReferenceCountUtil.release(msg);
+        }
+        ctx.channel().config().setAutoRead(false);
+        respond(ctx, status, true).addListener(ChannelFutureListener.CLOSE);
+    }
+
+    @Override
+    public void handlerRemoved(ChannelHandlerContext ctx) throws Exception {
+        Object msg;
+        while ((msg = pending.poll()) != null) {
+            ReferenceCountUtil.release(msg);
+        }
+    }
+
+    @Override
+    public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) throws Exception {
+        ctx.close();
+    }
+}
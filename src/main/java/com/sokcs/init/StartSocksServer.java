@@ -2,22 +2,27 @@ package com.sokcs.init;
 
 import com.sokcs.certificate.CertificateImpl;
 import com.sokcs.certificate.CertificatePool;
+import com.sokcs.config.ProxyConfig;
+import com.sokcs.connect.HttpConnectionPool;
+import com.sokcs.connect.ParentPool;
+import com.sokcs.connect.Trunk;
 import com.sokcs.handler.http.HandlerName;
 import com.sokcs.handler.http.HttpHandler;
 import com.sokcs.handler.http.HttpProxyAuthorizationHandler;
+import com.sokcs.utils.TransportUtils;
 import io.netty.bootstrap.ServerBootstrap;
 import io.netty.channel.*;
-import io.netty.channel.nio.NioEventLoopGroup;
 import io.netty.channel.socket.SocketChannel;
-import io.netty.channel.socket.nio.NioServerSocketChannel;
-import io.netty.handler.codec.http.HttpObjectAggregator;
 import io.netty.handler.codec.http.HttpServerCodec;
 import io.netty.handler.logging.LogLevel;
 import io.netty.handler.logging.LoggingHandler;
+import io.netty.handler.ssl.SslContext;
 import lombok.extern.slf4j.Slf4j;
 import top.hserver.core.interfaces.InitRunner;
 import top.hserver.core.ioc.annotation.Bean;
 
+import java.util.Objects;
+
 /**
  * @author hxm
  */
@@ -32,6 +37,9 @@ public class StartSocksServer implements InitRunner {
     public void init(String[] strings) {
         startSocksProxy();
         startHttpSocks();
+        if (ProxyConfig.TRUNK_PORT > 0) {
+            startTrunkServer();
+        }
     }
 
 
@@ -39,14 +47,17 @@ public class StartSocksServer implements InitRunner {
         new Thread() {
             @Override
             public void run() {
-                EventLoopGroup bossGroup = new NioEventLoopGroup(1);
-                EventLoopGroup workerGroup = new NioEventLoopGroup();
+                EventLoopGroup bossGroup = TransportUtils.newEventLoopGroup(1);
+                EventLoopGroup workerGroup = TransportUtils.newEventLoopGroup(0);
                 try {
                     ServerBootstrap b = new ServerBootstrap();
                     b.group(bossGroup, workerGroup)
-                            .channel(NioServerSocketChannel.class)
+                            .channel(TransportUtils.serverSocketChannelClass())
                             .handler(new LoggingHandler(LogLevel.INFO))
+                            .childOption(ChannelOption.WRITE_BUFFER_WATER_MARK, ProxyConfig.WRITE_BUFFER_WATER_MARK)
                             .childHandler(new SocksServerInitializer());
+                    TransportUtils.spliceMode(b);
+                    ParentPool.prewarm(workerGroup);
                     try {
                         log.info("Socks代理服务启动成功，运行于 {} 端口", SOCKS_PORT);
                         b.bind(SOCKS_PORT).sync().channel().closeFuture().sync();
@@ -65,23 +76,25 @@ public class StartSocksServer implements InitRunner {
         new Thread() {
             @Override
             public void run() {
-                EventLoopGroup bossGroup = new NioEventLoopGroup();
-                EventLoopGroup workerGroup = new NioEventLoopGroup();
+                EventLoopGroup bossGroup = TransportUtils.newEventLoopGroup(0);
+                EventLoopGroup workerGroup = TransportUtils.newEventLoopGroup(0);
                 try {
                     ServerBootstrap serverBootstrap = new ServerBootstrap();
                     serverBootstrap.group(bossGroup, workerGroup)
-                            .channel(NioServerSocketChannel.class)
+                            .channel(TransportUtils.serverSocketChannelClass())
+                            .childOption(ChannelOption.WRITE_BUFFER_WATER_MARK, ProxyConfig.WRITE_BUFFER_WATER_MARK)
                             .childHandler(new ChannelInitializer<SocketChannel>() {
                                 @Override
                                 protected void initChannel(SocketChannel socketChannel) throws Exception {
                                     ChannelPipeline channelPipeline = socketChannel.pipeline();
 
                                     channelPipeline.addLast(HandlerName.HTTP_SERVER_CODEC, new HttpServerCodec());
-                                    channelPipeline.addLast(HandlerName.HTTP_OBJECT_AGGREGATOR, new HttpObjectAggregator(1024 * 1024 * 512));
                                     channelPipeline.addLast(HandlerName.HTTP_AUTH, new HttpProxyAuthorizationHandler());
                                     channelPipeline.addLast(HandlerName.HTTP_HANDLER, new HttpHandler(null,null,null));
                                 }
                             });
+                    HttpConnectionPool.prewarm(workerGroup);
+                    ParentPool.prewarm(workerGroup);
                     ChannelFuture channelFuture = serverBootstrap.bind(HTTP_PORT).sync();
 
                     log.info("Http代理服务启动成功，运行于 {} 端口", HTTP_PORT);
@@ -100,5 +113,49 @@ public class StartSocksServer implements InitRunner {
 
     }
 
+    /**
+     * 接受其他实例的干线连接，见{@link com.sokcs.connect.Trunk}。
+     * 干线可以连接任意目标，未配置认证信息或启用了TLS却没有证书时不启动
+     */
+    public void startTrunkServer() {
+        if (ProxyConfig.TRUNK_CREDENTIALS.isEmpty()) {
+            log.error("干线服务未配置认证信息（socks.trunk.credentials），不启动");
+            return;
+        }
+        SslContext sslContext = null;
+        if (ProxyConfig.TRUNK_TLS) {
+            sslContext = Trunk.newServerSslContext();
+            if (Objects.isNull(sslContext)) {
+                log.error("干线服务无法启用TLS，不启动");
+                return;
+            }
+        }
+
+        SslContext trunkSslContext = sslContext;
+        new Thread() {
+            @Override
+            public void run() {
+                EventLoopGroup bossGroup = TransportUtils.newEventLoopGroup(1);
+                EventLoopGroup workerGroup = TransportUtils.newEventLoopGroup(0);
+                try {
+                    ServerBootstrap b = new ServerBootstrap();
+                    b.group(bossGroup, workerGroup)
+                            .channel(TransportUtils.serverSocketChannelClass())
+                            .childOption(ChannelOption.SO_KEEPALIVE, true)
+                            .childOption(ChannelOption.WRITE_BUFFER_WATER_MARK, ProxyConfig.WRITE_BUFFER_WATER_MARK)
+                            .childHandler(new TrunkServerInitializer(trunkSslContext, ProxyConfig.TRUNK_CREDENTIALS));
+                    ParentPool.prewarm(workerGroup);
+                    log.info("干线服务启动成功，运行于 {} 端口", ProxyConfig.TRUNK_PORT);
+                    b.bind(ProxyConfig.TRUNK_PORT).sync().channel().closeFuture().sync();
+                } catch (InterruptedException e) {
+                    log.error(e.getMessage());
+                } finally {
+                    bossGroup.shutdownGracefully();
+                    workerGroup.shutdownGracefully();
+                }
+            }
+        }.start();
+    }
+
 
 }
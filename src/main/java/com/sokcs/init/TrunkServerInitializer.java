@@ -0,0 +1,35 @@
+package com.sokcs.init;
+
+import com.sokcs.connect.Trunk;
+import com.sokcs.connect.TrunkStreamCodec;
+import com.sokcs.handler.trunk.TrunkStreamHandler;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.handler.codec.http2.Http2StreamChannel;
+import io.netty.handler.ssl.SslContext;
+
+public final class TrunkServerInitializer extends ChannelInitializer<SocketChannel> {
+    // 未启用TLS时为null
+    private final SslContext sslContext;
+    private final ChannelInitializer<Http2StreamChannel> streamInitializer;
+
+    /**
+     * @param sslContext  未启用TLS时为null
+     * @param credentials 每个流都要带上的user:pass
+     */
+    public TrunkServerInitializer(SslContext sslContext, String credentials) {
+        this.sslContext = sslContext;
+        byte[] authorization = Trunk.authorization(credentials);
+        this.streamInitializer = new ChannelInitializer<Http2StreamChannel>() {
+            @Override
+            protected void initChannel(Http2StreamChannel ch) throws Exception {
+                ch.pipeline().addLast(new TrunkStreamCodec(), new TrunkStreamHandler(authorization));
+            }
+        };
+    }
+
+    @Override
+    public void initChannel(SocketChannel ch) throws Exception {
+        Trunk.server(ch, sslContext, streamInitializer);
+    }
+}
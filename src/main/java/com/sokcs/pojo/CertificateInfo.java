@@ -1,5 +1,6 @@
 package com.sokcs.pojo;
 
+import io.netty.handler.ssl.SslContext;
 import lombok.AllArgsConstructor;
 import lombok.Data;
 
@@ -11,4 +12,13 @@ import java.security.cert.X509Certificate;
 public class CertificateInfo {
     private KeyPair keyPair;
     private X509Certificate x509Certificate;
+    // 使用该证书的服务端SslContext，随证书一起缓存，同一证书的连接共享会话缓存
+    private SslContext sslContext;
+    // 通过ALPN提供h2与http/1.1的SslContext，未启用HTTP/2时为null
+    private SslContext http2SslContext;
+
+    public CertificateInfo(KeyPair keyPair, X509Certificate x509Certificate) {
+        this.keyPair = keyPair;
+        this.x509Certificate = x509Certificate;
+    }
 }
@@ -0,0 +1,280 @@
+package com.sokcs.route;
+
+import io.netty.util.NetUtil;
+
+import java.net.InetAddress;
+import java.util.Objects;
+
+/**
+ * IPv4/IPv6地址段的二叉前缀树，按位向下查找，最长前缀优先，查找次数不超过地址位数。
+ * IPv4与映射到IPv6的IPv4地址（::ffff:a.b.c.d）使用同一棵树。构建完成后只读，可以在多个线程间共享。
+ * 按字符串查找时IPv4解析为int、IPv6解析为两个long，都不产生新对象
+ *
+ * @param <T> 规则对应的值
+ */
+public final class CidrTrie<T> {
+    private final Node<T> ipv4 = new Node<>();
+    private final Node<T> ipv6 = new Node<>();
+    private int size;
+
+    /**
+     * 添加规则，同一地址段重复添加时后者覆盖前者
+     *
+     * @param cidr  "10.0.0.0/8"、"fd00::/8"，不带前缀长度时表示单个地址
+     * @param value
+     */
+    public void put(String cidr, T value) {
+        String pattern = cidr.trim();
+        int index = pattern.indexOf('/');
+        String address = index < 0 ? pattern : pattern.substring(0, index);
+        byte[] bytes = NetUtil.createByteArrayFromIpAddressString(address);
+        if (Objects.isNull(bytes)) {
+            throw new IllegalArgumentException("无效的地址段：" + cidr);
+        }
+
+        int bits = bytes.length * 8;
+        int prefix = index < 0 ? bits : Integer.parseInt(pattern.substring(index + 1));
+        if (prefix < 0 || prefix > bits) {
+            throw new IllegalArgumentException("无效的前缀长度：" + cidr);
+        }
+
+        // 映射的IPv4地址段与查找时一样放到IPv4的树上
+        int offset = 0;
+        if (bytes.length == 16 && isIpv4Mapped(bytes) && prefix >= 96) {
+            offset = 96;
+        }
+        Node<T> node = bytes.length == 4 || offset > 0 ? ipv4 : ipv6;
+        for (int i = offset; i < prefix; i++) {
+            node = node.getOrAdd(bit(bytes, i));
+        }
+        // 覆盖已有规则时不计数
+        if (Objects.isNull(node.value)) {
+            size++;
+        }
+        node.value = value;
+    }
+
+    /**
+     * @param ip IP字面量
+     * @return 不是IP或没有规则命中时返回null
+     */
+    public T match(String ip) {
+        long ipv4Address = parseIpv4(ip);
+        if (ipv4Address >= 0) {
+            return matchIpv4((int) ipv4Address);
+        }
+        if (!NetUtil.isValidIpV6Address(ip)) {
+            return null;
+        }
+        return matchIpv6(parseIpv6(ip, true), parseIpv6(ip, false));
+    }
+
+    public T match(InetAddress address) {
+        return match(address.getAddress());
+    }
+
+    /**
+     * @param bytes 4字节或16字节的地址
+     * @return
+     */
+    public T match(byte[] bytes) {
+        if (bytes.length == 4) {
+            return matchIpv4(toInt(bytes, 0));
+        }
+        return matchIpv6((long) toInt(bytes, 0) << 32 | toInt(bytes, 4) & 0xffffffffL,
+                (long) toInt(bytes, 8) << 32 | toInt(bytes, 12) & 0xffffffffL);
+    }
+
+    /**
+     * @param high 地址的高64位
+     * @param low  地址的低64位
+     * @return
+     */
+    public T matchIpv6(long high, long low) {
+        if (high == 0 && low >>> 32 == 0xffffL) {
+            return matchIpv4((int) low);
+        }
+
+        T matched = ipv6.value;
+        Node<T> node = ipv6;
+        for (int i = 0; i < 128; i++) {
+            node = node.get(((i < 64 ? high >>> 63 - i : low >>> 127 - i) & 1) == 1);
+            if (Objects.isNull(node)) {
+                break;
+            }
+            if (Objects.nonNull(node.value)) {
+                matched = node.value;
+            }
+        }
+        return matched;
+    }
+
+    public T matchIpv4(int address) {
+        T matched = ipv4.value;
+        Node<T> node = ipv4;
+        for (int i = 31; i >= 0; i--) {
+            node = node.get((address >>> i & 1) == 1);
+            if (Objects.isNull(node)) {
+                break;
+            }
+            if (Objects.nonNull(node.value)) {
+                matched = node.value;
+            }
+        }
+        return matched;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * 点分十进制的IPv4地址
+     *
+     * @param ip
+     * @return 地址的无符号值，不是IPv4地址时返回-1
+     */
+    public static long parseIpv4(String ip) {
+        return parseIpv4(ip, 0, ip.length());
+    }
+
+    private static long parseIpv4(String ip, int start, int end) {
+        long address = 0;
+        int part = -1;
+        int dots = 0;
+        for (int i = start; i < end; i++) {
+            char c = ip.charAt(i);
+            if (c == '.') {
+                if (part < 0 || ++dots > 3) {
+                    return -1;
+                }
+                address = address << 8 | part;
+                part = -1;
+            } else if (c >= '0' && c <= '9') {
+                part = part < 0 ? c - '0' : part * 10 + c - '0';
+                if (part > 255) {
+                    return -1;
+                }
+            } else {
+                return -1;
+            }
+        }
+        return dots == 3 && part >= 0 ? address << 8 | part : -1;
+    }
+
+    /**
+     * 冒号分隔的IPv6地址，可以带方括号、区域索引（%eth0）和结尾的IPv4地址，调用前先用{@link NetUtil#isValidIpV6Address(String)}校验
+     *
+     * @param ip
+     * @param high true时返回高64位，false时返回低64位
+     * @return
+     */
+    static long parseIpv6(String ip, boolean high) {
+        int start = ip.charAt(0) == '[' ? 1 : 0;
+        int end = start;
+        while (end < ip.length() && ip.charAt(end) != ']' && ip.charAt(end) != '%') {
+            end++;
+        }
+
+        // "::"之后的组数，结尾的IPv4地址算两组
+        int compressed = ip.indexOf("::", start);
+        int tail = 0;
+        if (compressed >= 0 && compressed < end) {
+            for (int i = compressed + 2; i < end; i++) {
+                char c = ip.charAt(i);
+                if (c == ':' || i == compressed + 2) {
+                    tail++;
+                } else if (c == '.') {
+                    tail++;
+                    break;
+                }
+            }
+        } else {
+            compressed = -1;
+        }
+
+        long half = 0;
+        int group = 0;
+        // 之前各组的按位或，用于识别兼容IPv4地址
+        int prefix = 0;
+        int i = start;
+        while (i < end) {
+            if (i == compressed) {
+                group = 8 - tail;
+                i += 2;
+                continue;
+            }
+            if (ip.charAt(i) == ':') {
+                i++;
+                continue;
+            }
+
+            int value = 0;
+            int j = i;
+            while (j < end && ip.charAt(j) != ':' && ip.charAt(j) != '.') {
+                value = value << 4 | Character.digit(ip.charAt(j), 16);
+                j++;
+            }
+            if (j < end && ip.charAt(j) == '.') {
+                long ipv4 = parseIpv4(ip, i, end);
+                // 与NetUtil一致，::a.b.c.d按映射地址::ffff:a.b.c.d处理
+                if (prefix == 0) {
+                    half = putGroup(half, 5, 0xffff, high);
+                }
+                half = putGroup(half, group++, (int) (ipv4 >>> 16), high);
+                half = putGroup(half, group, (int) ipv4 & 0xffff, high);
+                break;
+            }
+            half = putGroup(half, group++, value, high);
+            prefix |= value;
+            i = j;
+        }
+        return half;
+    }
+
+    private static long putGroup(long half, int group, int value, boolean high) {
+        if (group < 4 == high) {
+            half |= (long) value << 16 * (3 - (group & 3));
+        }
+        return half;
+    }
+
+    private static boolean isIpv4Mapped(byte[] bytes) {
+        for (int i = 0; i < 10; i++) {
+            if (bytes[i] != 0) {
+                return false;
+            }
+        }
+        return bytes[10] == (byte) 0xff && bytes[11] == (byte) 0xff;
+    }
+
+    private static int toInt(byte[] bytes, int offset) {
+        return (bytes[offset] & 0xff) << 24 | (bytes[offset + 1] & 0xff) << 16
+                | (bytes[offset + 2] & 0xff) << 8 | bytes[offset + 3] & 0xff;
+    }
+
+    private static boolean bit(byte[] bytes, int index) {
+        return (bytes[index >>> 3] >>> (7 - (index & 7)) & 1) == 1;
+    }
+
+    private static final class Node<T> {
+        private Node<T> zero;
+        private Node<T> one;
+        private T value;
+
+        private Node<T> get(boolean bit) {
+            return bit ? one : zero;
+        }
+
+        private Node<T> getOrAdd(boolean bit) {
+            if (bit) {
+                return Objects.nonNull(one) ? one : (one = new Node<>());
+            }
+            return Objects.nonNull(zero) ? zero : (zero = new Node<>());
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package com.sokcs.route;
+
+import com.sokcs.connect.OutboundConnector;
+import com.sokcs.connect.ParentGroup;
+
+import java.net.ConnectException;
+
+/**
+ * 一次路由决策的结果。实例在加载规则时创建，决策时直接返回，不产生新对象
+ */
+public final class Route {
+    public static final Route ALLOW = new Route(Action.ALLOW, null, OutboundConnector.DIRECT);
+    public static final Route DENY = new Route(Action.DENY, null, (bootstrap, host, port) ->
+            bootstrap.config().group().next().newFailedFuture(new ConnectException("路由规则拒绝：" + host)));
+
+    private final Action action;
+    // 经由的上级代理，只有UPSTREAM时不为null
+    private final ParentGroup upstream;
+    private final OutboundConnector connector;
+
+    private Route(Action action, ParentGroup upstream, OutboundConnector connector) {
+        this.action = action;
+        this.upstream = upstream;
+        this.connector = connector;
+    }
+
+    public static Route upstream(ParentGroup group) {
+        return new Route(Action.UPSTREAM, group, group);
+    }
+
+    public Action getAction() {
+        return action;
+    }
+
+    public ParentGroup getUpstream() {
+        return upstream;
+    }
+
+    /**
+     * @return 按本决策连接目标的方式，拒绝时返回失败的结果
+     */
+    public OutboundConnector getConnector() {
+        return connector;
+    }
+
+    public boolean isDenied() {
+        return action == Action.DENY;
+    }
+
+    @Override
+    public String toString() {
+        return action == Action.UPSTREAM ? "route " + upstream : action.name().toLowerCase();
+    }
+
+    public enum Action {
+        // 直连
+        ALLOW,
+        // 拒绝
+        DENY,
+        // 经由上级代理
+        UPSTREAM
+    }
+}
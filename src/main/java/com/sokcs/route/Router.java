@@ -0,0 +1,108 @@
+package com.sokcs.route;
+
+import com.sokcs.config.ProxyConfig;
+import com.sokcs.connect.ParentProxy;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * socks与http共用的目标路由，连接目标前调用。
+ * 规则文件（{@link ProxyConfig#ROUTE_FILE}）变化后在后台线程编译出新的{@link RouteTable}整体替换，
+ * 正在进行的决策使用旧表或新表之一，不会看到一半的规则
+ */
+@Slf4j
+public final class Router {
+    private static volatile RouteTable table = RouteTable.EMPTY;
+
+    // 以下只在加载线程中访问
+    private static long lastModified;
+    private static long length;
+
+    static {
+        String file = ProxyConfig.ROUTE_FILE;
+        if (Objects.nonNull(file) && !file.isEmpty()) {
+            Path path = Paths.get(file);
+            if (!reload(path)) {
+                // 配置了规则却无法加载时不放行任何目标，文件修复后自动恢复
+                table = RouteTable.DENY_ALL;
+            }
+
+            ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(new DefaultThreadFactory("route-reload", true));
+            executor.scheduleWithFixedDelay(() -> reload(path), ProxyConfig.ROUTE_RELOAD_INTERVAL_MILLIS,
+                    ProxyConfig.ROUTE_RELOAD_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private Router() {
+    }
+
+    /**
+     * @return 当前使用的规则
+     */
+    public static RouteTable table() {
+        return table;
+    }
+
+    /**
+     * @param host 域名或IP字面量
+     * @return
+     */
+    public static Route route(String host) {
+        return table.route(host);
+    }
+
+    /**
+     * 域名解析出的地址是否可以连接
+     *
+     * @param address
+     * @return
+     */
+    public static boolean permits(InetAddress address) {
+        return table.permits(address);
+    }
+
+    /**
+     * 文件的修改时间或大小变化时重新加载，格式错误时保留当前规则
+     *
+     * @param path
+     * @return 当前规则是否来自文件
+     */
+    static synchronized boolean reload(Path path) {
+        try {
+            long modified = Files.getLastModifiedTime(path).toMillis();
+            long size = Files.size(path);
+            if (modified == lastModified && size == length) {
+                return true;
+            }
+
+            List<String> lines = Files.readAllLines(path, StandardCharsets.UTF_8);
+            RouteTable routeTable = RouteTable.parse(lines);
+            table = routeTable;
+            ParentProxy.retain(routeTable.parents());
+            lastModified = modified;
+            length = size;
+            log.info("加载路由规则：{}，规则数：{}", path, routeTable.size());
+            return true;
+        } catch (IOException | IllegalArgumentException e) {
+            // 同一个错误文件只提示一次
+            if (lastModified != -1) {
+                log.error("加载路由规则失败，保留当前规则：{} {}", path, e.getMessage());
+                lastModified = -1;
+                length = -1;
+            }
+            return false;
+        }
+    }
+}
@@ -3,6 +3,7 @@ package com.sokcs.utils;
 import io.netty.buffer.Unpooled;
 import io.netty.channel.Channel;
 import io.netty.channel.ChannelFutureListener;
+import io.netty.util.ReferenceCountUtil;
 
 import java.util.Objects;
 
@@ -18,4 +19,42 @@ public final class ChannelUtils {
             channel.writeAndFlush(msg);
         }
     }
+
+    /**
+     * 转发数据，只写入不刷新，由源通道在channelReadComplete时调用{@link #flush}，一次读取批次只产生一次写系统调用。
+     * 目标通道超过高水位时暂停读取源通道，由目标通道可写后通过{@link #resumeRead}恢复
+     *
+     * @param source
+     * @param target
+     * @param msg
+     */
+    public static void relay(Channel source, Channel target, Object msg) {
+        if (Objects.isNull(target) || !target.isActive()) {
+            ReferenceCountUtil.release(msg);
+            return;
+        }
+
+        target.write(msg);
+        if (!target.isWritable()) {
+            source.config().setAutoRead(false);
+        }
+    }
+
+    public static void flush(Channel channel) {
+        if (Objects.nonNull(channel) && channel.isActive()) {
+            channel.flush();
+        }
+    }
+
+    /**
+     * 目标通道重新可写时恢复读取源通道
+     *
+     * @param target
+     * @param source
+     */
+    public static void resumeRead(Channel target, Channel source) {
+        if (target.isWritable() && Objects.nonNull(source) && source.isActive()) {
+            source.config().setAutoRead(true);
+        }
+    }
 }
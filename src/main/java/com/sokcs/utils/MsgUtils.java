@@ -1,22 +1,24 @@
 package com.sokcs.utils;
 
-import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.buffer.Unpooled;
+import io.netty.handler.codec.http.DefaultFullHttpRequest;
+import io.netty.handler.codec.http.EmptyHttpHeaders;
 import io.netty.handler.codec.http.FullHttpRequest;
-import io.netty.handler.codec.http.HttpRequestEncoder;
+import io.netty.handler.codec.http.HttpRequest;
 
 public final class MsgUtils {
     /**
-     * 将请求转化为原始数据
+     * 交给捕获者的请求，未聚合时只有请求头
      *
-     * @param fullHttpRequest
+     * @param httpRequest
      * @return
      */
-    public static Object fromHttpRequest(FullHttpRequest fullHttpRequest) {
-        EmbeddedChannel embeddedChannel = new EmbeddedChannel(new HttpRequestEncoder());
-        embeddedChannel.writeOutbound(fullHttpRequest);
-        Object object = embeddedChannel.readOutbound();
-        embeddedChannel.close();
+    public static FullHttpRequest fullHttpRequest(HttpRequest httpRequest) {
+        if (httpRequest instanceof FullHttpRequest) {
+            return (FullHttpRequest) httpRequest;
+        }
 
-        return object;
+        return new DefaultFullHttpRequest(httpRequest.protocolVersion(), httpRequest.method(), httpRequest.uri(),
+                Unpooled.EMPTY_BUFFER, httpRequest.headers(), EmptyHttpHeaders.INSTANCE);
     }
 }
@@ -0,0 +1,166 @@
+package com.sokcs.utils;
+
+import com.sokcs.config.ProxyConfig;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.handler.ssl.ApplicationProtocolConfig;
+import io.netty.handler.ssl.ApplicationProtocolNames;
+import io.netty.handler.ssl.OpenSsl;
+import io.netty.handler.ssl.OpenSslSessionContext;
+import io.netty.handler.ssl.OpenSslSessionTicketKey;
+import io.netty.handler.ssl.SslContext;
+import io.netty.handler.ssl.SslContextBuilder;
+import io.netty.handler.ssl.SslHandler;
+import io.netty.handler.ssl.SslProvider;
+import io.netty.handler.ssl.util.InsecureTrustManagerFactory;
+import lombok.extern.slf4j.Slf4j;
+
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLException;
+import javax.net.ssl.SSLParameters;
+import java.security.SecureRandom;
+
+/**
+ * TLS实现选择：netty-tcnative（BoringSSL）可用时优先使用，否则回退到JDK
+ */
+@Slf4j
+public final class SslUtils {
+    private static final SslProvider PROVIDER = selectProvider();
+
+    // 所有服务端SslContext共用的会话票据密钥，进程内有效；只有OpenSSL可用时才能创建
+    private static final OpenSslSessionTicketKey TICKET_KEY = PROVIDER == SslProvider.OPENSSL ? newTicketKey() : null;
+
+    // 连接目标服务器使用的TLS客户端，所有被捕获的连接共用会话缓存
+    private static final SslContext CLIENT_CONTEXT = newClientContext(ApplicationProtocolNames.HTTP_1_1);
+
+    // 同时提供h2的TLS客户端，未启用HTTP/2时为null
+    private static final SslContext HTTP2_CLIENT_CONTEXT = isHttp2()
+            ? newClientContext(ApplicationProtocolNames.HTTP_2, ApplicationProtocolNames.HTTP_1_1) : null;
+
+    private SslUtils() {
+    }
+
+    public static SslProvider provider() {
+        return PROVIDER;
+    }
+
+    /**
+     * OpenSSL服务端启用会话票据，客户端不必命中服务端会话缓存也能恢复会话。
+     * JDK实现是否支持由JDK版本决定，这里不做处理
+     *
+     * @param sslContext
+     * @return
+     */
+    public static SslContext enableSessionTickets(SslContext sslContext) {
+        if (TICKET_KEY != null && sslContext.sessionContext() instanceof OpenSslSessionContext) {
+            ((OpenSslSessionContext) sslContext.sessionContext()).setTicketKeys(TICKET_KEY);
+        }
+        return sslContext;
+    }
+
+    public static SslContext clientContext() {
+        return CLIENT_CONTEXT;
+    }
+
+    public static SslContext http2ClientContext() {
+        return HTTP2_CLIENT_CONTEXT;
+    }
+
+    /**
+     * 两端都需要ALPN才能协商h2
+     *
+     * @return
+     */
+    public static boolean isHttp2() {
+        return ProxyConfig.HTTP2_ENABLED && SslProvider.isAlpnSupported(PROVIDER) && SslProvider.isAlpnSupported(SslProvider.JDK);
+    }
+
+    /**
+     * ALPN配置，对端不支持时按HTTP/1.1继续
+     *
+     * @param protocols 按优先级排列
+     * @return
+     */
+    public static ApplicationProtocolConfig alpn(String... protocols) {
+        return new ApplicationProtocolConfig(ApplicationProtocolConfig.Protocol.ALPN,
+                ApplicationProtocolConfig.SelectorFailureBehavior.NO_ADVERTISE,
+                ApplicationProtocolConfig.SelectedListenerFailureBehavior.ACCEPT,
+                protocols);
+    }
+
+    /**
+     * 创建连接目标服务器的SslHandler，带上host和port才会发送SNI并按host:port复用会话
+     *
+     * @param sslContext
+     * @param alloc
+     * @param host
+     * @param port
+     * @return
+     */
+    public static SslHandler newClientHandler(SslContext sslContext, ByteBufAllocator alloc, String host, int port) {
+        SslHandler sslHandler = sslContext.newHandler(alloc, host, port);
+        if (!ProxyConfig.SSL_UPSTREAM_INSECURE) {
+            // 校验证书中的域名与目标一致
+            SSLEngine engine = sslHandler.engine();
+            SSLParameters sslParameters = engine.getSSLParameters();
+            sslParameters.setEndpointIdentificationAlgorithm("HTTPS");
+            engine.setSSLParameters(sslParameters);
+        }
+        return sslHandler;
+    }
+
+    private static SslContext newClientContext(String... protocols) {
+        try {
+            // 当前Netty版本的OpenSSL引擎没有客户端会话缓存，上游使用JDK实现才能恢复会话
+            SslContextBuilder builder = SslContextBuilder.forClient()
+                    .sslProvider(SslProvider.JDK)
+                    .sessionCacheSize(ProxyConfig.SSL_UPSTREAM_SESSION_CACHE_SIZE)
+                    .sessionTimeout(ProxyConfig.SSL_SESSION_TIMEOUT);
+
+            if (ProxyConfig.SSL_UPSTREAM_INSECURE) {
+                builder.trustManager(InsecureTrustManagerFactory.INSTANCE);
+            }
+
+            if (SslProvider.isAlpnSupported(SslProvider.JDK)) {
+                builder.applicationProtocolConfig(alpn(protocols));
+            }
+
+            return builder.build();
+        } catch (SSLException e) {
+            log.error("创建上游TLS客户端失败：{}", e.getMessage());
+        }
+
+        return null;
+    }
+
+    private static SslProvider selectProvider() {
+        String provider = ProxyConfig.SSL_PROVIDER;
+        if ("jdk".equalsIgnoreCase(provider)) {
+            log.info("使用JDK TLS实现");
+            return SslProvider.JDK;
+        }
+
+        if (OpenSsl.isAvailable()) {
+            log.info("使用OpenSSL TLS实现：{}", OpenSsl.versionString());
+            return SslProvider.OPENSSL;
+        }
+
+        if ("openssl".equalsIgnoreCase(provider)) {
+            log.warn("OpenSSL不可用，回退到JDK TLS实现，原因：{}", OpenSsl.unavailabilityCause().getMessage());
+        } else {
+            log.info("使用JDK TLS实现");
+        }
+        return SslProvider.JDK;
+    }
+
+    private static OpenSslSessionTicketKey newTicketKey() {
+        SecureRandom random = new SecureRandom();
+        byte[] name = new byte[OpenSslSessionTicketKey.NAME_SIZE];
+        byte[] hmacKey = new byte[OpenSslSessionTicketKey.HMAC_KEY_SIZE];
+        byte[] aesKey = new byte[OpenSslSessionTicketKey.AES_KEY_SIZE];
+        random.nextBytes(name);
+        random.nextBytes(hmacKey);
+        random.nextBytes(aesKey);
+
+        return new OpenSslSessionTicketKey(name, hmacKey, aesKey);
+    }
+}
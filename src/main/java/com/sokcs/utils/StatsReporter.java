@@ -0,0 +1,54 @@
+package com.sokcs.utils;
+
+import com.sokcs.config.ProxyConfig;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * 每隔{@link ProxyConfig#STATS_INTERVAL_SECONDS}秒在日志中输出一次各模块注册的运行统计
+ */
+@Slf4j
+public final class StatsReporter {
+    private static final Map<String, Supplier<String>> SOURCES = new ConcurrentSkipListMap<>();
+
+    static {
+        if (ProxyConfig.STATS_INTERVAL_SECONDS > 0) {
+            ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(new DefaultThreadFactory("stats", true));
+            executor.scheduleWithFixedDelay(StatsReporter::report, ProxyConfig.STATS_INTERVAL_SECONDS,
+                    ProxyConfig.STATS_INTERVAL_SECONDS, TimeUnit.SECONDS);
+        }
+    }
+
+    private StatsReporter() {
+    }
+
+    /**
+     * 同名的统计后注册的替换先注册的
+     *
+     * @param name
+     * @param source 在统计线程中调用，返回一行描述
+     */
+    public static void register(String name, Supplier<String> source) {
+        SOURCES.put(name, source);
+    }
+
+    /**
+     * 立即输出一次
+     */
+    public static void report() {
+        SOURCES.forEach((name, source) -> {
+            try {
+                log.info("{}：{}", name, source.get());
+            } catch (RuntimeException e) {
+                log.warn("获取统计失败：{} {}", name, e.getMessage());
+            }
+        });
+    }
+}
@@ -0,0 +1,130 @@
+package com.sokcs.utils;
+
+import com.sokcs.config.ProxyConfig;
+import io.netty.bootstrap.Bootstrap;
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.EventLoop;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.epoll.Epoll;
+import io.netty.channel.epoll.EpollChannelOption;
+import io.netty.channel.epoll.EpollDatagramChannel;
+import io.netty.channel.epoll.EpollEventLoopGroup;
+import io.netty.channel.epoll.EpollMode;
+import io.netty.channel.epoll.EpollServerSocketChannel;
+import io.netty.channel.epoll.EpollSocketChannel;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.DatagramChannel;
+import io.netty.channel.socket.ServerSocketChannel;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.socket.nio.NioDatagramChannel;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * 传输层选择：Linux下优先使用epoll，不可用时回退到NIO
+ */
+@Slf4j
+public final class TransportUtils {
+    private static final boolean EPOLL = Epoll.isAvailable();
+
+    static {
+        if (EPOLL) {
+            log.info("使用epoll传输");
+        } else {
+            log.info("epoll不可用，使用NIO传输，原因：{}", Epoll.unavailabilityCause().getMessage());
+        }
+    }
+
+    private TransportUtils() {
+    }
+
+    public static boolean isEpoll() {
+        return EPOLL;
+    }
+
+    /**
+     * 创建线程组
+     *
+     * @param nThreads 0表示使用默认线程数
+     * @return
+     */
+    public static EventLoopGroup newEventLoopGroup(int nThreads) {
+        return EPOLL ? new EpollEventLoopGroup(nThreads) : new NioEventLoopGroup(nThreads);
+    }
+
+    public static Class<? extends ServerSocketChannel> serverSocketChannelClass() {
+        return EPOLL ? EpollServerSocketChannel.class : NioServerSocketChannel.class;
+    }
+
+    /**
+     * 出站连接的通道类型必须与所在的EventLoop匹配
+     *
+     * @param eventLoop
+     * @return
+     */
+    public static Class<? extends SocketChannel> socketChannelClass(EventLoop eventLoop) {
+        return eventLoop.parent() instanceof EpollEventLoopGroup ? EpollSocketChannel.class : NioSocketChannel.class;
+    }
+
+    public static Class<? extends DatagramChannel> datagramChannelClass() {
+        return EPOLL ? EpollDatagramChannel.class : NioDatagramChannel.class;
+    }
+
+    public static Class<? extends DatagramChannel> datagramChannelClass(EventLoop eventLoop) {
+        return eventLoop.parent() instanceof EpollEventLoopGroup ? EpollDatagramChannel.class : NioDatagramChannel.class;
+    }
+
+    public static boolean isSplice() {
+        return EPOLL && ProxyConfig.SPLICE_ENABLED;
+    }
+
+    /**
+     * splice要求两端都是水平触发，且必须在注册前设置
+     *
+     * @param serverBootstrap
+     */
+    public static void spliceMode(ServerBootstrap serverBootstrap) {
+        if (isSplice()) {
+            serverBootstrap.childOption(EpollChannelOption.EPOLL_MODE, EpollMode.LEVEL_TRIGGERED);
+        }
+    }
+
+    public static void spliceMode(Bootstrap bootstrap) {
+        if (isSplice()) {
+            bootstrap.option(EpollChannelOption.EPOLL_MODE, EpollMode.LEVEL_TRIGGERED);
+        }
+    }
+
+    /**
+     * 在两个通道间建立双向splice，数据在内核中直接转发，不经过用户态
+     *
+     * @param inboundChannel
+     * @param outboundChannel
+     * @return 不满足条件（非epoll、非水平触发）时返回false，由调用方继续使用RelayHandler
+     */
+    public static boolean splice(Channel inboundChannel, Channel outboundChannel) {
+        if (!isSplice() || !(inboundChannel instanceof EpollSocketChannel) || !(outboundChannel instanceof EpollSocketChannel)) {
+            return false;
+        }
+
+        EpollSocketChannel inbound = (EpollSocketChannel) inboundChannel;
+        EpollSocketChannel outbound = (EpollSocketChannel) outboundChannel;
+        if (inbound.config().getEpollMode() != EpollMode.LEVEL_TRIGGERED
+                || outbound.config().getEpollMode() != EpollMode.LEVEL_TRIGGERED) {
+            return false;
+        }
+
+        ChannelFutureListener closeOnFailure = future -> {
+            if (!future.isSuccess()) {
+                SocksServerUtils.closeOnFlush(inbound);
+                SocksServerUtils.closeOnFlush(outbound);
+            }
+        };
+        inbound.spliceTo(outbound, Integer.MAX_VALUE).addListener(closeOnFailure);
+        outbound.spliceTo(inbound, Integer.MAX_VALUE).addListener(closeOnFailure);
+        return true;
+    }
+}
@@ -0,0 +1,115 @@
+package com.sokcs.auth;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class CredentialCacheTest {
+    private static final long TTL_SECONDS = 60;
+
+    private final AtomicLong nanos = new AtomicLong();
+    private StubAuthenticator backend;
+
+    @After
+    public void tearDown() {
+        if (backend != null) {
+            backend.release();
+        }
+    }
+
+    @Test
+    public void concurrentLoginsShareOneLookup() throws Exception {
+        backend = new StubAuthenticator("alice", "secret", true);
+        CredentialCache cache = cache(backend);
+
+        List<CompletableFuture<Boolean>> results = new ArrayList<>();
+        for (int i = 0; i < 30; i++) {
+            results.add(cache.authenticate("alice", "secret"));
+        }
+        assertFalse(results.get(0).isDone());
+
+        backend.release();
+        for (CompletableFuture<Boolean> result : results) {
+            assertTrue(result.get(5, TimeUnit.SECONDS));
+        }
+        assertEquals(1, backend.calls());
+    }
+
+    @Test
+    public void differentPasswordDoesNotJoinPendingLookup() throws Exception {
+        backend = new StubAuthenticator("alice", "secret", true);
+        CredentialCache cache = cache(backend);
+
+        CompletableFuture<Boolean> right = cache.authenticate("alice", "secret");
+        CompletableFuture<Boolean> wrong = cache.authenticate("alice", "guess");
+        backend.release();
+        assertTrue(right.get(5, TimeUnit.SECONDS));
+        assertFalse(wrong.get(5, TimeUnit.SECONDS));
+        assertEquals(2, backend.calls());
+    }
+
+    @Test
+    public void cacheHitSkipsBackend() throws Exception {
+        backend = new StubAuthenticator("alice", "secret", false);
+        CredentialCache cache = cache(backend);
+
+        assertTrue(cache.authenticate("alice", "secret").get(5, TimeUnit.SECONDS));
+        CompletableFuture<Boolean> hit = cache.authenticate("alice", "secret");
+        assertTrue(hit.isDone());
+        assertTrue(hit.get());
+        assertEquals(1, backend.calls());
+    }
+
+    @Test
+    public void wrongPasswordAfterCacheHitReachesBackend() throws Exception {
+        backend = new StubAuthenticator("alice", "secret", false);
+        CredentialCache cache = cache(backend);
+
+        assertTrue(cache.authenticate("alice", "secret").get(5, TimeUnit.SECONDS));
+        assertTrue(cache.authenticate("alice", "secret").get(5, TimeUnit.SECONDS));
+        assertFalse(cache.authenticate("alice", "guess").get(5, TimeUnit.SECONDS));
+        assertEquals(2, backend.calls());
+
+        // 错误的密码不影响已缓存的条目
+        assertTrue(cache.authenticate("alice", "secret").get(5, TimeUnit.SECONDS));
+        assertEquals(2, backend.calls());
+    }
+
+    @Test
+    public void expiredEntryIsVerifiedAgain() throws Exception {
+        backend = new StubAuthenticator("alice", "secret", false);
+        CredentialCache cache = cache(backend);
+
+        assertTrue(cache.authenticate("alice", "secret").get(5, TimeUnit.SECONDS));
+        nanos.addAndGet(TimeUnit.SECONDS.toNanos(TTL_SECONDS - 1));
+        assertTrue(cache.authenticate("alice", "secret").get(5, TimeUnit.SECONDS));
+        assertEquals(1, backend.calls());
+
+        nanos.addAndGet(TimeUnit.SECONDS.toNanos(2));
+        assertTrue(cache.authenticate("alice", "secret").get(5, TimeUnit.SECONDS));
+        assertEquals(2, backend.calls());
+    }
+
+    @Test
+    public void rejectedLoginIsNotCached() throws Exception {
+        backend = new StubAuthenticator("alice", "secret", false);
+        CredentialCache cache = cache(backend);
+
+        assertFalse(cache.authenticate("alice", "guess").get(5, TimeUnit.SECONDS));
+        assertFalse(cache.authenticate("alice", "guess").get(5, TimeUnit.SECONDS));
+        assertEquals(2, backend.calls());
+    }
+
+    private CredentialCache cache(Authenticator backend) {
+        return new CredentialCache(backend, TTL_SECONDS, 100, nanos::get);
+    }
+}
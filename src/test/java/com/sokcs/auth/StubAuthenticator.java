@@ -0,0 +1,38 @@
+package com.sokcs.auth;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 测试用的阻塞后端：只接受一组用户名密码，记录查询次数；创建时可以关闭闸门，查询阻塞到{@link #release()}为止
+ */
+public class StubAuthenticator extends BlockingAuthenticator {
+    private final String username;
+    private final String password;
+    private final CountDownLatch gate;
+    private final AtomicInteger calls = new AtomicInteger();
+
+    public StubAuthenticator(String username, String password, boolean blocked) {
+        this.username = username;
+        this.password = password;
+        this.gate = new CountDownLatch(blocked ? 1 : 0);
+    }
+
+    public void release() {
+        gate.countDown();
+    }
+
+    /**
+     * @return 已开始的后端查询次数
+     */
+    public int calls() {
+        return calls.get();
+    }
+
+    @Override
+    protected boolean verify(String username, String password) throws Exception {
+        calls.incrementAndGet();
+        gate.await();
+        return this.username.equals(username) && this.password.equals(password);
+    }
+}
@@ -0,0 +1,303 @@
+package com.sokcs.connect;
+
+import com.sokcs.init.TrunkServerInitializer;
+import com.sokcs.utils.TransportUtils;
+import io.netty.bootstrap.Bootstrap;
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.handler.codec.LineBasedFrameDecoder;
+import io.netty.handler.codec.http2.Http2StreamChannel;
+import io.netty.handler.ssl.SslContext;
+import io.netty.handler.ssl.util.SelfSignedCertificate;
+import io.netty.util.concurrent.Future;
+import io.netty.util.concurrent.FutureListener;
+import io.netty.util.concurrent.Promise;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import javax.net.ssl.SSLException;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 本机上的干线：TLS与证书校验，流的认证，200之前发出的数据，END_STREAM与关闭
+ */
+public class TrunkTest {
+    private static final String CREDENTIALS = "user:secret";
+    private static final String CLOSED = "<closed>";
+
+    private static SelfSignedCertificate certificate;
+
+    private EventLoopGroup group;
+    private EchoTarget target;
+    private Channel server;
+
+    @BeforeClass
+    public static void setUpClass() throws Exception {
+        certificate = new SelfSignedCertificate("localhost");
+    }
+
+    @AfterClass
+    public static void tearDownClass() {
+        certificate.delete();
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        group = TransportUtils.newEventLoopGroup(1);
+        target = new EchoTarget();
+        SslContext sslContext = Trunk.newServerSslContext(certificate.certificate().getPath(), certificate.privateKey().getPath());
+        server = new ServerBootstrap().group(group)
+                .channel(TransportUtils.serverSocketChannelClass())
+                .childHandler(new TrunkServerInitializer(sslContext, CREDENTIALS))
+                .bind("127.0.0.1", 0).sync().channel();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        server.close().sync();
+        target.close();
+        group.shutdownGracefully(0, 1, TimeUnit.SECONDS).sync();
+    }
+
+    @Test
+    public void dataSentBeforeResponseIsForwarded() throws Exception {
+        ParentProxy parent = parent(CREDENTIALS, "localhost");
+        Channel trunk = open(parent, trusting()).get(5, TimeUnit.SECONDS);
+
+        BlockingQueue<String> received = new LinkedBlockingQueue<>();
+        // 打开流后立即写入，此时对端还未回复200
+        Channel stream = openStream(trunk, parent, received, "early\n").get(5, TimeUnit.SECONDS);
+        assertEquals("early", received.poll(5, TimeUnit.SECONDS));
+        write(stream, "ping\n");
+        assertEquals("ping", received.poll(5, TimeUnit.SECONDS));
+        assertEquals(1, target.connections.get());
+        trunk.close().sync();
+    }
+
+    @Test
+    public void closingStreamEndsTarget() throws Exception {
+        ParentProxy parent = parent(CREDENTIALS, "localhost");
+        Channel trunk = open(parent, trusting()).get(5, TimeUnit.SECONDS);
+
+        BlockingQueue<String> received = new LinkedBlockingQueue<>();
+        Channel stream = openStream(trunk, parent, received, "ping\n").get(5, TimeUnit.SECONDS);
+        assertEquals("ping", received.poll(5, TimeUnit.SECONDS));
+
+        // 本端发送END_STREAM，对端关闭到目标的连接
+        stream.close().sync();
+        assertEquals("eof", target.events.poll(5, TimeUnit.SECONDS));
+        // 干线连接继续可用
+        assertTrue(trunk.isActive());
+        trunk.close().sync();
+    }
+
+    @Test
+    public void targetCloseEndsStream() throws Exception {
+        ParentProxy parent = parent(CREDENTIALS, "localhost");
+        Channel trunk = open(parent, trusting()).get(5, TimeUnit.SECONDS);
+
+        BlockingQueue<String> received = new LinkedBlockingQueue<>();
+        Channel stream = openStream(trunk, parent, received, "last\nbye\n").get(5, TimeUnit.SECONDS);
+        // 目标关闭前发出的数据不会丢失
+        assertEquals("last", received.poll(5, TimeUnit.SECONDS));
+        assertEquals(CLOSED, received.poll(5, TimeUnit.SECONDS));
+        assertFalse(stream.isActive());
+        assertTrue(trunk.isActive());
+        trunk.close().sync();
+    }
+
+    @Test
+    public void wrongCredentialsCloseStream() throws Exception {
+        ParentProxy parent = parent("user:wrong", "localhost");
+        Channel trunk = open(parent, trusting()).get(5, TimeUnit.SECONDS);
+
+        BlockingQueue<String> received = new LinkedBlockingQueue<>();
+        openStream(trunk, parent, received, "ping\n").get(5, TimeUnit.SECONDS);
+        assertEquals(CLOSED, received.poll(5, TimeUnit.SECONDS));
+        assertNull(received.poll(100, TimeUnit.MILLISECONDS));
+        assertEquals(0, target.connections.get());
+        trunk.close().sync();
+    }
+
+    @Test
+    public void untrustedCertificateFails() throws Exception {
+        // 只信任系统的CA
+        Future<Channel> future = open(parent(CREDENTIALS, "localhost"), Trunk.newClientSslContext(""));
+        assertTrue(future.await(5, TimeUnit.SECONDS));
+        assertTrue(String.valueOf(future.cause()), future.cause() instanceof SSLException);
+    }
+
+    @Test
+    public void certificateMustMatchHost() throws Exception {
+        // 证书签发给localhost
+        Future<Channel> future = open(parent(CREDENTIALS, "127.0.0.1"), trusting());
+        assertTrue(future.await(5, TimeUnit.SECONDS));
+        assertTrue(String.valueOf(future.cause()), future.cause() instanceof SSLException);
+    }
+
+    private ParentProxy parent(String credentials, String host) {
+        return ParentProxy.parse("trunk://" + credentials + "@" + host + ":" + ((InetSocketAddress) server.localAddress()).getPort());
+    }
+
+    private static SslContext trusting() {
+        return Trunk.newClientSslContext(certificate.certificate().getPath());
+    }
+
+    private Future<Channel> open(ParentProxy parent, SslContext sslContext) {
+        Promise<Channel> promise = group.next().newPromise();
+        new Bootstrap().group(group)
+                .channel(TransportUtils.socketChannelClass(group.next()))
+                .handler(new ChannelInboundHandlerAdapter())
+                .connect("127.0.0.1", parent.getPort())
+                .addListener((ChannelFutureListener) future -> {
+                    if (!future.isSuccess()) {
+                        promise.tryFailure(future.cause());
+                        return;
+                    }
+                    Trunk.client(future.channel(), parent, sslContext).addListener((FutureListener<Channel>) trunkFuture -> {
+                        if (trunkFuture.isSuccess()) {
+                            promise.trySuccess(trunkFuture.getNow());
+                        } else {
+                            promise.tryFailure(trunkFuture.cause());
+                        }
+                    });
+                });
+        return promise;
+    }
+
+    /**
+     * @param received 流上按行收到的数据，关闭时为{@link #CLOSED}
+     * @param data     打开流后立即写入的数据
+     */
+    private Future<Channel> openStream(Channel trunk, ParentProxy parent, BlockingQueue<String> received, String data) {
+        Promise<Channel> promise = trunk.eventLoop().newPromise();
+        Trunk.openStream(trunk, parent, "127.0.0.1", target.port()).addListener((FutureListener<Http2StreamChannel>) future -> {
+            if (!future.isSuccess()) {
+                promise.tryFailure(future.cause());
+                return;
+            }
+            Http2StreamChannel stream = future.getNow();
+            stream.pipeline().addLast(new LineBasedFrameDecoder(1024));
+            stream.pipeline().addLast(new SimpleChannelInboundHandler<ByteBuf>() {
+                @Override
+                protected void channelRead0(ChannelHandlerContext ctx, ByteBuf msg) {
+                    received.add(msg.toString(StandardCharsets.US_ASCII));
+                }
+
+                @Override
+                public void channelInactive(ChannelHandlerContext ctx) {
+                    received.add(CLOSED);
+                }
+            });
+            write(stream, data);
+            promise.trySuccess(stream);
+        });
+        return promise;
+    }
+
+    private static void write(Channel channel, String data) {
+        channel.writeAndFlush(channel.alloc().buffer().writeBytes(data.getBytes(StandardCharsets.US_ASCII)));
+    }
+
+    /**
+     * 目标服务器，每个连接一个线程：按行回显，收到bye时关闭连接，对端关闭时记录eof
+     */
+    private static final class EchoTarget implements Closeable {
+        private final ServerSocket server;
+        private final BlockingQueue<String> events = new LinkedBlockingQueue<>();
+        private final AtomicInteger connections = new AtomicInteger();
+
+        private EchoTarget() throws IOException {
+            this.server = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+            Thread thread = new Thread(this::accept, "echo-target");
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        private int port() {
+            return server.getLocalPort();
+        }
+
+        private void accept() {
+            while (!server.isClosed()) {
+                try {
+                    Socket socket = server.accept();
+                    connections.incrementAndGet();
+                    Thread thread = new Thread(() -> serve(socket), "echo-target-connection");
+                    thread.setDaemon(true);
+                    thread.start();
+                } catch (IOException e) {
+                    return;
+                }
+            }
+        }
+
+        private void serve(Socket socket) {
+            try (Socket s = socket) {
+                InputStream in = s.getInputStream();
+                OutputStream out = s.getOutputStream();
+                String line;
+                while (!(line = readLine(in)).isEmpty()) {
+                    if ("bye\n".equals(line)) {
+                        return;
+                    }
+                    out.write(line.getBytes(StandardCharsets.US_ASCII));
+                    out.flush();
+                }
+                events.add("eof");
+            } catch (SocketException e) {
+                events.add("reset");
+            } catch (IOException e) {
+                events.add("error " + e);
+            }
+        }
+
+        /**
+         * @return 包含换行符的一行，连接关闭时为空串
+         */
+        private static String readLine(InputStream in) throws IOException {
+            ByteArrayOutputStream line = new ByteArrayOutputStream();
+            int b;
+            while ((b = in.read()) >= 0) {
+                line.write(b);
+                if (b == '\n') {
+                    break;
+                }
+            }
+            return line.toString("US-ASCII");
+        }
+
+        @Override
+        public void close() throws IOException {
+            server.close();
+        }
+    }
+}
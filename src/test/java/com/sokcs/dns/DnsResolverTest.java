@@ -0,0 +1,187 @@
+package com.sokcs.dns;
+
+import com.sokcs.utils.TransportUtils;
+import io.netty.bootstrap.Bootstrap;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.EventLoop;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.channel.socket.DatagramChannel;
+import io.netty.handler.codec.dns.DatagramDnsQuery;
+import io.netty.handler.codec.dns.DatagramDnsQueryDecoder;
+import io.netty.handler.codec.dns.DatagramDnsResponse;
+import io.netty.handler.codec.dns.DatagramDnsResponseEncoder;
+import io.netty.handler.codec.dns.DefaultDnsQuestion;
+import io.netty.handler.codec.dns.DefaultDnsRawRecord;
+import io.netty.handler.codec.dns.DnsQuestion;
+import io.netty.handler.codec.dns.DnsRecordType;
+import io.netty.handler.codec.dns.DnsResponseCode;
+import io.netty.handler.codec.dns.DnsSection;
+import io.netty.resolver.AddressResolverGroup;
+import io.netty.resolver.dns.DefaultDnsCache;
+import io.netty.resolver.dns.SingletonDnsServerAddressStreamProvider;
+import io.netty.util.concurrent.Future;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 本地UDP存根DNS服务器：
+ * a.test → 10.0.0.1（TTL 60），short.test → 10.0.0.2（TTL 1），slow.test延迟300ms应答，其余NXDOMAIN
+ */
+public class DnsResolverTest {
+    private static EventLoopGroup group;
+    private static Channel server;
+    // 主机名 → A查询次数
+    private static final Map<String, AtomicInteger> QUERIES = new ConcurrentHashMap<>();
+
+    private MetricsDnsCache cache;
+    private AddressResolverGroup<InetSocketAddress> resolverGroup;
+
+    @BeforeClass
+    public static void startServer() throws Exception {
+        group = TransportUtils.newEventLoopGroup(2);
+        server = new Bootstrap().group(group)
+                .channel(TransportUtils.datagramChannelClass())
+                .handler(new ChannelInitializer<DatagramChannel>() {
+                    @Override
+                    protected void initChannel(DatagramChannel ch) {
+                        ch.pipeline().addLast(new DatagramDnsQueryDecoder(), new DatagramDnsResponseEncoder(), new StubHandler());
+                    }
+                })
+                .bind("127.0.0.1", 0).sync().channel();
+    }
+
+    @AfterClass
+    public static void stopServer() {
+        server.close();
+        group.shutdownGracefully(0, 1, TimeUnit.SECONDS);
+    }
+
+    @Before
+    public void setUp() {
+        QUERIES.clear();
+        cache = new MetricsDnsCache(new DefaultDnsCache(0, 3600, 10));
+        resolverGroup = DnsResolver.newGroup(new SingletonDnsServerAddressStreamProvider((InetSocketAddress) server.localAddress()), cache);
+    }
+
+    @After
+    public void tearDown() {
+        resolverGroup.close();
+    }
+
+    @Test
+    public void cachesPositiveAnswer() throws Exception {
+        assertEquals("10.0.0.1", resolve("a.test").get(5, TimeUnit.SECONDS).getAddress().getHostAddress());
+        assertEquals("10.0.0.1", resolve("a.test").get(5, TimeUnit.SECONDS).getAddress().getHostAddress());
+        assertEquals(1, queries("a.test"));
+        assertTrue(cache.hits() >= 1);
+    }
+
+    @Test
+    public void cachesNegativeAnswer() throws Exception {
+        Future<InetSocketAddress> first = resolve("missing.test").await();
+        assertFalse(first.isSuccess());
+        int queried = queries("missing.test");
+        assertTrue(queried >= 1);
+
+        Future<InetSocketAddress> second = resolve("missing.test").await();
+        assertTrue(second.cause() instanceof UnknownHostException);
+        assertEquals(queried, queries("missing.test"));
+        assertTrue(cache.negativeHits() >= 1);
+    }
+
+    @Test
+    public void expiresAfterTtl() throws Exception {
+        resolve("short.test").get(5, TimeUnit.SECONDS);
+        resolve("short.test").get(5, TimeUnit.SECONDS);
+        assertEquals(1, queries("short.test"));
+
+        Thread.sleep(1500);
+        resolve("short.test").get(5, TimeUnit.SECONDS);
+        assertEquals(2, queries("short.test"));
+    }
+
+    @Test
+    public void deduplicatesConcurrentLookups() throws Exception {
+        List<Future<InetSocketAddress>> futures = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            // 分布在不同的EventLoop上
+            futures.add(resolve("slow.test"));
+        }
+        for (Future<InetSocketAddress> future : futures) {
+            assertEquals("10.0.0.3", future.get(5, TimeUnit.SECONDS).getAddress().getHostAddress());
+        }
+        assertEquals(1, queries("slow.test"));
+    }
+
+    private Future<InetSocketAddress> resolve(String host) {
+        EventLoop eventLoop = group.next();
+        return resolverGroup.getResolver(eventLoop).resolve(InetSocketAddress.createUnresolved(host, 80));
+    }
+
+    private static int queries(String host) {
+        AtomicInteger count = QUERIES.get(host);
+        return count == null ? 0 : count.get();
+    }
+
+    private static final class StubHandler extends SimpleChannelInboundHandler<DatagramDnsQuery> {
+        @Override
+        protected void channelRead0(ChannelHandlerContext ctx, DatagramDnsQuery query) {
+            DnsQuestion question = query.recordAt(DnsSection.QUESTION);
+            String name = question.name().endsWith(".") ? question.name().substring(0, question.name().length() - 1) : question.name();
+            DatagramDnsResponse response = new DatagramDnsResponse(query.recipient(), query.sender(), query.id());
+            response.addRecord(DnsSection.QUESTION, new DefaultDnsQuestion(question.name(), question.type()));
+
+            byte[] address;
+            long ttl;
+            if (name.equals("a.test")) {
+                address = new byte[]{10, 0, 0, 1};
+                ttl = 60;
+            } else if (name.equals("short.test")) {
+                address = new byte[]{10, 0, 0, 2};
+                ttl = 1;
+            } else if (name.equals("slow.test")) {
+                address = new byte[]{10, 0, 0, 3};
+                ttl = 60;
+            } else {
+                address = null;
+                ttl = 0;
+            }
+
+            if (question.type() == DnsRecordType.A) {
+                QUERIES.computeIfAbsent(name, k -> new AtomicInteger()).incrementAndGet();
+            }
+            if (address == null) {
+                response.setCode(DnsResponseCode.NXDOMAIN);
+            } else if (question.type() == DnsRecordType.A) {
+                response.addRecord(DnsSection.ANSWER,
+                        new DefaultDnsRawRecord(question.name(), DnsRecordType.A, ttl, Unpooled.wrappedBuffer(address)));
+            }
+
+            if (name.equals("slow.test")) {
+                ctx.executor().schedule(() -> ctx.writeAndFlush(response), 300, TimeUnit.MILLISECONDS);
+            } else {
+                ctx.writeAndFlush(response);
+            }
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package com.sokcs.dns;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 域名后缀树：最长后缀优先，"*.x"只匹配子域名，忽略大小写和末尾的点，覆盖规则不重复计数
+ */
+public class DomainTrieTest {
+
+    @Test
+    public void longestSuffixWins() {
+        DomainTrie<String> trie = new DomainTrie<>();
+        trie.put("example.com", "site");
+        trie.put("api.example.com", "api");
+
+        assertEquals("site", trie.match("example.com"));
+        assertEquals("site", trie.match("www.example.com"));
+        assertEquals("api", trie.match("api.example.com"));
+        assertEquals("api", trie.match("v1.api.example.com"));
+        assertNull(trie.match("com"));
+        assertNull(trie.match("badexample.com"));
+        assertNull(trie.match("example.org"));
+    }
+
+    @Test
+    public void wildcardMatchesOnlySubdomains() {
+        DomainTrie<String> trie = new DomainTrie<>();
+        trie.put("*.example.com", "sub");
+        assertNull(trie.match("example.com"));
+        assertEquals("sub", trie.match("www.example.com"));
+        assertEquals("sub", trie.match("a.b.example.com"));
+
+        // 同时有"x"和"*.x"时，x本身用"x"，子域名用"*.x"
+        trie.put("example.com", "site");
+        assertEquals("site", trie.match("example.com"));
+        assertEquals("sub", trie.match("www.example.com"));
+
+        // 更长的后缀仍然优先于通配符
+        trie.put("api.example.com", "api");
+        assertEquals("api", trie.match("api.example.com"));
+        assertEquals("api", trie.match("v1.api.example.com"));
+    }
+
+    @Test
+    public void ignoresCaseAndTrailingDot() {
+        DomainTrie<String> trie = new DomainTrie<>();
+        trie.put("Example.COM.", "site");
+
+        assertEquals("site", trie.match("example.com"));
+        assertEquals("site", trie.match("WWW.EXAMPLE.com"));
+        assertEquals("site", trie.match("www.example.com."));
+        assertNull(trie.match("example.net."));
+    }
+
+    @Test
+    public void overwriteDoesNotCount() {
+        DomainTrie<String> trie = new DomainTrie<>();
+        assertTrue(trie.isEmpty());
+
+        trie.put("example.com", "first");
+        trie.put("EXAMPLE.com.", "second");
+        trie.put("*.example.com", "sub");
+        trie.put("*.example.com", "sub2");
+        assertEquals(2, trie.size());
+        assertEquals("second", trie.match("example.com"));
+        assertEquals("sub2", trie.match("www.example.com"));
+    }
+
+    @Test
+    public void manyLabelsAtOneLevel() {
+        // 子节点表扩容后仍能找到所有标签
+        DomainTrie<Integer> trie = new DomainTrie<>();
+        for (int i = 0; i < 100; i++) {
+            trie.put("host" + i + ".example.com", i);
+        }
+        assertEquals(100, trie.size());
+        for (int i = 0; i < 100; i++) {
+            assertEquals(Integer.valueOf(i), trie.match("HOST" + i + ".example.com"));
+        }
+        assertNull(trie.match("host100.example.com"));
+    }
+}
@@ -0,0 +1,143 @@
+package com.sokcs.handler.http;
+
+import com.sokcs.utils.TransportUtils;
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.EventLoopGroup;
+import io.netty.handler.codec.http.HttpServerCodec;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 经由连接池转发的协议升级：源站回复101后紧接着发送新协议的数据，之后按行回显
+ */
+public class HttpUpgradeTest {
+    private EventLoopGroup group;
+    private Channel proxy;
+    private ServerSocket origin;
+    private final CompletableFuture<String> originRequest = new CompletableFuture<>();
+
+    @Before
+    public void setUp() throws Exception {
+        group = TransportUtils.newEventLoopGroup(1);
+        proxy = new ServerBootstrap().group(group)
+                .channel(TransportUtils.serverSocketChannelClass())
+                .childHandler(new ChannelInitializer<Channel>() {
+                    @Override
+                    protected void initChannel(Channel ch) {
+                        ch.pipeline().addLast(HandlerName.HTTP_SERVER_CODEC, new HttpServerCodec());
+                        ch.pipeline().addLast(HandlerName.HTTP_HANDLER, new HttpHandler(null, null, null));
+                    }
+                })
+                .bind("127.0.0.1", 0).sync().channel();
+
+        origin = new ServerSocket(0, 1, proxyAddress().getAddress());
+        Thread thread = new Thread(this::serveOrigin, "origin");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        origin.close();
+        proxy.close().sync();
+        group.shutdownGracefully(0, 1, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void relaysUpgradedConnection() throws Exception {
+        int port = origin.getLocalPort();
+        try (Socket socket = new Socket()) {
+            socket.setSoTimeout(5000);
+            socket.connect(proxyAddress());
+            OutputStream out = socket.getOutputStream();
+            InputStream in = socket.getInputStream();
+            out.write(("GET http://127.0.0.1:" + port + "/echo HTTP/1.1\r\n"
+                    + "Host: 127.0.0.1:" + port + "\r\n"
+                    + "Connection: Upgrade\r\n"
+                    + "Upgrade: echo\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+
+            String response = readHead(in);
+            assertTrue(response, response.startsWith("HTTP/1.1 101"));
+            // 与101在同一次写入中发出的数据
+            assertEquals("hello\n", readLine(in));
+
+            out.write("ping\n".getBytes(StandardCharsets.US_ASCII));
+            assertEquals("ping\n", readLine(in));
+            out.write("pong\n".getBytes(StandardCharsets.US_ASCII));
+            assertEquals("pong\n", readLine(in));
+        }
+
+        String request = originRequest.get(5, TimeUnit.SECONDS).toLowerCase();
+        assertTrue(request, request.contains("\r\nconnection: upgrade\r\n"));
+        assertTrue(request, request.contains("\r\nupgrade: echo\r\n"));
+    }
+
+    private void serveOrigin() {
+        try (Socket socket = origin.accept()) {
+            InputStream in = socket.getInputStream();
+            OutputStream out = socket.getOutputStream();
+            originRequest.complete(readHead(in));
+            out.write(("HTTP/1.1 101 Switching Protocols\r\n"
+                    + "Connection: Upgrade\r\n"
+                    + "Upgrade: echo\r\n\r\n"
+                    + "hello\n").getBytes(StandardCharsets.US_ASCII));
+            out.flush();
+
+            String line;
+            while (!(line = readLine(in)).isEmpty()) {
+                out.write(line.getBytes(StandardCharsets.US_ASCII));
+                out.flush();
+            }
+        } catch (IOException e) {
+            originRequest.completeExceptionally(e);
+        }
+    }
+
+    private InetSocketAddress proxyAddress() {
+        return (InetSocketAddress) proxy.localAddress();
+    }
+
+    private static String readHead(InputStream in) throws IOException {
+        ByteArrayOutputStream head = new ByteArrayOutputStream();
+        while (!head.toString("US-ASCII").endsWith("\r\n\r\n")) {
+            int b = in.read();
+            if (b < 0) {
+                break;
+            }
+            head.write(b);
+        }
+        return head.toString("US-ASCII");
+    }
+
+    /**
+     * @return 包含换行符的一行，连接关闭时为空串
+     */
+    private static String readLine(InputStream in) throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        int b;
+        while ((b = in.read()) >= 0) {
+            line.write(b);
+            if (b == '\n') {
+                break;
+            }
+        }
+        return line.toString("US-ASCII");
+    }
+}
@@ -0,0 +1,107 @@
+package com.sokcs.handler.http;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.http.DefaultFullHttpRequest;
+import io.netty.handler.codec.http.DefaultHttpRequest;
+import io.netty.handler.codec.http.DefaultLastHttpContent;
+import io.netty.handler.codec.http.FullHttpRequest;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpHeaders;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpRequest;
+import io.netty.handler.codec.http.HttpRequestEncoder;
+import io.netty.handler.codec.http.HttpVersion;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 普通http请求发往上游的两种编码方式：
+ * 改动前每个请求聚合为FullHttpRequest后新建EmbeddedChannel和HttpRequestEncoder编码一次（MsgUtils.fromHttpRequest），
+ * 现在解码出的请求头与请求体直接写入上游连接上常驻的HttpClientCodec。
+ * 两种方式都只计编码，不含网络写入
+ * <p>
+ * 运行：mvn -Pbench test-compile exec:exec -Dbench.args="RequestEncodeBenchmark -prof gc"
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RequestEncodeBenchmark {
+    @Param({"0", "1024", "16384"})
+    private int bodySize;
+
+    private HttpHeaders headers;
+    private ByteBuf body;
+    // 上游连接上常驻的编码器，即HttpClientCodec中的编码部分（不用HttpClientCodec是因为没有响应时它记录的请求方法会一直累积）
+    private EmbeddedChannel upstream;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        HttpRequest request = new DefaultHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.POST, "/api/items?page=1");
+        headers = request.headers();
+        headers.set(HttpHeaderNames.HOST, "example.com");
+        headers.set(HttpHeaderNames.USER_AGENT, "Mozilla/5.0 (X11; Linux x86_64) AppleWebKit/537.36 (KHTML, like Gecko)");
+        headers.set(HttpHeaderNames.ACCEPT, "text/html,application/xhtml+xml,application/xml;q=0.9,*/*;q=0.8");
+        headers.set(HttpHeaderNames.ACCEPT_ENCODING, "gzip, deflate");
+        headers.set(HttpHeaderNames.COOKIE, "session=0123456789abcdef0123456789abcdef; theme=dark");
+        headers.set(HttpHeaderNames.CONTENT_TYPE, "application/json");
+        headers.set(HttpHeaderNames.CONTENT_LENGTH, bodySize);
+
+        body = Unpooled.directBuffer(bodySize).writeZero(bodySize);
+        upstream = new EmbeddedChannel(new HttpRequestEncoder());
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        upstream.finishAndReleaseAll();
+        body.release();
+    }
+
+    @Benchmark
+    public void embeddedChannelPerRequest(Blackhole blackhole) {
+        FullHttpRequest request = new DefaultFullHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.POST, "/api/items?page=1",
+                body.retainedDuplicate());
+        request.headers().set(headers);
+
+        EmbeddedChannel embeddedChannel = new EmbeddedChannel(new HttpRequestEncoder());
+        embeddedChannel.writeOutbound(request);
+        // 原方法只取第一段，请求体放不进请求头的缓冲时会被丢掉，这里全部取出
+        ByteBuf encoded;
+        while ((encoded = embeddedChannel.readOutbound()) != null) {
+            blackhole.consume(encoded.readableBytes());
+            encoded.release();
+        }
+        embeddedChannel.close();
+    }
+
+    @Benchmark
+    public void longLivedEncoder(Blackhole blackhole) {
+        HttpRequest request = new DefaultHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.POST, "/api/items?page=1");
+        request.headers().set(headers);
+
+        upstream.writeOutbound(request, new DefaultLastHttpContent(body.retainedDuplicate()));
+        ByteBuf encoded;
+        while ((encoded = upstream.readOutbound()) != null) {
+            blackhole.consume(encoded.readableBytes());
+            encoded.release();
+        }
+    }
+}
@@ -0,0 +1,197 @@
+package com.sokcs.handler.socks;
+
+import com.sokcs.utils.SocksServerUtils;
+import com.sokcs.utils.TransportUtils;
+import io.netty.bootstrap.Bootstrap;
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.ChannelOutboundHandlerAdapter;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.FixedRecvByteBufAllocator;
+import io.netty.util.ReferenceCountUtil;
+
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 回环隧道上对比每次读取都刷新（改动前）与每个读取批次刷新一次（{@link RelayHandler}）：
+ * 客户端 → 中继 → 接收端，统计中继写向接收端的flush次数（每次flush一次write/writev系统调用）
+ * 以及期间本机发送的TCP段数（/proc/net/snmp的OutSegs，包含客户端发出的段，只在Linux上可用）。
+ * 默认的自适应接收缓冲在回环上一次读取通常就读完一个批次，两种方式差别不大；
+ * 接收缓冲较小（固定大小）时一个批次包含多次读取，批次刷新减少的写系统调用与TCP段最明显。
+ * <p>
+ * 运行：mvn -Pbench test-compile exec:exec -Dbench.main=com.sokcs.handler.socks.RelayFlushBenchmark -Dbench.args="总MB 消息字节数 固定接收缓冲字节数"
+ */
+public final class RelayFlushBenchmark {
+    private static final Path SNMP = Paths.get("/proc/net/snmp");
+
+    private RelayFlushBenchmark() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        long total = (args.length > 0 ? Long.parseLong(args[0]) : 64) << 20;
+        int messageSize = args.length > 1 ? Integer.parseInt(args[1]) : 512;
+        int bufferSize = args.length > 2 ? Integer.parseInt(args[2]) : 2048;
+
+        EventLoopGroup group = TransportUtils.newEventLoopGroup(2);
+        try {
+            // 预热一次，避免JIT影响第一种方式
+            run(group, false, total / 4, messageSize, 0);
+            run(group, true, total / 4, messageSize, 0);
+            for (int size : new int[]{0, bufferSize}) {
+                System.out.println(size == 0 ? "自适应接收缓冲：" : "固定接收缓冲 " + size + " 字节：");
+                for (int i = 0; i < 3; i++) {
+                    report("  每次读取刷新", run(group, false, total, messageSize, size), total);
+                    report("  批次刷新", run(group, true, total, messageSize, size), total);
+                }
+            }
+        } finally {
+            group.shutdownGracefully();
+        }
+    }
+
+    private static void report(String name, long[] result, long total) {
+        double mb = total / (double) (1 << 20);
+        System.out.printf("%s：%.0f MB/s，读取 %d，flush %d（每MB %.1f），TCP段 %s%n", name,
+                mb / (result[0] / 1e9), result[1], result[2], result[2] / mb,
+                result[3] < 0 ? "不可用" : String.format("%d（每MB %.1f）", result[3], result[3] / mb));
+    }
+
+    /**
+     * @return 耗时纳秒、中继读取次数、flush次数、TCP段数（不可用时为-1）
+     */
+    private static long[] run(EventLoopGroup group, boolean coalesced, long total, int messageSize, int bufferSize) throws Exception {
+        AtomicLong received = new AtomicLong();
+        AtomicLong reads = new AtomicLong();
+        AtomicLong flushes = new AtomicLong();
+
+        Channel sink = new ServerBootstrap().group(group)
+                .channel(TransportUtils.serverSocketChannelClass())
+                .childHandler(new ChannelInboundHandlerAdapter() {
+                    @Override
+                    public void channelRead(ChannelHandlerContext ctx, Object msg) {
+                        received.addAndGet(((ByteBuf) msg).readableBytes());
+                        ReferenceCountUtil.release(msg);
+                    }
+                })
+                .bind("127.0.0.1", 0).sync().channel();
+
+        Channel relay = new ServerBootstrap().group(group)
+                .channel(TransportUtils.serverSocketChannelClass())
+                .childOption(ChannelOption.AUTO_READ, false)
+                .childOption(ChannelOption.TCP_NODELAY, true)
+                .childHandler(new ChannelInitializer<Channel>() {
+                    @Override
+                    protected void initChannel(Channel inbound) {
+                        if (bufferSize > 0) {
+                            // 新建的分配器每批次只读一次，与默认配置一样每批次最多读16次
+                            inbound.config().setRecvByteBufAllocator(new FixedRecvByteBufAllocator(bufferSize).maxMessagesPerRead(16));
+                        }
+                        new Bootstrap().group(inbound.eventLoop())
+                                .channel(TransportUtils.socketChannelClass(inbound.eventLoop()))
+                                .option(ChannelOption.TCP_NODELAY, true)
+                                .handler(new ChannelOutboundHandlerAdapter() {
+                                    @Override
+                                    public void flush(ChannelHandlerContext ctx) throws Exception {
+                                        flushes.incrementAndGet();
+                                        super.flush(ctx);
+                                    }
+                                })
+                                .connect(sink.localAddress())
+                                .addListener((ChannelFutureListener) future -> {
+                                    Channel outbound = future.channel();
+                                    inbound.pipeline().addLast(new ChannelInboundHandlerAdapter() {
+                                        @Override
+                                        public void channelRead(ChannelHandlerContext ctx, Object msg) {
+                                            reads.incrementAndGet();
+                                            ctx.fireChannelRead(msg);
+                                        }
+                                    });
+                                    inbound.pipeline().addLast(coalesced ? new RelayHandler(outbound) : new FlushPerRead(outbound));
+                                    outbound.pipeline().addLast(new RelayHandler(inbound));
+                                    inbound.config().setAutoRead(true);
+                                });
+                    }
+                })
+                .bind("127.0.0.1", 0).sync().channel();
+
+        long segments = outSegments();
+        long start = System.nanoTime();
+        try (Socket socket = new Socket()) {
+            socket.setTcpNoDelay(true);
+            socket.connect(relay.localAddress());
+            OutputStream out = socket.getOutputStream();
+            byte[] message = new byte[messageSize];
+            for (long sent = 0; sent < total; sent += messageSize) {
+                out.write(message);
+            }
+            while (received.get() < total) {
+                Thread.sleep(1);
+            }
+        }
+        long elapsed = System.nanoTime() - start;
+        long segmentsAfter = outSegments();
+
+        relay.close().sync();
+        sink.close().sync();
+        return new long[]{elapsed, reads.get(), flushes.get(), segments < 0 ? -1 : segmentsAfter - segments};
+    }
+
+    private static long outSegments() {
+        try {
+            List<String> lines = Files.readAllLines(SNMP, StandardCharsets.US_ASCII);
+            String[] names = null;
+            for (String line : lines) {
+                if (!line.startsWith("Tcp:")) {
+                    continue;
+                }
+                String[] fields = line.split("\\s+");
+                if (names == null) {
+                    names = fields;
+                    continue;
+                }
+                for (int i = 1; i < names.length; i++) {
+                    if (names[i].equals("OutSegs")) {
+                        return Long.parseLong(fields[i]);
+                    }
+                }
+            }
+        } catch (Exception e) {
+            // 非Linux
+        }
+        return -1;
+    }
+
+    /**
+     * 改动前的转发方式：每次读取立即写入并刷新
+     */
+    private static final class FlushPerRead extends ChannelInboundHandlerAdapter {
+        private final Channel relayChannel;
+
+        private FlushPerRead(Channel relayChannel) {
+            this.relayChannel = relayChannel;
+        }
+
+        @Override
+        public void channelRead(ChannelHandlerContext ctx, Object msg) {
+            relayChannel.writeAndFlush(msg);
+        }
+
+        @Override
+        public void channelInactive(ChannelHandlerContext ctx) {
+            SocksServerUtils.closeOnFlush(relayChannel);
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package com.sokcs.handler.socks;
+
+import com.sokcs.auth.StubAuthenticator;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.socksx.v4.DefaultSocks4CommandRequest;
+import io.netty.handler.codec.socksx.v4.Socks4CommandResponse;
+import io.netty.handler.codec.socksx.v4.Socks4CommandStatus;
+import io.netty.handler.codec.socksx.v4.Socks4CommandType;
+import io.netty.handler.codec.socksx.v5.DefaultSocks5PasswordAuthRequest;
+import io.netty.handler.codec.socksx.v5.Socks5CommandRequestDecoder;
+import io.netty.handler.codec.socksx.v5.Socks5PasswordAuthResponse;
+import io.netty.handler.codec.socksx.v5.Socks5PasswordAuthStatus;
+import io.netty.util.ReferenceCountUtil;
+import org.junit.After;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * socks5用户名密码认证：后端较慢时暂停读取，超时后按认证失败回复；启用认证后拒绝socks4
+ */
+public class SocksServerHandlerTest {
+    private static final long TIMEOUT_MILLIS = 200;
+
+    private StubAuthenticator backend;
+    private EmbeddedChannel channel;
+
+    @After
+    public void tearDown() {
+        backend.release();
+        channel.finishAndReleaseAll();
+    }
+
+    @Test
+    public void slowBackendFailsAtTimeout() throws Exception {
+        backend = new StubAuthenticator("alice", "secret", true);
+        channel = new EmbeddedChannel(new SocksServerHandler(backend, TIMEOUT_MILLIS));
+
+        channel.writeInbound(new DefaultSocks5PasswordAuthRequest("alice", "secret"));
+        assertNull(channel.readOutbound());
+        assertFalse(channel.config().isAutoRead());
+
+        Thread.sleep(TIMEOUT_MILLIS + 50);
+        channel.runScheduledPendingTasks();
+        Socks5PasswordAuthResponse response = channel.readOutbound();
+        assertEquals(Socks5PasswordAuthStatus.FAILURE, response.status());
+        ReferenceCountUtil.release(channel.readOutbound());
+        assertFalse(channel.isOpen());
+
+        // 超时后才返回的结果被忽略
+        backend.release();
+        Thread.sleep(100);
+        channel.runPendingTasks();
+        assertNull(channel.readOutbound());
+    }
+
+    @Test
+    public void backendAnswerBeforeTimeoutIsUsed() throws Exception {
+        backend = new StubAuthenticator("alice", "secret", false);
+        channel = new EmbeddedChannel(new SocksServerHandler(backend, TIMEOUT_MILLIS));
+
+        channel.writeInbound(new DefaultSocks5PasswordAuthRequest("alice", "secret"));
+        Socks5PasswordAuthResponse response = null;
+        long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS / 2;
+        while (response == null && System.currentTimeMillis() < deadline) {
+            channel.runPendingTasks();
+            response = channel.readOutbound();
+        }
+        assertNotNull(response);
+        assertEquals(Socks5PasswordAuthStatus.SUCCESS, response.status());
+        assertTrue(channel.config().isAutoRead());
+        assertNotNull(channel.pipeline().get(Socks5CommandRequestDecoder.class));
+
+        // 超时任务已取消
+        Thread.sleep(TIMEOUT_MILLIS + 50);
+        channel.runScheduledPendingTasks();
+        assertNull(channel.readOutbound());
+        assertTrue(channel.isOpen());
+    }
+
+    @Test
+    public void socks4RefusedWhenAuthEnabled() {
+        backend = new StubAuthenticator("alice", "secret", false);
+        channel = new EmbeddedChannel(new SocksServerHandler(backend, TIMEOUT_MILLIS));
+
+        channel.writeInbound(new DefaultSocks4CommandRequest(Socks4CommandType.CONNECT, "example.com", 443));
+        Socks4CommandResponse response = channel.readOutbound();
+        assertEquals(Socks4CommandStatus.REJECTED_OR_FAILED, response.status());
+        ReferenceCountUtil.release(channel.readOutbound());
+        assertFalse(channel.isOpen());
+        assertNull(channel.pipeline().get(SocksServerConnectHandler.class));
+        assertEquals(0, backend.calls());
+    }
+}
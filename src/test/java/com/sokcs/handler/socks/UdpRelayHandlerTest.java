@@ -0,0 +1,120 @@
+package com.sokcs.handler.socks;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.channel.socket.DatagramPacket;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class UdpRelayHandlerTest {
+    private static final InetSocketAddress CLIENT = new InetSocketAddress("127.0.0.1", 40000);
+    private static final InetSocketAddress TARGET = new InetSocketAddress("10.1.2.3", 53);
+    private static final InetSocketAddress RELAY = new InetSocketAddress("127.0.0.1", 50000);
+
+    private EmbeddedChannel channel;
+
+    @Before
+    public void setUp() throws Exception {
+        channel = new EmbeddedChannel(new UdpRelayHandler(InetAddress.getByName("127.0.0.1"), null, 2));
+    }
+
+    @After
+    public void tearDown() {
+        channel.finishAndReleaseAll();
+    }
+
+    @Test
+    public void forwardsPayloadWithoutHeader() {
+        channel.writeInbound(fromClient(TARGET, "query"));
+
+        DatagramPacket out = channel.readOutbound();
+        assertEquals(TARGET, out.recipient());
+        assertEquals("query", out.content().toString(StandardCharsets.US_ASCII));
+        out.release();
+    }
+
+    @Test
+    public void repliesWithSocksHeader() {
+        channel.writeInbound(fromClient(TARGET, "query"));
+        ((DatagramPacket) channel.readOutbound()).release();
+
+        channel.writeInbound(new DatagramPacket(ascii("answer"), RELAY, TARGET));
+        DatagramPacket out = channel.readOutbound();
+        assertEquals(CLIENT, out.recipient());
+        ByteBuf expected = header(TARGET).writeBytes("answer".getBytes(StandardCharsets.US_ASCII));
+        assertEquals(ByteBufUtil.hexDump(expected), ByteBufUtil.hexDump(out.content()));
+        // 单个直接内存缓冲区，NIO发送时不会再复制
+        assertTrue(out.content().isDirect());
+        assertEquals(1, out.content().nioBufferCount());
+        expected.release();
+        out.release();
+    }
+
+    @Test
+    public void dropsRepliesFromAddressesNotContacted() {
+        channel.writeInbound(fromClient(TARGET, "query"));
+        ((DatagramPacket) channel.readOutbound()).release();
+
+        channel.writeInbound(new DatagramPacket(ascii("spoofed"), RELAY, new InetSocketAddress("10.9.9.9", 53)));
+        channel.writeInbound(new DatagramPacket(ascii("spoofed"), RELAY, new InetSocketAddress("10.1.2.3", 54)));
+        assertNull(channel.readOutbound());
+    }
+
+    @Test
+    public void evictedTargetNoLongerAcceptsReplies() {
+        channel.writeInbound(fromClient(TARGET, "1"));
+        channel.writeInbound(fromClient(new InetSocketAddress("10.1.2.4", 53), "2"));
+        channel.writeInbound(fromClient(new InetSocketAddress("10.1.2.5", 53), "3"));
+        for (int i = 0; i < 3; i++) {
+            ((DatagramPacket) channel.readOutbound()).release();
+        }
+
+        channel.writeInbound(new DatagramPacket(ascii("late"), RELAY, TARGET));
+        assertNull(channel.readOutbound());
+    }
+
+    @Test
+    public void ignoresMalformedAndFragmentedDatagrams() {
+        // 截断的地址
+        channel.writeInbound(new DatagramPacket(Unpooled.wrappedBuffer(new byte[]{0, 0, 0, 1, 10, 1}), RELAY, CLIENT));
+        // 未知地址类型
+        channel.writeInbound(new DatagramPacket(Unpooled.wrappedBuffer(new byte[]{0, 0, 0, 9, 1, 2, 3, 4, 0, 53}), RELAY, CLIENT));
+        // FRAG不为0
+        ByteBuf fragment = header(TARGET);
+        fragment.setByte(2, 1);
+        channel.writeInbound(new DatagramPacket(fragment, RELAY, CLIENT));
+
+        assertNull(channel.readOutbound());
+        assertFalse(channel.finish());
+    }
+
+    private static DatagramPacket fromClient(InetSocketAddress target, String payload) {
+        return new DatagramPacket(header(target).writeBytes(payload.getBytes(StandardCharsets.US_ASCII)), RELAY, CLIENT);
+    }
+
+    private static ByteBuf header(InetSocketAddress target) {
+        ByteBuf buf = Unpooled.buffer();
+        buf.writeShort(0);
+        buf.writeByte(0);
+        buf.writeByte(1);
+        buf.writeBytes(target.getAddress().getAddress());
+        buf.writeShort(target.getPort());
+        return buf;
+    }
+
+    private static ByteBuf ascii(String s) {
+        return Unpooled.copiedBuffer(s, StandardCharsets.US_ASCII);
+    }
+}
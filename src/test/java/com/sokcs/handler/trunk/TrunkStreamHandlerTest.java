@@ -0,0 +1,128 @@
+package com.sokcs.handler.trunk;
+
+import com.sokcs.connect.Trunk;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelOutboundHandlerAdapter;
+import io.netty.channel.ChannelPromise;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http2.DefaultHttp2DataFrame;
+import io.netty.handler.codec.http2.DefaultHttp2Headers;
+import io.netty.handler.codec.http2.DefaultHttp2HeadersFrame;
+import io.netty.handler.codec.http2.Http2DataFrame;
+import io.netty.handler.codec.http2.Http2Headers;
+import io.netty.handler.codec.http2.Http2HeadersFrame;
+import org.junit.After;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Base64;
+import java.util.Queue;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 被拒绝的流：回复错误并结束流，回复发出前读到的数据直接释放，不排队，回复发出后关闭流
+ */
+public class TrunkStreamHandlerTest {
+    private final HeldWrites writes = new HeldWrites();
+    private EmbeddedChannel channel;
+
+    @After
+    public void tearDown() {
+        writes.complete();
+        channel.finishAndReleaseAll();
+    }
+
+    @Test
+    public void wrongCredentialsRejectedWithoutBuffering() {
+        channel = new EmbeddedChannel(writes, new TrunkStreamHandler(Trunk.authorization("user:secret")));
+        channel.writeInbound(connect("user:wrong"));
+        assertRejected("407");
+
+        // 回复还未发出，流尚未关闭时到达的数据
+        Http2DataFrame data = data();
+        channel.writeInbound(data);
+        assertEquals(0, data.refCnt());
+        assertNull(channel.readInbound());
+
+        writes.complete();
+        assertFalse(channel.isOpen());
+    }
+
+    @Test
+    public void missingCredentialsRejected() {
+        channel = new EmbeddedChannel(writes, new TrunkStreamHandler(Trunk.authorization("user:secret")));
+        channel.writeInbound(new DefaultHttp2HeadersFrame(new DefaultHttp2Headers()
+                .method(HttpMethod.CONNECT.asciiName()).authority("example.com:443")));
+        assertRejected("407");
+    }
+
+    @Test
+    public void unconfiguredCredentialsRejectEverything() {
+        channel = new EmbeddedChannel(writes, new TrunkStreamHandler(Trunk.authorization("")));
+        channel.writeInbound(connect(""));
+        assertRejected("407");
+    }
+
+    @Test
+    public void nonConnectRequestRejected() {
+        channel = new EmbeddedChannel(writes, new TrunkStreamHandler(Trunk.authorization("user:secret")));
+        Http2DataFrame data = data();
+        channel.writeInbound(new DefaultHttp2HeadersFrame(new DefaultHttp2Headers()
+                .method(HttpMethod.GET.asciiName()).authority("example.com:443")), data);
+
+        assertRejected("400");
+        assertEquals(0, data.refCnt());
+        writes.complete();
+        assertFalse(channel.isOpen());
+    }
+
+    private void assertRejected(String status) {
+        Http2HeadersFrame response = (Http2HeadersFrame) writes.messages.poll();
+        assertEquals(status, response.headers().status().toString());
+        assertTrue(response.isEndStream());
+        assertNull(writes.messages.poll());
+        assertFalse(channel.config().isAutoRead());
+    }
+
+    private static Http2DataFrame data() {
+        return new DefaultHttp2DataFrame(Unpooled.copiedBuffer("early", StandardCharsets.US_ASCII));
+    }
+
+    private static Http2HeadersFrame connect(String credentials) {
+        Http2Headers headers = new DefaultHttp2Headers()
+                .method(HttpMethod.CONNECT.asciiName())
+                .authority("example.com:443")
+                .set(HttpHeaderNames.PROXY_AUTHORIZATION,
+                        "Basic " + Base64.getEncoder().encodeToString(credentials.getBytes(StandardCharsets.UTF_8)));
+        return new DefaultHttp2HeadersFrame(headers);
+    }
+
+    /**
+     * 暂不完成写入，模拟回复还在发送中
+     */
+    private static final class HeldWrites extends ChannelOutboundHandlerAdapter {
+        private final Queue<Object> messages = new ArrayDeque<>();
+        private final Queue<ChannelPromise> promises = new ArrayDeque<>();
+
+        @Override
+        public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) {
+            messages.add(msg);
+            promises.add(promise);
+        }
+
+        private void complete() {
+            ChannelPromise promise;
+            while ((promise = promises.poll()) != null) {
+                promise.trySuccess();
+            }
+        }
+    }
+}
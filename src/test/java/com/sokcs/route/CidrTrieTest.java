@@ -0,0 +1,99 @@
+package com.sokcs.route;
+
+import org.junit.Test;
+
+import java.net.InetAddress;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * 地址段前缀树：最长前缀优先，IPv4与映射的IPv6地址共用一棵树，覆盖规则不重复计数
+ */
+public class CidrTrieTest {
+
+    @Test
+    public void longestPrefixWins() {
+        CidrTrie<String> trie = new CidrTrie<>();
+        trie.put("10.0.0.0/8", "a");
+        trie.put("10.1.0.0/16", "b");
+        trie.put("10.1.2.3", "c");
+
+        assertEquals("a", trie.match("10.200.0.1"));
+        assertEquals("b", trie.match("10.1.9.9"));
+        assertEquals("c", trie.match("10.1.2.3"));
+        assertEquals("b", trie.match("10.1.2.4"));
+        assertNull(trie.match("11.0.0.1"));
+    }
+
+    @Test
+    public void zeroPrefixMatchesEverything() {
+        CidrTrie<String> trie = new CidrTrie<>();
+        trie.put("0.0.0.0/0", "v4");
+        trie.put("::/0", "v6");
+
+        assertEquals("v4", trie.match("255.255.255.255"));
+        assertEquals("v6", trie.match("2001:db8::1"));
+    }
+
+    @Test
+    public void ipv6Prefixes() {
+        CidrTrie<String> trie = new CidrTrie<>();
+        trie.put("2001:db8::/32", "doc");
+        trie.put("2001:db8:1::/48", "site");
+        trie.put("fd00::/8", "ula");
+
+        assertEquals("doc", trie.match("2001:db8:ffff::1"));
+        assertEquals("site", trie.match("2001:DB8:1:2::3"));
+        assertEquals("site", trie.match("[2001:db8:1::1]"));
+        assertEquals("ula", trie.match("fd12:3456::1%eth0"));
+        assertNull(trie.match("2001:db9::1"));
+        assertNull(trie.match("::1"));
+    }
+
+    @Test
+    public void mappedIpv4SharesIpv4Tree() throws Exception {
+        CidrTrie<String> trie = new CidrTrie<>();
+        trie.put("192.168.0.0/16", "lan");
+        trie.put("::ffff:10.0.0.0/104", "mapped");
+
+        assertEquals("lan", trie.match("::ffff:192.168.1.1"));
+        assertEquals("lan", trie.match("::ffff:c0a8:101"));
+        assertEquals("lan", trie.match(InetAddress.getByName("192.168.1.1")));
+        assertEquals("mapped", trie.match("10.9.8.7"));
+        assertEquals("mapped", trie.match(new byte[]{0, 0, 0, 0, 0, 0, 0, 0, 0, 0, (byte) 0xff, (byte) 0xff, 10, 1, 1, 1}));
+    }
+
+    @Test
+    public void nonAddressesDoNotMatch() {
+        CidrTrie<String> trie = new CidrTrie<>();
+        trie.put("0.0.0.0/0", "v4");
+        trie.put("::/0", "v6");
+
+        assertNull(trie.match("example.com"));
+        assertNull(trie.match("1.2.3"));
+        assertNull(trie.match("1.2.3.256"));
+        assertNull(trie.match("1::2::3"));
+    }
+
+    @Test
+    public void overwriteDoesNotCount() {
+        CidrTrie<String> trie = new CidrTrie<>();
+        trie.put("10.0.0.0/8", "first");
+        trie.put("10.0.0.0/8", "second");
+        trie.put("fd00::/8", "ula");
+
+        assertEquals(2, trie.size());
+        assertEquals("second", trie.match("10.0.0.1"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsPrefixLongerThanAddress() {
+        new CidrTrie<String>().put("10.0.0.0/33", "bad");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsInvalidAddress() {
+        new CidrTrie<String>().put("example.com/8", "bad");
+    }
+}
@@ -0,0 +1,117 @@
+package com.sokcs.route;
+
+import com.sokcs.connect.ParentProxy;
+import org.junit.Test;
+
+import java.net.InetAddress;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 路由规则的解析与决策
+ */
+public class RouteTableTest {
+
+    @Test
+    public void routesByAddressAndDomain() throws Exception {
+        RouteTable table = RouteTable.parse(Arrays.asList(
+                "# 注释",
+                "",
+                "allow 10.1.0.0/16",
+                "deny 10.0.0.0/8",
+                "deny fd00::/8",
+                "deny *.ads.example.com",
+                "allow example.com"));
+
+        assertSame(Route.ALLOW, table.route("10.1.2.3"));
+        assertSame(Route.DENY, table.route("10.2.3.4"));
+        assertSame(Route.DENY, table.route("fd00::1"));
+        assertSame(Route.ALLOW, table.route("ads.example.com"));
+        assertSame(Route.DENY, table.route("x.ads.example.com"));
+        assertSame(Route.ALLOW, table.route("www.example.com"));
+        // 未命中时默认allow
+        assertSame(Route.ALLOW, table.route("example.org"));
+        assertEquals(5, table.size());
+
+        assertTrue(table.permits(InetAddress.getByName("10.1.0.1")));
+        assertFalse(table.permits(InetAddress.getByName("10.2.0.1")));
+        assertTrue(table.permits(InetAddress.getByName("192.168.0.1")));
+    }
+
+    @Test
+    public void defaultLine() {
+        RouteTable table = RouteTable.parse(Arrays.asList("default deny", "allow example.com"));
+        assertSame(Route.ALLOW, table.route("example.com"));
+        assertSame(Route.DENY, table.route("example.org"));
+        assertSame(Route.DENY, table.route("192.0.2.1"));
+        // default只影响决策，解析后的地址只按deny规则检查
+        assertEquals(1, table.size());
+    }
+
+    @Test
+    public void routeBeforeUpstream() {
+        RouteTable table = RouteTable.parse(Arrays.asList(
+                "route office example.com",
+                "upstream office socks5://10.0.0.2:1080 3",
+                "upstream office http://10.0.0.3:3128",
+                "default route office"));
+
+        Route route = table.route("www.example.com");
+        assertEquals(Route.Action.UPSTREAM, route.getAction());
+        assertEquals("office", route.getUpstream().getName());
+        assertEquals(2, route.getUpstream().getParents().size());
+        // 同一组的规则共用一个实例
+        assertSame(route, table.route("example.org"));
+        assertEquals(2, table.parents().size());
+    }
+
+    @Test
+    public void sharedParentAcrossGroups() {
+        RouteTable table = RouteTable.parse(Arrays.asList(
+                "upstream a socks5://10.0.0.2:1080",
+                "upstream b socks5://10.0.0.2:1080",
+                "route a a.example.com",
+                "route b b.example.com"));
+
+        ParentProxy a = table.route("a.example.com").getUpstream().getParents().get(0);
+        ParentProxy b = table.route("b.example.com").getUpstream().getParents().get(0);
+        assertSame(a, b);
+        assertEquals(1, table.parents().size());
+    }
+
+    @Test
+    public void emptyRulesAllowEverything() {
+        RouteTable table = RouteTable.parse(Collections.emptyList());
+        assertSame(Route.ALLOW, table.route("example.com"));
+        assertSame(Route.ALLOW, table.route("::1"));
+        assertEquals(0, table.size());
+    }
+
+    @Test
+    public void rejectsMalformedLines() {
+        assertRejected("deny");
+        assertRejected("deny example.com extra");
+        assertRejected("block example.com");
+        assertRejected("default");
+        assertRejected("default deny example.com");
+        assertRejected("route missing example.com");
+        assertRejected("upstream office");
+        assertRejected("upstream office socks5://10.0.0.2:1080 0");
+        assertRejected("deny 10.0.0.0/33");
+    }
+
+    private static void assertRejected(String line) {
+        try {
+            RouteTable.parse(Collections.singletonList(line));
+        } catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage(), e.getMessage().startsWith("第1行"));
+            return;
+        }
+        throw new AssertionError("应当拒绝：" + line);
+    }
+}
@@ -0,0 +1,64 @@
+package com.sokcs.route;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 重新加载规则文件：格式错误时保留当前规则，修复后恢复
+ */
+public class RouterTest {
+    private Path file;
+
+    @Before
+    public void setUp() throws Exception {
+        file = Files.createTempFile("route", ".conf");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        // 恢复为空规则，不影响其他测试
+        write("");
+        Router.reload(file);
+        Files.delete(file);
+    }
+
+    @Test
+    public void keepsCurrentTableOnParseError() throws Exception {
+        write("deny example.com\n");
+        assertTrue(Router.reload(file));
+        RouteTable loaded = Router.table();
+        assertSame(Route.DENY, Router.route("example.com"));
+
+        write("deny example.com\nroute missing example.org\n");
+        assertFalse(Router.reload(file));
+        assertSame(loaded, Router.table());
+        assertSame(Route.DENY, Router.route("example.com"));
+
+        write("allow example.com\n");
+        assertTrue(Router.reload(file));
+        assertSame(Route.ALLOW, Router.route("example.com"));
+    }
+
+    @Test
+    public void unchangedFileIsNotReparsed() throws Exception {
+        write("deny example.com\n");
+        assertTrue(Router.reload(file));
+        RouteTable loaded = Router.table();
+
+        assertTrue(Router.reload(file));
+        assertSame(loaded, Router.table());
+    }
+
+    private void write(String content) throws Exception {
+        Files.write(file, content.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,190 @@
+package com.sokcs.utils;
+
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.handler.ssl.SslContext;
+import io.netty.handler.ssl.SslContextBuilder;
+import io.netty.handler.ssl.SslProvider;
+import io.netty.handler.ssl.util.InsecureTrustManagerFactory;
+import io.netty.handler.ssl.util.SelfSignedCertificate;
+import io.netty.util.ReferenceCountUtil;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLEngineResult;
+import javax.net.ssl.SSLException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link SslUtils#provider()}可选的两种TLS实现在内存中的对比，不经过网络：
+ * handshake为一次完整握手（不恢复会话），bulk为已建立的连接上加密并解密一个16KB的记录。
+ * 两端使用同一种实现，缓冲与代理转发时一样使用直接内存；bulk的吞吐量为 16KB / 每次耗时
+ * <p>
+ * 运行：mvn -Pbench test-compile exec:exec -Dbench.args="SslProviderBenchmark"
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SslProviderBenchmark {
+    private static final int RECORD_SIZE = 16 * 1024;
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final ByteBuffer EMPTY = ByteBuffer.allocateDirect(0);
+
+    @Param({"JDK", "OPENSSL"})
+    private SslProvider provider;
+
+    @Param({"TLSv1.2", "TLSv1.3"})
+    private String protocol;
+
+    private SelfSignedCertificate certificate;
+    private SslContext serverContext;
+    private SslContext clientContext;
+
+    // bulk使用的已完成握手的一对引擎
+    private SSLEngine client;
+    private SSLEngine server;
+
+    private final ByteBuffer clientToServer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+    private final ByteBuffer serverToClient = ByteBuffer.allocateDirect(BUFFER_SIZE);
+    private final ByteBuffer application = ByteBuffer.allocateDirect(BUFFER_SIZE);
+    private final ByteBuffer plaintext = ByteBuffer.allocateDirect(RECORD_SIZE);
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        certificate = new SelfSignedCertificate("example.com");
+        serverContext = SslContextBuilder.forServer(certificate.certificate(), certificate.privateKey())
+                .sslProvider(provider)
+                .protocols(protocol)
+                .build();
+        clientContext = SslContextBuilder.forClient()
+                .sslProvider(provider)
+                .protocols(protocol)
+                .trustManager(InsecureTrustManagerFactory.INSTANCE)
+                .build();
+
+        client = clientContext.newEngine(ByteBufAllocator.DEFAULT);
+        server = serverContext.newEngine(ByteBufAllocator.DEFAULT);
+        handshake(client, server);
+        if (!protocol.equals(client.getSession().getProtocol())) {
+            throw new IllegalStateException("协商出的协议不是" + protocol + "：" + client.getSession().getProtocol());
+        }
+        // 握手之后服务端可能还发出会话票据，先交给客户端
+        flush(server, client);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        ReferenceCountUtil.release(client);
+        ReferenceCountUtil.release(server);
+        ReferenceCountUtil.release(serverContext);
+        ReferenceCountUtil.release(clientContext);
+        certificate.delete();
+    }
+
+    @Benchmark
+    public boolean handshake() throws SSLException {
+        SSLEngine client = clientContext.newEngine(ByteBufAllocator.DEFAULT);
+        SSLEngine server = serverContext.newEngine(ByteBufAllocator.DEFAULT);
+        try {
+            return handshake(client, server);
+        } finally {
+            ReferenceCountUtil.release(client);
+            ReferenceCountUtil.release(server);
+        }
+    }
+
+    @Benchmark
+    public int bulk() throws SSLException {
+        plaintext.clear();
+        clientToServer.clear();
+        client.wrap(plaintext, clientToServer);
+
+        clientToServer.flip();
+        application.clear();
+        server.unwrap(clientToServer, application);
+        return application.position();
+    }
+
+    /**
+     * @return 两端都完成握手
+     */
+    private boolean handshake(SSLEngine client, SSLEngine server) throws SSLException {
+        clientToServer.clear();
+        serverToClient.clear();
+        client.beginHandshake();
+        server.beginHandshake();
+
+        while (handshaking(client) || handshaking(server)) {
+            boolean progress = step(client, serverToClient, clientToServer);
+            progress |= step(server, clientToServer, serverToClient);
+            if (!progress) {
+                throw new IllegalStateException("握手无法继续：" + client.getHandshakeStatus() + " " + server.getHandshakeStatus());
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 把一端尚未读取的数据交给另一端
+     */
+    private void flush(SSLEngine from, SSLEngine to) throws SSLException {
+        ByteBuffer in = from == server ? serverToClient : clientToServer;
+        in.flip();
+        while (in.hasRemaining()) {
+            application.clear();
+            if (to.unwrap(in, application).bytesConsumed() == 0) {
+                break;
+            }
+        }
+        in.clear();
+    }
+
+    private static boolean handshaking(SSLEngine engine) {
+        SSLEngineResult.HandshakeStatus status = engine.getHandshakeStatus();
+        return status != SSLEngineResult.HandshakeStatus.NOT_HANDSHAKING && status != SSLEngineResult.HandshakeStatus.FINISHED;
+    }
+
+    /**
+     * 按引擎当前的握手状态执行一步
+     *
+     * @param in  对端写入的数据，写模式
+     * @param out 本端写出的数据，写模式
+     * @return 是否有进展
+     */
+    private boolean step(SSLEngine engine, ByteBuffer in, ByteBuffer out) throws SSLException {
+        SSLEngineResult.HandshakeStatus status = engine.getHandshakeStatus();
+        switch (status) {
+            case NEED_WRAP:
+                return engine.wrap(EMPTY, out).bytesProduced() > 0 || engine.getHandshakeStatus() != status;
+            case NEED_UNWRAP:
+                in.flip();
+                application.clear();
+                SSLEngineResult result = engine.unwrap(in, application);
+                in.compact();
+                return result.bytesConsumed() > 0 || engine.getHandshakeStatus() != status;
+            case NEED_TASK:
+                Runnable task;
+                while ((task = engine.getDelegatedTask()) != null) {
+                    task.run();
+                }
+                return true;
+            default:
+                return false;
+        }
+    }
+}